@@ -0,0 +1,150 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Benchmark inputs: the text of the bundled {@code Test.pdf} and synthetic law texts of a
+ * given size. Synthetic texts follow the lagsamling layout (law heading, "N kap." chapters,
+ * "N §." sections) and carry the PDF extraction artefacts the normalizers remove: CRLF line
+ * endings, hyphenated line breaks, whitespace runs and stray control characters. Other
+ * benchmarks draw their filler text from the same vocabulary through {@link #word}.
+ */
+public final class LawTextCorpus {
+
+    static final String TEST_PDF = "TEST_PDF";
+
+    private static final String[] WORDS = {
+            "landskapsregeringen", "kommunen", "beslut", "fullmäktige", "ledamot", "förtroendeuppdrag",
+            "tillämpning", "bestämmelser", "lagstiftning", "verksamhet", "myndighet", "rättelseyrkande",
+            "ska", "får", "om", "och", "i", "att", "den", "som", "enligt", "denna", "lag", "när",
+            "besvär", "förvaltningsdomstol", "delgivning", "ersättning", "tillstånd", "avgift"
+    };
+
+    private LawTextCorpus() {
+    }
+
+    /**
+     * Clean law text, as seen by the segmenter and the heading normalizer.
+     */
+    static String lawText(String corpus) {
+        if (TEST_PDF.equals(corpus)) {
+            return testPdfText();
+        }
+        return synthetic(megabytes(corpus), false);
+    }
+
+    /**
+     * Raw extracted text with PDF artefacts, as seen by the page normalizers.
+     */
+    static String rawPageText(String corpus) {
+        if (TEST_PDF.equals(corpus)) {
+            return withExtractionArtefacts(testPdfText(), new SplittableRandom(7));
+        }
+        return synthetic(megabytes(corpus), true);
+    }
+
+    /**
+     * Splits a text into pages of roughly {@code pageChars} characters, switching law code every
+     * {@code pagesPerLaw} pages.
+     */
+    static List<LagsamlingDocumentReader.DocumentText> pages(String text, int pageChars, int pagesPerLaw) {
+        List<LagsamlingDocumentReader.DocumentText> pages = new ArrayList<>();
+        for (int start = 0, page = 0; start < text.length(); start += pageChars, page++) {
+            int law = page / pagesPerLaw;
+            pages.add(new LagsamlingDocumentReader.DocumentText(
+                    text.substring(start, Math.min(text.length(), start + pageChars)),
+                    "E " + law,
+                    "Landskapslag (2011:" + law + ") om exempel"));
+        }
+        return pages;
+    }
+
+    private static int megabytes(String corpus) {
+        // SYNTHETIC_<n>MB
+        return Integer.parseInt(corpus.substring(corpus.indexOf('_') + 1, corpus.length() - 2));
+    }
+
+    private static String testPdfText() {
+        List<Document> sections = new LagsamlingDocumentReader(new ClassPathResource("Test.pdf")).get();
+        return sections.stream().map(Document::getText).collect(Collectors.joining("\n"));
+    }
+
+    private static String synthetic(int megabytes, boolean artefacts) {
+        int target = megabytes * 1024 * 1024;
+        SplittableRandom random = new SplittableRandom(42);
+        StringBuilder sb = new StringBuilder(target + 4096);
+        int law = 1;
+        while (sb.length() < target) {
+            sb.append("E ").append(law).append(" Landskapslag (2011:").append(law).append(") om ")
+                    .append(word(random)).append(' ').append(word(random)).append('\n');
+            for (int chapter = 1; chapter <= 6 && sb.length() < target; chapter++) {
+                sb.append(chapter).append(" kap. ").append(capitalize(word(random))).append(' ')
+                        .append(word(random)).append('\n');
+                for (int section = 1; section <= 8 && sb.length() < target; section++) {
+                    sb.append(section).append(random.nextInt(6) == 0 ? "a" : "").append(" §. ")
+                            .append(capitalize(word(random))).append(' ').append(word(random)).append('\n');
+                    paragraph(sb, random, 300 + random.nextInt(1500));
+                }
+            }
+            law++;
+        }
+        String text = sb.toString();
+        return artefacts ? withExtractionArtefacts(text, random) : text;
+    }
+
+    private static void paragraph(StringBuilder sb, SplittableRandom random, int chars) {
+        int lineStart = sb.length();
+        int end = sb.length() + chars;
+        while (sb.length() < end) {
+            sb.append(word(random));
+            if (sb.length() - lineStart > 60) {
+                sb.append('\n');
+                lineStart = sb.length();
+            } else {
+                sb.append(' ');
+            }
+        }
+        sb.append(".\n");
+    }
+
+    private static String withExtractionArtefacts(String text, SplittableRandom random) {
+        StringBuilder sb = new StringBuilder(text.length() + text.length() / 10);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                int roll = random.nextInt(20);
+                if (roll == 0) {
+                    sb.append("-\r\n  ");
+                } else if (roll == 1) {
+                    sb.append("\r\n\r\n\r\n");
+                } else {
+                    sb.append("\r\n");
+                }
+            } else if (c == ' ' && random.nextInt(15) == 0) {
+                sb.append(random.nextBoolean() ? "   " : " \t ");
+            } else if (c == ' ' && random.nextInt(200) == 0) {
+                sb.append('\u0007');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A random word of the synthetic law texts.
+     */
+    public static String word(SplittableRandom random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+}
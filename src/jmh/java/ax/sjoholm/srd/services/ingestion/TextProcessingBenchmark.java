@@ -0,0 +1,120 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+
+/**
+ * Throughput and allocation of the ingestion text-processing steps, one benchmark per step.
+ * <p>
+ * Every benchmark also reports {@code megabytes} (MB of UTF-8 input processed per second) as an
+ * auxiliary counter, so inputs of different sizes can be compared; run with the {@code gc}
+ * profiler (the Gradle default) for {@code gc.alloc.rate.norm}, the bytes allocated per call.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class TextProcessingBenchmark {
+
+    @Param({LawTextCorpus.TEST_PDF, "SYNTHETIC_1MB", "SYNTHETIC_4MB"})
+    public String corpus;
+
+    private Document lawDocument;
+    private String lawText;
+    private String rawText;
+    private String leftColumn;
+    private String rightColumn;
+    private List<LagsamlingDocumentReader.DocumentText> pages;
+
+    private double lawTextMb;
+    private double rawTextMb;
+    private double columnsMb;
+
+    private final SectionSegmenter segmenter = new SectionSegmenter();
+    private final DocumentProcessor processor = new DocumentProcessor();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lawText = LawTextCorpus.lawText(corpus);
+        rawText = LawTextCorpus.rawPageText(corpus);
+        lawDocument = new Document(lawText, Map.of("law_code", "E 1", "law_name", "Benchmark"));
+        int half = rawText.length() / 2;
+        leftColumn = rawText.substring(0, half);
+        rightColumn = rawText.substring(half);
+        pages = LawTextCorpus.pages(lawText, 3000, 40);
+
+        lawTextMb = megabytes(lawText);
+        rawTextMb = megabytes(rawText);
+        columnsMb = rawTextMb;
+    }
+
+    @Benchmark
+    public List<Document> segmentSections(Throughput throughput) {
+        throughput.megabytes += lawTextMb;
+        return segmenter.splitIntoSections(lawDocument);
+    }
+
+    @Benchmark
+    public String normalizeHeadings(Throughput throughput) {
+        throughput.megabytes += lawTextMb;
+        return HeadingNormalizer.normalizeHeadings(lawText);
+    }
+
+    @Benchmark
+    public String processorNormalizeText(Throughput throughput) {
+        throughput.megabytes += rawTextMb;
+        return processor.normalizeText(rawText);
+    }
+
+    @Benchmark
+    public String readerNormalize(Throughput throughput) {
+        throughput.megabytes += rawTextMb;
+        return LagsamlingDocumentReader.normalize(rawText);
+    }
+
+    @Benchmark
+    public String mergeColumns(Throughput throughput) {
+        throughput.megabytes += columnsMb;
+        return LagsamlingDocumentReader.mergeColumns(leftColumn, rightColumn);
+    }
+
+    @Benchmark
+    public List<Document> mergePagesByLawCode(Throughput throughput) {
+        throughput.megabytes += lawTextMb;
+        List<Document> laws = new ArrayList<>();
+        var assembler = new LawDocumentAssembler(laws::add);
+        pages.forEach(assembler);
+        assembler.finish();
+        return laws;
+    }
+
+    private static double megabytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8).length / (1024.0 * 1024.0);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+}
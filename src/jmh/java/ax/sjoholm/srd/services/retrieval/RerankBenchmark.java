@@ -0,0 +1,116 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.ai.document.Document;
+
+import ax.sjoholm.srd.services.ingestion.LawTextCorpus;
+
+/**
+ * Latency of {@link Bm25Reranker} per question for typical candidate counts and chunk sizes
+ * (the splitter produces chunks of roughly 600 tokens, about 2500 characters). The reranker
+ * runs on the request thread before the prompt is sent, so this is added to time-to-first-token;
+ * it should stay far below the prefill time it saves.
+ * <p>
+ * Before each trial a sanity check fails the run if the reranker stops preferring the chunks
+ * that use the question's terms: {@value #RELEVANT} such chunks are hidden among the candidates
+ * by a noisy retrieval order, and the reranker has to keep more of them than the first
+ * {@code maxChunks} candidates hold. These chunks match the question on exactly what BM25
+ * scores, so the check says nothing about recall on real questions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class RerankBenchmark {
+
+    @Param({"10", "20", "50"})
+    public int candidates;
+
+    @Param({"2500"})
+    public int chunkChars;
+
+    private static final int MAX_CHUNKS = 4;
+    private static final int RELEVANT = 3;
+    private static final int QUESTIONS = 200;
+    private static final String[] QUESTION_TERMS = { "avgift", "betalas", "tillstånd" };
+
+    private final Bm25Reranker reranker = new Bm25Reranker(0.7, 0.6, 2, MAX_CHUNKS);
+    private final String question = "Vilken avgift ska betalas för tillstånd enligt denna lag?";
+    private List<Document> documents;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        checkReranking();
+        SplittableRandom random = new SplittableRandom(11);
+        documents = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++) {
+            documents.add(new Document("chunk-" + i, chunk(random, i, false), Map.of()));
+        }
+    }
+
+    @Benchmark
+    public List<Document> rerank() {
+        return reranker.rerank(question, documents);
+    }
+
+    private void checkReranking() {
+        SplittableRandom random = new SplittableRandom(17);
+        int retrievalHits = 0;
+        int rerankHits = 0;
+        for (int q = 0; q < QUESTIONS; q++) {
+            // the embedding ranks the term-matching chunks higher on average, but with a lot of noise
+            List<Document> ranked = new ArrayList<>(candidates);
+            List<Double> scores = new ArrayList<>(candidates);
+            for (int i = 0; i < candidates; i++) {
+                boolean relevant = i < RELEVANT;
+                double score = (relevant ? 0.5 : 0.0) + random.nextDouble();
+                int at = 0;
+                while (at < scores.size() && scores.get(at) >= score) {
+                    at++;
+                }
+                scores.add(at, score);
+                ranked.add(at, new Document("chunk-" + i, chunk(random, i, relevant), Map.of("relevant", relevant)));
+            }
+            retrievalHits += relevant(ranked.subList(0, MAX_CHUNKS));
+            rerankHits += relevant(reranker.rerank(question, ranked));
+        }
+        if (rerankHits <= retrievalHits) {
+            throw new IllegalStateException(String.format(Locale.ROOT,
+                    "Reranking kept %d term-matching chunks out of %d, retrieval order %d",
+                    rerankHits, QUESTIONS * RELEVANT, retrievalHits));
+        }
+    }
+
+    private static int relevant(List<Document> documents) {
+        return (int) documents.stream().filter(d -> Boolean.TRUE.equals(d.getMetadata().get("relevant"))).count();
+    }
+
+    /**
+     * A chunk of {@link LawTextCorpus} words behind a {@code [law=…]} header; a relevant one also
+     * uses the question's terms now and then.
+     */
+    private String chunk(SplittableRandom random, int i, boolean relevant) {
+        StringBuilder text = new StringBuilder("[law=E " + i + " | Benchmark | kap 1 | § " + i + "]\n");
+        while (text.length() < chunkChars) {
+            String word = relevant && random.nextInt(20) == 0
+                    ? QUESTION_TERMS[random.nextInt(QUESTION_TERMS.length)]
+                    : LawTextCorpus.word(random);
+            text.append(word).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        return text.toString();
+    }
+}
@@ -2,11 +2,17 @@ package ax.sjoholm.srd;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 
 @SpringBootApplication
 public class SpringRagDemoApplication {
 
+	// startup steps (one per bean instantiation and startup phase) kept for the startup report and /actuator/startup
+	private static final int STARTUP_STEPS = 8192;
+
 	public static void main(String[] args) {
-		SpringApplication.run(SpringRagDemoApplication.class, args);
+		SpringApplication application = new SpringApplication(SpringRagDemoApplication.class);
+		application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEPS));
+		application.run(args);
 	}
 }
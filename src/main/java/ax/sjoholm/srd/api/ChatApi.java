@@ -9,13 +9,14 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import ax.sjoholm.srd.services.chat.ChatDtos;
+import reactor.core.publisher.Flux;
 
 @Tag(name = "Chat", description = "RAG-powered chat API for querying legal documents")
 public interface ChatApi {
@@ -38,6 +39,10 @@ public interface ChatApi {
             @ApiResponse(
                     responseCode = "500",
                     description = "Internal server error",
+                    content = @Content),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "All generation slots are busy and none freed up within the queue timeout",
                     content = @Content)
     })
     @PostMapping(value = "/chat", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -46,7 +51,8 @@ public interface ChatApi {
     @Operation(
             summary = "Stream a chat response",
             description = "Submit a question and receive a streaming response via Server-Sent Events. " +
-                    "Tokens are sent incrementally as they are generated.")
+                    "Tokens are sent incrementally as `message` events, followed by one `sources` event " +
+                    "and a final `done` event. Closing the connection stops the generation.")
     @ApiResponses({
             @ApiResponse(
                     responseCode = "200",
@@ -59,11 +65,16 @@ public interface ChatApi {
             @ApiResponse(
                     responseCode = "500",
                     description = "Internal server error",
+                    content = @Content),
+            @ApiResponse(
+                    responseCode = "503",
+                    description = "All generation slots are busy and none freed up within the queue timeout",
                     content = @Content)
     })
     @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    SseEmitter stream(
-            @Parameter(description = "Unique conversation identifier for tracking the session", required = true)
+    Flux<ServerSentEvent<String>> stream(
+            @Parameter(description = "Unique conversation identifier; follow-up questions in the same "
+                    + "conversation are answered with its summary and recent turns", required = true)
             @RequestParam String conversationId,
             @Parameter(description = "The user's question or message", required = true)
             @RequestParam String message);
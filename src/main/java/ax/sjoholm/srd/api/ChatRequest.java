@@ -14,4 +14,7 @@ public class ChatRequest {
 
     @Schema(description = "Whether to include raw document chunks in the response", defaultValue = "false")
     private Boolean includeChunks;
+
+    @Schema(description = "Skip the answer cache and always generate a fresh answer", defaultValue = "false")
+    private Boolean bypassCache;
 }
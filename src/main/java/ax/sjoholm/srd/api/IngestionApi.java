@@ -1,11 +1,68 @@
 package ax.sjoholm.srd.api;
 
+import java.util.List;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 
+import ax.sjoholm.srd.services.ingestion.IngestionDtos;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 @Tag(name = "Ingestion", description = "API for document ingestion")
 public interface IngestionApi {
-    @PostMapping("/ingestions")
-    public String createIngestion(@RequestBody String entity);
+
+    @Operation(
+            summary = "Start an ingestion job",
+            description = "Queues an asynchronous ingestion of the configured documents and returns the job immediately. " +
+                    "With a corpus directory configured, only new and changed files are ingested. " +
+                    "Poll the job with GET /ingestions/{id}.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "202", description = "Ingestion job queued"),
+            @ApiResponse(responseCode = "503", description = "Too many ingestion jobs are already waiting", content = @Content)
+    })
+    @PostMapping(value = "/ingestions", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<IngestionDtos.JobStatus> createIngestion(@RequestBody(required = false) String entity);
+
+    @Operation(
+            summary = "List finished ingestion runs",
+            description = "Returns the stored runs, newest first, with their chunk token totals and percentiles " +
+                    "and the change of the token total against the previous successful run.")
+    @ApiResponse(responseCode = "200", description = "Finished runs")
+    @GetMapping(value = "/ingestions", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<IngestionDtos.RunSummary> listIngestions();
+
+    @Operation(
+            summary = "Get an ingestion job",
+            description = "Reports stage, progress, throughput, ETA and, once finished, the ingestion report " +
+                    "with its chunk statistics. Finished runs are also read back from the stored run reports.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Job status"),
+            @ApiResponse(responseCode = "404", description = "Unknown job id", content = @Content)
+    })
+    @GetMapping(value = "/ingestions/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public IngestionDtos.JobStatus getIngestion(
+            @Parameter(description = "Job id returned when the ingestion was created", required = true)
+            @PathVariable String id);
+
+    @Operation(
+            summary = "Cancel an ingestion job",
+            description = "Requests cooperative cancellation. The job stops at the next document boundary; " +
+                    "chunks written before that are kept.")
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Cancellation requested; returns the current job status"),
+            @ApiResponse(responseCode = "404", description = "Unknown job id", content = @Content)
+    })
+    @DeleteMapping(value = "/ingestions/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public IngestionDtos.JobStatus cancelIngestion(
+            @Parameter(description = "Job id returned when the ingestion was created", required = true)
+            @PathVariable String id);
 }
@@ -5,15 +5,23 @@ import java.util.List;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.document.DocumentReader;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.ollama.OllamaEmbeddingModel;
 import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
+import ax.sjoholm.srd.services.embedding.CachingEmbeddingModel;
+import ax.sjoholm.srd.services.embedding.TokenBudgetBatchingStrategy;
 import ax.sjoholm.srd.services.ingestion.LagsamlingDocumentReader;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
 
 @Configuration
 @EnableConfigurationProperties(RagProperties.class)
@@ -21,7 +29,10 @@ public class AiConfiguration {
 
   @Value("${rag.classpath-file}")
   private String fileName;
-    
+
+  @Value("${spring.ai.ollama.embedding.options.model:${spring.ai.ollama.embedding.model:}}")
+  private String embeddingModelName;
+
   @Bean
   ChatClient chatClient(ChatClient.Builder builder) {
     return builder
@@ -34,9 +45,37 @@ public class AiConfiguration {
         .build();
   }
 
+  /**
+   * Puts an LRU cache in front of the Ollama embedding model so that repeated questions
+   * skip the embedding round trip. Marked primary so the vector store and retrieval use it.
+   */
+  @Bean
+  @Primary
+  EmbeddingModel cachingEmbeddingModel(OllamaEmbeddingModel ollamaEmbeddingModel, RagProperties props,
+      RagMetrics metrics) {
+    var cacheProps = props.embeddingCache();
+    if (!cacheProps.enabled()) {
+      return ollamaEmbeddingModel;
+    }
+    return new CachingEmbeddingModel(ollamaEmbeddingModel, embeddingModelName, cacheProps.maxEntries(),
+        cacheProps.ttl(), metrics);
+  }
+
+  /**
+   * Sizes embedding requests by token budget; shared by the vector store and the ingestion
+   * pipeline so that each written batch maps to one embedding request.
+   */
+  @Bean
+  TokenBudgetBatchingStrategy embeddingBatchingStrategy(RagProperties props) {
+    var embedding = props.embedding();
+    return new TokenBudgetBatchingStrategy(embedding.batchMaxTokens(), embedding.batchMaxDocuments());
+  }
+
   @Bean
-  DocumentReader lagsamlingDocumentReader() {
-    return new LagsamlingDocumentReader(new ClassPathResource(fileName));
+  DocumentReader lagsamlingDocumentReader(@Qualifier("ingestionExecutor") TaskExecutor ingestionExecutor,
+      RagProperties props) {
+    return new LagsamlingDocumentReader(new ClassPathResource(fileName), ingestionExecutor,
+        props.ingestion().extractionParallelism());
   }
 
    @Component
@@ -18,29 +18,31 @@ public class ApplicationConfiguration {
             return splitter.apply(documents);
         }
 
-        public List<Document> splitCustomized(List<Document> documents) {
+        /**
+         * defaultChunkSize: The target size of each text chunk in tokens (default:800).
+         * minChunkSizeChars: The minimum size of each text chunk in characters(default:
+         * 350).
+         * minChunkLengthToEmbed: The minimum length of a chunk to be included
+         * (default:5).
+         * maxNumChunks: The maximum number of chunks to generate from a text
+         * (default:10000).
+         * keepSeparator: Whether to keep separators (like newlines) in the chunks
+         * (default: true).
+         * <p>
+         * Built once: every splitter loads its own tokenizer encoding, and the ingestion
+         * pipeline splits one document at a time from several threads.
+         */
+        private final TokenTextSplitter customizedSplitter =
+                TokenTextSplitter.builder()
+                        .withChunkSize(600)
+                        .withMinChunkSizeChars(250)
+                        .withMinChunkLengthToEmbed(8)
+                        .withMaxNumChunks(5000)
+                        .withKeepSeparator(true)
+                        .build();
 
-            /**
-             * defaultChunkSize: The target size of each text chunk in tokens (default:800).
-             * minChunkSizeChars: The minimum size of each text chunk in characters(default:
-             * 350).
-             * minChunkLengthToEmbed: The minimum length of a chunk to be included
-             * (default:5).
-             * maxNumChunks: The maximum number of chunks to generate from a text
-             * (default:10000).
-             * keepSeparator: Whether to keep separators (like newlines) in the chunks
-             * (default: true).
-             */
-
-            TokenTextSplitter splitter =
-                    TokenTextSplitter.builder()
-                            .withChunkSize(600)
-                            .withMinChunkSizeChars(250)
-                            .withMinChunkLengthToEmbed(8)
-                            .withMaxNumChunks(5000)
-                            .withKeepSeparator(true)
-                            .build();
-            return splitter.apply(documents);
+        public List<Document> splitCustomized(List<Document> documents) {
+            return customizedSplitter.apply(documents);
         }
     }
 
@@ -0,0 +1,27 @@
+package ax.sjoholm.srd.configuration;
+
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import ax.sjoholm.srd.services.vectorstore.HnswVectorStore;
+
+/**
+ * In-process HNSW vector store, used instead of pgvector when {@code spring.ai.vectorstore.type=hnsw}.
+ * The pgvector auto-configuration, the full-text search and the statute lookup all back off in
+ * that mode; retrieval uses vector search only.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.ai.vectorstore.type", havingValue = "hnsw")
+public class HnswVectorStoreConfiguration {
+
+    @Bean
+    HnswVectorStore vectorStore(EmbeddingModel embeddingModel, BatchingStrategy embeddingBatchingStrategy,
+            RagProperties props) {
+        var hnsw = props.hnsw();
+        return new HnswVectorStore(embeddingModel, embeddingBatchingStrategy, hnsw.m(), hnsw.efConstruction(),
+                hnsw.efSearch());
+    }
+}
@@ -1,15 +1,277 @@
 package ax.sjoholm.srd.configuration;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 @ConfigurationProperties(prefix = "rag")
 public record RagProperties(
     int topK,
-    double similarityThreshold
+    double similarityThreshold,
+    @DefaultValue EmbeddingCache embeddingCache,
+    @DefaultValue AnswerCache answerCache,
+    @DefaultValue Ingestion ingestion,
+    @DefaultValue Embedding embedding,
+    @DefaultValue Generation generation,
+    @DefaultValue Hybrid hybrid,
+    @DefaultValue StatuteLookup statuteLookup,
+    @DefaultValue Hnsw hnsw,
+    @DefaultValue Quantization quantization,
+    @DefaultValue Corpus corpus,
+    @DefaultValue Rerank rerank,
+    @DefaultValue Context context,
+    @DefaultValue Memory memory,
+    @DefaultValue Reindex reindex,
+    @DefaultValue Startup startup
 ) {
   public RagProperties {
     if (topK < 1 || topK > 50) throw new IllegalArgumentException("rag.top-k must be 1..50");
     if (similarityThreshold < 0.0 || similarityThreshold > 1.0)
       throw new IllegalArgumentException("rag.similarity-threshold must be 0..1");
+    // every corpus file being read holds one open PDF reader per extraction thread
+    if (corpus.enabled() && corpus.fileParallelism() * ingestion.extractionParallelism() > 64)
+      throw new IllegalArgumentException(
+          "rag.corpus.file-parallelism * rag.ingestion.extraction-parallelism must be <= 64");
+  }
+
+  public record EmbeddingCache(
+      @DefaultValue("true") boolean enabled,
+      @DefaultValue("2000") int maxEntries,
+      @DefaultValue("6h") Duration ttl
+  ) {
+    public EmbeddingCache {
+      if (maxEntries < 1) throw new IllegalArgumentException("rag.embedding-cache.max-entries must be >= 1");
+    }
+  }
+
+  public record AnswerCache(
+      @DefaultValue("true") boolean enabled,
+      @DefaultValue("500") int maxEntries,
+      @DefaultValue("1h") Duration ttl,
+      @DefaultValue("0.95") double similarityThreshold,
+      @DefaultValue("200") int maxScan
+  ) {
+    public AnswerCache {
+      if (maxEntries < 1) throw new IllegalArgumentException("rag.answer-cache.max-entries must be >= 1");
+      if (maxScan < 1) throw new IllegalArgumentException("rag.answer-cache.max-scan must be >= 1");
+      if (similarityThreshold < 0.0 || similarityThreshold > 1.0)
+        throw new IllegalArgumentException("rag.answer-cache.similarity-threshold must be 0..1");
+    }
+  }
+
+  public record Ingestion(
+      @DefaultValue("4") int extractionParallelism,
+      @DefaultValue("64") int queueCapacity,
+      @DefaultValue("2") int processWorkers,
+      @DefaultValue("2") int splitWorkers,
+      @DefaultValue("ingestion-reports") Path reportDirectory,
+      @DefaultValue("100") int retainedReports
+  ) {
+    public Ingestion {
+      if (extractionParallelism < 1 || extractionParallelism > 64)
+        throw new IllegalArgumentException("rag.ingestion.extraction-parallelism must be 1..64");
+      if (queueCapacity < 1) throw new IllegalArgumentException("rag.ingestion.queue-capacity must be >= 1");
+      if (processWorkers < 1 || splitWorkers < 1)
+        throw new IllegalArgumentException("rag.ingestion.*-workers must be >= 1");
+      if (retainedReports < 0) throw new IllegalArgumentException("rag.ingestion.retained-reports must be >= 0");
+      if (retainedReports > 0 && reportDirectory == null)
+        throw new IllegalArgumentException("rag.ingestion.report-directory must be set");
+    }
+  }
+
+  public record Embedding(
+      @DefaultValue("8192") int batchMaxTokens,
+      @DefaultValue("64") int batchMaxDocuments,
+      @DefaultValue("2") int concurrency,
+      @DefaultValue("1000") int insertBatchSize
+  ) {
+    public Embedding {
+      if (batchMaxTokens < 1) throw new IllegalArgumentException("rag.embedding.batch-max-tokens must be >= 1");
+      if (batchMaxDocuments < 1) throw new IllegalArgumentException("rag.embedding.batch-max-documents must be >= 1");
+      if (concurrency < 1 || concurrency > 32) throw new IllegalArgumentException("rag.embedding.concurrency must be 1..32");
+      if (insertBatchSize < 1) throw new IllegalArgumentException("rag.embedding.insert-batch-size must be >= 1");
+    }
+  }
+
+  public record Generation(
+      @DefaultValue("4") int maxConcurrent,
+      @DefaultValue("30s") Duration queueTimeout,
+      @DefaultValue("60s") Duration streamIdleTimeout
+  ) {
+    public Generation {
+      if (maxConcurrent < 1 || maxConcurrent > 256)
+        throw new IllegalArgumentException("rag.generation.max-concurrent must be 1..256");
+      if (queueTimeout == null || queueTimeout.isNegative())
+        throw new IllegalArgumentException("rag.generation.queue-timeout must be >= 0");
+      if (streamIdleTimeout == null || streamIdleTimeout.isNegative() || streamIdleTimeout.isZero())
+        throw new IllegalArgumentException("rag.generation.stream-idle-timeout must be > 0");
+    }
+  }
+
+  public record Hybrid(
+      @DefaultValue("true") boolean enabled,
+      @DefaultValue("20") int vectorTopK,
+      @DefaultValue("20") int lexicalTopK,
+      @DefaultValue("60") int rrfK,
+      @DefaultValue("swedish") String textSearchConfig
+  ) {
+    public Hybrid {
+      if (vectorTopK < 1 || vectorTopK > 200) throw new IllegalArgumentException("rag.hybrid.vector-top-k must be 1..200");
+      if (lexicalTopK < 1 || lexicalTopK > 200) throw new IllegalArgumentException("rag.hybrid.lexical-top-k must be 1..200");
+      if (rrfK < 1) throw new IllegalArgumentException("rag.hybrid.rrf-k must be >= 1");
+    }
+  }
+
+  public record StatuteLookup(
+      @DefaultValue("true") boolean enabled,
+      @DefaultValue("8") int maxChunks
+  ) {
+    public StatuteLookup {
+      if (maxChunks < 1 || maxChunks > 50) throw new IllegalArgumentException("rag.statute-lookup.max-chunks must be 1..50");
+    }
+  }
+
+  public record Hnsw(
+      @DefaultValue("16") int m,
+      @DefaultValue("200") int efConstruction,
+      @DefaultValue("64") int efSearch
+  ) {
+    public Hnsw {
+      if (m < 2 || m > 128) throw new IllegalArgumentException("rag.hnsw.m must be 2..128");
+      if (efConstruction < m) throw new IllegalArgumentException("rag.hnsw.ef-construction must be >= rag.hnsw.m");
+      if (efSearch < 1) throw new IllegalArgumentException("rag.hnsw.ef-search must be >= 1");
+    }
+  }
+
+  public record Quantization(
+      @DefaultValue("none") Mode mode,
+      @DefaultValue("0") int dimensions,
+      @DefaultValue("40") int rescoreCandidates
+  ) {
+    public Quantization {
+      if (dimensions < 0) throw new IllegalArgumentException("rag.quantization.dimensions must be >= 0");
+      if (rescoreCandidates < 1 || rescoreCandidates > 1000)
+        throw new IllegalArgumentException("rag.quantization.rescore-candidates must be 1..1000");
+    }
+
+    public enum Mode { NONE, HALFVEC, BINARY }
+  }
+
+  /**
+   * Directory of PDF volumes to ingest instead of {@code rag.classpath-file}; unset keeps the
+   * single classpath document.
+   */
+  public record Corpus(
+      Path directory,
+      @DefaultValue("*.pdf") String filePattern,
+      Path manifest,
+      @DefaultValue("true") boolean watch,
+      @DefaultValue("5s") Duration settleDelay,
+      @DefaultValue("2") int fileParallelism
+  ) {
+    public Corpus {
+      if (fileParallelism < 1 || fileParallelism > 16)
+        throw new IllegalArgumentException("rag.corpus.file-parallelism must be 1..16");
+      if (settleDelay.isNegative()) throw new IllegalArgumentException("rag.corpus.settle-delay must be >= 0");
+    }
+
+    public boolean enabled() {
+      return directory != null;
+    }
+
+    /** {@code manifest}, or {@code .ingestion-manifest.json} inside the corpus directory. */
+    public Path manifestFile() {
+      return manifest != null ? manifest : directory.resolve(".ingestion-manifest.json");
+    }
+  }
+
+  public record Rerank(
+      @DefaultValue("true") boolean enabled,
+      @DefaultValue("20") int candidates,
+      @DefaultValue("2") int minChunks,
+      @DefaultValue("4") int maxChunks,
+      @DefaultValue("0.6") double cutoffRatio,
+      @DefaultValue("0.7") double lexicalWeight
+  ) {
+    public Rerank {
+      if (candidates < 1 || candidates > 200) throw new IllegalArgumentException("rag.rerank.candidates must be 1..200");
+      if (minChunks < 1) throw new IllegalArgumentException("rag.rerank.min-chunks must be >= 1");
+      if (maxChunks < minChunks) throw new IllegalArgumentException("rag.rerank.max-chunks must be >= rag.rerank.min-chunks");
+      if (cutoffRatio < 0.0 || cutoffRatio > 1.0) throw new IllegalArgumentException("rag.rerank.cutoff-ratio must be 0..1");
+      if (lexicalWeight < 0.0 || lexicalWeight > 1.0)
+        throw new IllegalArgumentException("rag.rerank.lexical-weight must be 0..1");
+    }
+  }
+
+  public record Context(
+      @DefaultValue("1500") int maxTokens
+  ) {
+    public Context {
+      if (maxTokens < 100) throw new IllegalArgumentException("rag.context.max-tokens must be >= 100");
+    }
+  }
+
+  /**
+   * Per-conversation memory of the streaming chat: the last turns within a token window, older
+   * turns folded into a compact summary, and conversations evicted least recently used first.
+   */
+  public record Memory(
+      @DefaultValue("true") boolean enabled,
+      @DefaultValue("memory") Store store,
+      @DefaultValue("4") int maxTurns,
+      @DefaultValue("600") int windowTokens,
+      @DefaultValue("250") int summaryTokens,
+      @DefaultValue("5000") int maxConversations,
+      @DefaultValue("2000000") long maxTokens,
+      @DefaultValue("2h") Duration ttl,
+      @DefaultValue("rag_conversation") String tableName
+  ) {
+    public Memory {
+      if (maxTurns < 1 || maxTurns > 50) throw new IllegalArgumentException("rag.memory.max-turns must be 1..50");
+      if (windowTokens < 1) throw new IllegalArgumentException("rag.memory.window-tokens must be >= 1");
+      if (summaryTokens < 0) throw new IllegalArgumentException("rag.memory.summary-tokens must be >= 0");
+      if (maxConversations < 1) throw new IllegalArgumentException("rag.memory.max-conversations must be >= 1");
+      if (maxTokens < 1) throw new IllegalArgumentException("rag.memory.max-tokens must be >= 1");
+      if (ttl.isNegative() || ttl.isZero()) throw new IllegalArgumentException("rag.memory.ttl must be > 0");
+      if (!tableName.matches("[A-Za-z_][A-Za-z0-9_]*"))
+        throw new IllegalArgumentException("rag.memory.table-name must be a plain SQL identifier");
+    }
+
+    public enum Store { MEMORY, JDBC }
+  }
+
+  /**
+   * Full re-ingestion into a shadow generation of the vector table, switched to atomically by
+   * replacing the view that the configured table name refers to.
+   */
+  public record Reindex(
+      @DefaultValue("true") boolean blueGreen,
+      @DefaultValue("1") int retainedGenerations
+  ) {
+    public Reindex {
+      if (retainedGenerations < 0 || retainedGenerations > 10)
+        throw new IllegalArgumentException("rag.reindex.retained-generations must be 0..10");
+    }
+  }
+
+  /**
+   * Initialization that needs the database or Ollama, either during startup or, with
+   * {@code deferred}, in the background while the instance reports itself not ready.
+   */
+  public record Startup(
+      @DefaultValue("false") boolean deferred,
+      @DefaultValue("5s") Duration retryDelay,
+      @DefaultValue("10") int reportBeans,
+      @DefaultValue("10m") Duration awaitTimeout
+  ) {
+    public Startup {
+      if (retryDelay.isNegative() || retryDelay.isZero())
+        throw new IllegalArgumentException("rag.startup.retry-delay must be > 0");
+      if (reportBeans < 0) throw new IllegalArgumentException("rag.startup.report-beans must be >= 0");
+      if (awaitTimeout.isNegative() || awaitTimeout.isZero())
+        throw new IllegalArgumentException("rag.startup.await-timeout must be > 0");
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+package ax.sjoholm.srd.configuration;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.ai.ollama.api.OllamaApi;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.metrics.ApplicationStartup;
+
+import ax.sjoholm.srd.services.startup.StartupReport;
+import ax.sjoholm.srd.services.startup.StartupTasks;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Startup tasks and the startup timing report.
+ * <p>
+ * With {@code rag.startup.deferred} (the {@code fast-startup} profile) the tasks also create the
+ * beans left lazy by {@code spring.main.lazy-initialization}, so that the first request does not
+ * pay for them, and wait until Ollama serves the chat and embedding models. Readiness
+ * ({@code /actuator/health/readiness}) includes the tasks; liveness does not.
+ */
+@Configuration
+@Slf4j
+public class StartupConfiguration {
+
+    @Bean
+    static LazyInitializationExcludeFilter startupTasksLazyInitializationExcludeFilter() {
+        return LazyInitializationExcludeFilter.forBeanTypes(StartupTasks.class);
+    }
+
+    @Bean
+    StartupTasks startupTasks(RagProperties props, ApplicationStartup applicationStartup,
+            ConfigurableListableBeanFactory beanFactory, ObjectProvider<OllamaApi> ollamaApi, Environment env) {
+        var startup = props.startup();
+        var tasks = new StartupTasks(startup.deferred(), startup.retryDelay(), applicationStartup);
+        if (startup.deferred()) {
+            tasks.add("lazy beans", () -> instantiateLazySingletons(beanFactory));
+            ollamaApi.ifAvailable(api -> tasks.add("ollama models", () -> checkModels(api, List.of(
+                    env.getProperty("spring.ai.ollama.chat.options.model",
+                            env.getProperty("spring.ai.ollama.chat.model", "")),
+                    env.getProperty("spring.ai.ollama.embedding.options.model",
+                            env.getProperty("spring.ai.ollama.embedding.model", ""))))));
+        }
+        return tasks;
+    }
+
+    @Bean
+    StartupReport startupReport(ApplicationStartup applicationStartup, RagProperties props) {
+        return new StartupReport(applicationStartup, props.startup().reportBeans());
+    }
+
+    private static void instantiateLazySingletons(ConfigurableListableBeanFactory beanFactory) {
+        int created = 0;
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getMergedBeanDefinition(name);
+            if (definition.isSingleton() && definition.isLazyInit() && !definition.isAbstract()
+                    && !beanFactory.containsSingleton(name)) {
+                beanFactory.getBean(name);
+                created++;
+            }
+        }
+        log.info("Created {} lazy beans", created);
+    }
+
+    private static void checkModels(OllamaApi ollamaApi, List<String> models) {
+        Set<String> available = ollamaApi.listModels().models().stream()
+                .map(OllamaApi.Model::name)
+                .collect(Collectors.toSet());
+        List<String> missing = models.stream()
+                .filter(model -> !model.isEmpty())
+                .filter(model -> !available.contains(model) && !available.contains(model + ":latest"))
+                .toList();
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Ollama does not serve " + missing + " yet");
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package ax.sjoholm.srd.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationConvention;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgIndexType;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.ai.vectorstore.pgvector.autoconfigure.PgVectorStoreProperties;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.observation.ObservationRegistry;
+
+import ax.sjoholm.srd.services.ingestion.CorpusIngestion;
+import ax.sjoholm.srd.services.retrieval.LexicalSearch;
+import ax.sjoholm.srd.services.retrieval.QuantizedVectorSearch;
+import ax.sjoholm.srd.services.retrieval.StatuteLookup;
+import ax.sjoholm.srd.services.startup.StartupTasks;
+import ax.sjoholm.srd.services.vectorstore.VectorTableGenerations;
+
+/**
+ * Builds the pgvector store from the standard {@code spring.ai.vectorstore.pgvector.*}
+ * properties, adding the embedding batching and insert batch size from {@code rag.embedding.*},
+ * with the observation registry and convention the auto-configuration would have used, and the
+ * full-text and metadata indexes used by hybrid retrieval, the statute lookup and the corpus sync.
+ * <p>
+ * With {@code rag.quantization.mode} other than {@code none} the full-precision HNSW index is
+ * not created; a halfvec or binary expression index from {@link QuantizedVectorSearch} is
+ * used instead. Whichever index an earlier mode left on the table is dropped. Generations are
+ * new tables, so with blue-green reindexing a changed mode applies from the next ingestion.
+ * <p>
+ * With {@code rag.reindex.blue-green} the configured table name is a view on the active
+ * {@link VectorTableGenerations generation}; the generations create the tables and all of their
+ * indexes, so the store and the search beans here only read and write through the view.
+ * <p>
+ * All schema work goes through {@link StartupTasks}, so that with {@code rag.startup.deferred}
+ * it runs in the background instead of while the beans are created.
+ */
+@Configuration
+@ConditionalOnProperty(name = "spring.ai.vectorstore.type", havingValue = "pgvector", matchIfMissing = true)
+public class VectorStoreConfiguration {
+
+    @Bean
+    PgVectorStore vectorStore(JdbcTemplate jdbcTemplate, EmbeddingModel embeddingModel,
+            PgVectorStoreProperties pgProps, BatchingStrategy embeddingBatchingStrategy, RagProperties props,
+            ObjectProvider<VectorTableGenerations> generations, StartupTasks startupTasks,
+            ObjectProvider<ObservationRegistry> observationRegistry,
+            ObjectProvider<VectorStoreObservationConvention> observationConvention) {
+        var builder = storeBuilder(jdbcTemplate, embeddingModel, pgProps, embeddingBatchingStrategy, props,
+                observationRegistry, observationConvention, pgProps.getTableName());
+        if (generations.getIfAvailable() != null) {
+            return builder
+                    .vectorTableValidationsEnabled(false)
+                    .indexType(PgIndexType.NONE)
+                    .initializeSchema(false)
+                    .build();
+        }
+        builder.removeExistingVectorStoreTable(pgProps.isRemoveExistingVectorStoreTable())
+                .indexType(quantized(props) ? PgIndexType.NONE : pgProps.getIndexType());
+        // the store validates and creates its table in afterPropertiesSet; a twin does that as a startup task
+        var schema = builder
+                .vectorTableValidationsEnabled(pgProps.isSchemaValidation())
+                .initializeSchema(pgProps.isInitializeSchema())
+                .build();
+        startupTasks.add("vector store schema", schema::afterPropertiesSet);
+        if (props.corpus().enabled() && pgProps.isInitializeSchema()) {
+            startupTasks.add("corpus metadata index", () -> CorpusIngestion.initializeSchema(jdbcTemplate,
+                    pgProps.getSchemaName(), pgProps.getTableName()));
+        }
+        if (!quantized(props) && pgProps.isInitializeSchema()) {
+            startupTasks.add("stale quantized indexes", () -> QuantizedVectorSearch.dropIndexes(jdbcTemplate,
+                    pgProps.getSchemaName(), pgProps.getTableName()));
+        }
+        return builder
+                .vectorTableValidationsEnabled(false)
+                .initializeSchema(false)
+                .build();
+    }
+
+    /**
+     * Shadow generations are created without a vector index; it is built once they are loaded.
+     * The full-text column and the metadata and quantized indexes of each generation are added
+     * by the same classes that query them.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "rag.reindex.blue-green", havingValue = "true", matchIfMissing = true)
+    VectorTableGenerations vectorTableGenerations(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+            EmbeddingModel embeddingModel, PgVectorStoreProperties pgProps, BatchingStrategy embeddingBatchingStrategy,
+            ObjectMapper objectMapper, RagProperties props, StartupTasks startupTasks,
+            ObjectProvider<ObservationRegistry> observationRegistry,
+            ObjectProvider<VectorStoreObservationConvention> observationConvention) {
+        String schema = pgProps.getSchemaName();
+        List<Consumer<String>> tableInitializers = new ArrayList<>();
+        if (props.hybrid().enabled()) {
+            tableInitializers.add(table -> new LexicalSearch(jdbcTemplate, objectMapper, schema, table,
+                    props.hybrid().textSearchConfig()).initializeSchema());
+        }
+        if (props.statuteLookup().enabled()) {
+            tableInitializers.add(table -> new StatuteLookup(jdbcTemplate, objectMapper, schema, table)
+                    .initializeSchema());
+        }
+        if (props.corpus().enabled()) {
+            tableInitializers.add(table -> CorpusIngestion.initializeSchema(jdbcTemplate, schema, table));
+        }
+        if (quantized(props)) {
+            tableInitializers.add(table -> quantizedSearch(jdbcTemplate, transactionTemplate, objectMapper, schema,
+                    table, props).initializeSchema());
+        }
+        var generations = new VectorTableGenerations(jdbcTemplate, transactionTemplate, schema,
+                pgProps.getTableName(),
+                table -> storeBuilder(jdbcTemplate, embeddingModel, pgProps, embeddingBatchingStrategy, props,
+                        observationRegistry, observationConvention, table)
+                        .vectorTableValidationsEnabled(false)
+                        .indexType(PgIndexType.NONE)
+                        .initializeSchema(true)
+                        .build(),
+                tableInitializers,
+                quantized(props) ? null : vectorIndex(pgProps),
+                props.reindex().retainedGenerations());
+        startupTasks.add("vector table generations",
+                () -> generations.initialize(pgProps.isRemoveExistingVectorStoreTable()));
+        return generations;
+    }
+
+    private static PgVectorStore.PgVectorStoreBuilder storeBuilder(JdbcTemplate jdbcTemplate,
+            EmbeddingModel embeddingModel, PgVectorStoreProperties pgProps, BatchingStrategy embeddingBatchingStrategy,
+            RagProperties props, ObjectProvider<ObservationRegistry> observationRegistry,
+            ObjectProvider<VectorStoreObservationConvention> observationConvention, String table) {
+        return PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                .observationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP))
+                .customObservationConvention(observationConvention.getIfAvailable(() -> null))
+                .schemaName(pgProps.getSchemaName())
+                .idType(pgProps.getIdType())
+                .vectorTableName(table)
+                .dimensions(pgProps.getDimensions())
+                .distanceType(pgProps.getDistanceType())
+                .batchingStrategy(embeddingBatchingStrategy)
+                .maxDocumentBatchSize(props.embedding().insertBatchSize());
+    }
+
+    private static String vectorIndex(PgVectorStoreProperties pgProps) {
+        String opClass = switch (pgProps.getDistanceType()) {
+            case COSINE_DISTANCE -> "vector_cosine_ops";
+            case EUCLIDEAN_DISTANCE -> "vector_l2_ops";
+            case NEGATIVE_INNER_PRODUCT -> "vector_ip_ops";
+        };
+        return switch (pgProps.getIndexType()) {
+            case HNSW -> "hnsw (embedding " + opClass + ")";
+            case IVFFLAT -> "ivfflat (embedding " + opClass + ")";
+            case NONE -> null;
+        };
+    }
+
+    private static boolean quantized(RagProperties props) {
+        return props.quantization().mode() != RagProperties.Quantization.Mode.NONE;
+    }
+
+    /**
+     * Depends on the vector store so that the full-text column is added after the store has
+     * created (or, with {@code remove-existing-vector-store-table}, re-created) its table.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "rag.hybrid.enabled", havingValue = "true", matchIfMissing = true)
+    LexicalSearch lexicalSearch(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, PgVectorStore vectorStore,
+            PgVectorStoreProperties pgProps, RagProperties props, ObjectProvider<VectorTableGenerations> generations,
+            StartupTasks startupTasks) {
+        var lexicalSearch = new LexicalSearch(jdbcTemplate, objectMapper, pgProps.getSchemaName(),
+                pgProps.getTableName(), props.hybrid().textSearchConfig());
+        if (initializeSchema(pgProps, generations)) {
+            startupTasks.add("full-text index", lexicalSearch::initializeSchema);
+        }
+        return lexicalSearch;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "rag.statute-lookup.enabled", havingValue = "true", matchIfMissing = true)
+    StatuteLookup statuteLookup(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, PgVectorStore vectorStore,
+            PgVectorStoreProperties pgProps, ObjectProvider<VectorTableGenerations> generations,
+            StartupTasks startupTasks) {
+        var statuteLookup = new StatuteLookup(jdbcTemplate, objectMapper, pgProps.getSchemaName(),
+                pgProps.getTableName());
+        if (initializeSchema(pgProps, generations)) {
+            startupTasks.add("statute lookup indexes", statuteLookup::initializeSchema);
+        }
+        return statuteLookup;
+    }
+
+    @Bean
+    @ConditionalOnExpression("!'${rag.quantization.mode:none}'.equalsIgnoreCase('none')")
+    QuantizedVectorSearch quantizedVectorSearch(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+            ObjectMapper objectMapper, PgVectorStore vectorStore, PgVectorStoreProperties pgProps, RagProperties props,
+            ObjectProvider<VectorTableGenerations> generations, StartupTasks startupTasks) {
+        var quantizedSearch = quantizedSearch(jdbcTemplate, transactionTemplate, objectMapper,
+                pgProps.getSchemaName(), pgProps.getTableName(), props);
+        if (initializeSchema(pgProps, generations)) {
+            startupTasks.add("quantized index", quantizedSearch::initializeSchema);
+        }
+        return quantizedSearch;
+    }
+
+    private static QuantizedVectorSearch quantizedSearch(JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate, ObjectMapper objectMapper, String schema, String table,
+            RagProperties props) {
+        var quantization = props.quantization();
+        return new QuantizedVectorSearch(jdbcTemplate, transactionTemplate, objectMapper, schema, table,
+                QuantizedVectorSearch.Mode.valueOf(quantization.mode().name()),
+                quantization.dimensions(), quantization.rescoreCandidates());
+    }
+
+    // the indexes of a generation table are created by VectorTableGenerations, not through the view
+    private static boolean initializeSchema(PgVectorStoreProperties pgProps,
+            ObjectProvider<VectorTableGenerations> generations) {
+        return pgProps.isInitializeSchema() && generations.getIfAvailable() == null;
+    }
+}
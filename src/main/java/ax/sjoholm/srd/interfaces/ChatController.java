@@ -1,23 +1,23 @@
 package ax.sjoholm.srd.interfaces;
 
-import java.io.IOException;
-import java.util.List;
-
 import javax.validation.Valid;
 
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.server.ResponseStatusException;
 
 import ax.sjoholm.srd.api.ChatApi;
 import ax.sjoholm.srd.api.ChatRequest;
 import ax.sjoholm.srd.services.chat.ChatDtos;
 import ax.sjoholm.srd.services.chat.ChatService;
+import ax.sjoholm.srd.services.chat.GenerationRejectedException;
+import reactor.core.publisher.Flux;
 
 @RestController
 public class ChatController implements ChatApi {
@@ -29,49 +29,32 @@ public class ChatController implements ChatApi {
   }
 
   public ChatDtos.ChatResponse chat(@Valid @RequestBody ChatRequest request) {
-    return chatService.chat(request);
+    try {
+      return chatService.chat(request);
+    } catch (GenerationRejectedException e) {
+      throw overloaded(e);
+    }
   }
 
   @Override
-  public SseEmitter stream(
+  public Flux<ServerSentEvent<String>> stream(
       @RequestParam String conversationId,
       @RequestParam String message) {
-    SseEmitter emitter = new SseEmitter(0L);
-
-    chatService.stream(conversationId, message, new ChatService.StreamCallbacks() {
-      @Override
-      public void onToken(String token) {
-        try {
-          emitter.send(SseEmitter.event().name("message").data(token));
-        } catch (IOException e) {
-          emitter.completeWithError(e); 
-        }
-      }
-
-      @Override
-      public void onSources(List<ChatService.Source> sources) {
-        try {
-          emitter.send(SseEmitter.event().name("sources").data(Json.toJson(sources)));
-        } catch (IOException e) {
-          emitter.completeWithError(e);
-        }
-      }
-
-      @Override
-      public void onDone() {
-        try {
-          emitter.send(SseEmitter.event().name("done").data("ok"));
-        } catch (IOException ignored) {
-        }
-        emitter.complete();
-      }
+    return chatService.stream(conversationId, message)
+        .map(ChatController::toServerSentEvent)
+        .onErrorMap(GenerationRejectedException.class, ChatController::overloaded);
+  }
 
-      @Override
-      public void onError(Throwable t) {
-        emitter.completeWithError(t);
-      }
-    });
+  private static ServerSentEvent<String> toServerSentEvent(ChatService.StreamEvent event) {
+    return switch (event) {
+      case ChatService.StreamEvent.Token token -> ServerSentEvent.builder(token.text()).event("message").build();
+      case ChatService.StreamEvent.Sources sources ->
+          ServerSentEvent.builder(Json.toJson(sources.sources())).event("sources").build();
+      case ChatService.StreamEvent.Done done -> ServerSentEvent.builder("ok").event("done").build();
+    };
+  }
 
-    return emitter;
+  private static ResponseStatusException overloaded(GenerationRejectedException e) {
+    return new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
   }
 }
@@ -1,13 +1,21 @@
 package ax.sjoholm.srd.interfaces;
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import java.util.List;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import ax.sjoholm.srd.api.IngestionApi;
-import ax.sjoholm.srd.services.ingestion.IngestionService;
+import ax.sjoholm.srd.services.ingestion.IngestionDtos;
+import ax.sjoholm.srd.services.ingestion.IngestionJob;
+import ax.sjoholm.srd.services.ingestion.IngestionJobService;
 import lombok.extern.slf4j.Slf4j;
 
-import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 
 
@@ -15,16 +23,47 @@ import org.springframework.web.bind.annotation.RequestBody;
 @Slf4j
 public class IngestionController implements IngestionApi {
 
-    private final IngestionService ingestionService;
+    private final IngestionJobService jobService;
+
+    public IngestionController(final IngestionJobService jobService) {
+        this.jobService = jobService;
+    }
+
+    @Override
+    public ResponseEntity<IngestionDtos.JobStatus> createIngestion(@RequestBody(required = false) String entity) {
+        IngestionJob job;
+        try {
+            job = jobService.submit();
+        } catch (TaskRejectedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many ingestion jobs queued", e);
+        }
+        log.info("Ingestion job {} created for: {}", job.id(), entity);
+        var location = ServletUriComponentsBuilder.fromCurrentRequest()
+                .path("/{id}")
+                .buildAndExpand(job.id())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(job.toStatus());
+    }
+
+    @Override
+    public List<IngestionDtos.RunSummary> listIngestions() {
+        return jobService.runs();
+    }
 
-    public IngestionController(final IngestionService ingestionService) {
-        this.ingestionService = ingestionService;
+    @Override
+    public IngestionDtos.JobStatus getIngestion(@PathVariable String id) {
+        return jobService.findRun(id)
+                .orElseThrow(() -> notFound(id));
     }
 
     @Override
-    public String createIngestion(@RequestBody String entity) {
-        var result = ingestionService.ingestLagtingetDocuments();
-        log.info("Ingestion result: {}", result);
-        return "Ingestion created for: " + entity;
+    public IngestionDtos.JobStatus cancelIngestion(@PathVariable String id) {
+        return jobService.cancel(id)
+                .map(IngestionJob::toStatus)
+                .orElseThrow(() -> notFound(id));
+    }
+
+    private static ResponseStatusException notFound(String id) {
+        return new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown ingestion job: " + id);
     }
 }
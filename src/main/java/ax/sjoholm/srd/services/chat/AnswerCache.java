@@ -0,0 +1,190 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Component;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.cache.LruCache;
+import ax.sjoholm.srd.services.ingestion.IngestionGeneration;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Semantic cache of complete chat answers. A cached answer is reused when the new question's
+ * embedding is at least {@code rag.answer-cache.similarity-threshold} cosine-similar to the
+ * question it was generated for. Every entry is tagged with the {@link IngestionGeneration}
+ * that was current when the request started, so a finished re-ingestion invalidates all
+ * earlier answers at once.
+ * <p>
+ * Entries are kept in least-recently-used order and the least recently used one is evicted.
+ * A question asked again word for word is found without a scan; otherwise only the
+ * {@code rag.answer-cache.max-scan} most recently used entries are compared, which bounds the
+ * cost of a lookup whatever {@code max-entries} is.
+ */
+@Component
+@Slf4j
+public class AnswerCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final IngestionGeneration generation;
+    private final RagMetrics metrics;
+    private final RagProperties.AnswerCache props;
+    private final long ttlNanos;
+    // access order, keyed by question: iteration runs from least to most recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // guarded by entries
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public AnswerCache(EmbeddingModel embeddingModel, IngestionGeneration generation, RagMetrics metrics,
+            RagProperties props) {
+        this.embeddingModel = embeddingModel;
+        this.generation = generation;
+        this.metrics = metrics;
+        this.props = props.answerCache();
+        Duration ttl = this.props.ttl();
+        this.ttlNanos = ttl == null ? 0L : ttl.toNanos();
+        metrics.bindCache("answer", this, AnswerCache::stats);
+    }
+
+    public boolean isEnabled() {
+        return props.enabled();
+    }
+
+    /**
+     * Embeds the question and captures the current ingestion generation. The question embedding
+     * lands in the embedding cache, so the retrieval that follows on a miss does not pay for it again.
+     */
+    public Key key(String question) {
+        long gen = generation.current();
+        return new Key(question, unit(embeddingModel.embed(question)), gen);
+    }
+
+    public Optional<ChatDtos.ChatResponse> get(Key key) {
+        long now = System.nanoTime();
+        long current = generation.current();
+        Entry best = null;
+        double bestSimilarity = props.similarityThreshold();
+
+        synchronized (entries) {
+            Entry exact = entries.get(key.question());
+            if (exact != null && isStale(exact, current, now)) {
+                entries.remove(key.question());
+                evictions++;
+                exact = null;
+            }
+            if (exact != null) {
+                best = exact;
+                bestSimilarity = 1.0;
+            } else {
+                List<String> stale = new ArrayList<>();
+                int scanned = 0;
+                for (Entry entry : entries.sequencedValues().reversed()) {
+                    if (scanned++ == props.maxScan()) {
+                        break;
+                    }
+                    if (isStale(entry, current, now)) {
+                        stale.add(entry.question());
+                        continue;
+                    }
+                    double similarity = dot(key.embedding(), entry.embedding());
+                    if (similarity >= bestSimilarity) {
+                        best = entry;
+                        bestSimilarity = similarity;
+                    }
+                }
+                stale.forEach(entries::remove);
+                evictions += stale.size();
+                if (best != null) {
+                    // marks the entry as most recently used
+                    entries.get(best.question());
+                }
+            }
+            if (best != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+
+        if (best == null) {
+            return Optional.empty();
+        }
+        log.info("Answer cache hit similarity={} cached question={}", String.format("%.4f", bestSimilarity), best.question());
+        return Optional.of(best.response());
+    }
+
+    public void put(Key key, ChatDtos.ChatResponse response) {
+        synchronized (entries) {
+            entries.put(key.question(),
+                    new Entry(key.question(), key.embedding(), key.generation(), response, System.nanoTime()));
+            while (entries.size() > props.maxEntries()) {
+                entries.pollFirstEntry();
+                evictions++;
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public LruCache.Stats stats() {
+        synchronized (entries) {
+            return new LruCache.Stats(hits, misses, evictions, entries.size());
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private boolean isStale(Entry entry, long generation, long now) {
+        return entry.generation() != generation || (ttlNanos > 0 && now - entry.createdAt() > ttlNanos);
+    }
+
+    private static float[] unit(float[] v) {
+        double norm = 0;
+        for (float x : v) {
+            norm += x * x;
+        }
+        norm = Math.sqrt(norm);
+        if (norm == 0) {
+            return v;
+        }
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) {
+            out[i] = (float) (v[i] / norm);
+        }
+        return out;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public record Key(String question, float[] embedding, long generation) {
+    }
+
+    private record Entry(String question, float[] embedding, long generation, ChatDtos.ChatResponse response,
+            long createdAt) {
+    }
+}
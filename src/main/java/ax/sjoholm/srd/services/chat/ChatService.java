@@ -1,24 +1,30 @@
 package ax.sjoholm.srd.services.chat;
 
 import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+import ax.sjoholm.srd.services.retrieval.RetrievalService;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
-import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
@@ -26,70 +32,176 @@ public class ChatService {
 
     private static final int STREAM_FLUSH_THRESHOLD = 60;
 
+    private static final PromptTemplate QA_PROMPT_TEMPLATE = PromptTemplate.builder()
+            .template("""
+                    {conversation}{query}
+
+                    Kontextinformation är nedan, omgiven av ---------------------
+
+                    ---------------------
+                    {question_answer_context}
+                    ---------------------
+
+                    Baserat på endast den ovanstående kontextinformationen, svara på frågan på svenska 
+                    så kortfattat och koncist som möjligt. Referera till den lag och paragraf där du 
+                    hittat svaret. Om du inte hittar svaret i kontextinformationen, säg att du inte kan 
+                    svara utgående från de nuvarande dokumenten.
+                    """)
+            .build();
+
     private final ChatClient chatClient;
-    private final VectorStore vectorStore;
-    private final RagProperties props;
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final RetrievalService retrievalService;
+    private final AnswerCache answerCache;
+    private final RagMetrics metrics;
+    private final GenerationLimiter generationLimiter;
+    private final ConversationMemory conversationMemory;
+    private final Duration streamIdleTimeout;
     private final SimpleLoggerAdvisor promptLogger = new SimpleLoggerAdvisor();
-
-    public ChatService(ChatClient chatClient, VectorStore vectorStore, RagProperties props) {
+    private final RetrievedContextAdvisor contextAdvisor;
+    // the number of concurrent generations is capped by the limiter, not by the scheduler
+    private final Scheduler blocking = Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(),
+            "chat-blocking");
+
+    public ChatService(ChatClient chatClient, RetrievalService retrievalService, AnswerCache answerCache,
+            RagMetrics metrics, GenerationLimiter generationLimiter, ConversationMemory conversationMemory,
+            RagProperties props) {
         this.chatClient = chatClient;
-        this.vectorStore = vectorStore;
-        this.props = props;
-    }
-
-    public void stream(String conversationId, String userMessage, StreamCallbacks cb) {
-        executor.submit(() -> {
-            try {
-                var qaAdvisor = qaAdvisor(userMessage);
-                AtomicBoolean sourcesSent = new AtomicBoolean(false);
-                StringBuilder tokenBuffer = new StringBuilder();
-
-                log.info("Streaming prompt [{}]: {}", conversationId, userMessage);
-                Flux<ChatClientResponse> flux = chatClient
-                        .prompt()
-                        .advisors(qaAdvisor, promptLogger)
-                        .user(userMessage)
-                        .stream()
-                        .chatClientResponse();
-
-                flux.doOnNext(resp -> {
-                            String token = resp.chatResponse()
-                                    .getResult()
-                                    .getOutput()
-                                    .getText();
-
-                            if (token != null && !token.isEmpty()) {
-                                tokenBuffer.append(token);
-                                if (shouldFlush(token, tokenBuffer)) {
-                                    flushBuffer(tokenBuffer, cb);
-                                }
-                            }
-
-                            if (!sourcesSent.get()) {
-                                List<Document> retrieved = retrievedDocuments(resp.context());
-                                if (!retrieved.isEmpty() && sourcesSent.compareAndSet(false, true)) {
-                                    log.debug("Streaming {} retrieved documents as sources", retrieved.size());
-                                    cb.onSources(toSources(retrieved));
-                                }
-                            }
-                        })
-                        .doOnError(t -> {
-                            flushBuffer(tokenBuffer, cb);
-                            cb.onError(t);
-                        })
-                        .doOnComplete(() -> {
-                            flushBuffer(tokenBuffer, cb);
-                            cb.onDone();
-                        })
-                        .subscribe();
-
-            } catch (Throwable t) {
-                cb.onError(t);
-            }
+        this.retrievalService = retrievalService;
+        this.answerCache = answerCache;
+        this.metrics = metrics;
+        this.generationLimiter = generationLimiter;
+        this.conversationMemory = conversationMemory;
+        this.streamIdleTimeout = props.generation().streamIdleTimeout();
+        this.contextAdvisor = new RetrievedContextAdvisor(QA_PROMPT_TEMPLATE,
+                new ContextPacker(props.context().maxTokens()), metrics);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        blocking.dispose();
+    }
+
+    /**
+     * Streams an answer as a cold {@link Flux}: nothing happens until it is subscribed, and
+     * cancelling the subscription (client disconnect, timeout) cancels the model request, so
+     * Ollama stops generating. Retrieval and waiting for a generation slot block, so they run
+     * on a virtual thread rather than on the subscribing thread. The slot is the resource of a
+     * {@link Flux#usingWhen}, released however the stream ends, also when building the request
+     * fails.
+     * <p>
+     * The conversation's {@link ConversationMemory} condenses a follow-up question before
+     * retrieval and puts its summary into the prompt; a completed answer is added to it.
+     * <p>
+     * Emits buffered {@link StreamEvent.Token}s, one {@link StreamEvent.Sources} after the first
+     * token, and a final {@link StreamEvent.Done}.
+     */
+    public Flux<StreamEvent> stream(String conversationId, String userMessage) {
+        return Flux.defer(() -> {
+            log.info("Streaming prompt [{}]: {}", conversationId, userMessage);
+            long requestStart = System.nanoTime();
+            metrics.streamStarted();
+            return Mono.fromCallable(() -> {
+                        var conversation = conversationMemory.get(conversationId);
+                        var retrieved = retrievalService.retrieve(
+                                conversationMemory.retrievalQuery(conversation, userMessage));
+                        return new StreamContext(conversation, retrieved);
+                    })
+                    .subscribeOn(blocking)
+                    .flatMapMany(context -> Flux.usingWhen(
+                            Mono.fromCallable(() -> generationLimiter.acquire(requestStart))
+                                    .subscribeOn(blocking)
+                                    // a slot acquired after the subscriber went away
+                                    .doOnDiscard(GenerationLimiter.Permit.class, GenerationLimiter.Permit::close),
+                            permit -> generateStream(conversationId, userMessage, context),
+                            ChatService::release,
+                            (permit, error) -> release(permit),
+                            ChatService::release))
+                    .doFinally(signal -> metrics.streamFinished());
         });
     }
 
+    private record StreamContext(ConversationMemory.Conversation conversation, List<Document> retrieved) {
+    }
+
+    private static Mono<Void> release(GenerationLimiter.Permit permit) {
+        return Mono.fromRunnable(permit::close);
+    }
+
+    private Flux<StreamEvent> generateStream(String conversationId, String userMessage, StreamContext context) {
+        List<Document> retrieved = context.retrieved();
+        StringBuilder tokenBuffer = new StringBuilder();
+        StringBuilder answer = new StringBuilder();
+        AtomicBoolean sourcesSent = new AtomicBoolean(false);
+        long promptSent = System.nanoTime();
+        AtomicLong firstToken = new AtomicLong();
+        AtomicLong tokens = new AtomicLong();
+
+        Flux<StreamEvent> events = chatClient
+                .prompt()
+                .advisors(contextAdvisor, promptLogger)
+                .advisors(a -> a.param(RetrievedContextAdvisor.RETRIEVED_DOCUMENTS, retrieved)
+                        .param(RetrievedContextAdvisor.CONVERSATION,
+                                conversationMemory.promptContext(context.conversation()))
+                        .param(RetrievedContextAdvisor.CONVERSATION_TOKENS, context.conversation().tokens()))
+                .user(userMessage)
+                .stream()
+                .chatClientResponse()
+                .concatMapIterable(resp -> {
+                    String token = resp.chatResponse()
+                            .getResult()
+                            .getOutput()
+                            .getText();
+
+                    List<StreamEvent> out = new ArrayList<>(2);
+                    if (token != null && !token.isEmpty()) {
+                        if (tokens.getAndIncrement() == 0) {
+                            firstToken.set(System.nanoTime());
+                            metrics.firstToken(firstToken.get() - promptSent);
+                        }
+                        metrics.streamToken();
+                        tokenBuffer.append(token);
+                        answer.append(token);
+                        if (shouldFlush(token, tokenBuffer)) {
+                            flushBuffer(tokenBuffer).ifPresent(out::add);
+                        }
+                    }
+
+                    if (!retrieved.isEmpty() && sourcesSent.compareAndSet(false, true)) {
+                        log.debug("Streaming {} retrieved documents as sources", retrieved.size());
+                        out.add(new StreamEvent.Sources(toSources(retrieved)));
+                    }
+                    return out;
+                });
+
+        return events
+                .concatWith(Flux.defer(() -> Flux.concat(
+                        Mono.justOrEmpty(flushBuffer(tokenBuffer)),
+                        Mono.just(StreamEvent.Done.INSTANCE))))
+                .onErrorResume(t -> Flux.concat(Mono.justOrEmpty(flushBuffer(tokenBuffer)), Flux.error(t)))
+                .timeout(streamIdleTimeout)
+                .doFinally(signal -> {
+                    long now = System.nanoTime();
+                    metrics.generation("stream", outcome(signal), now - promptSent);
+                    if (tokens.get() > 0) {
+                        metrics.streamTokenRate(tokens.get(), now - firstToken.get());
+                    }
+                    if (signal == SignalType.CANCEL) {
+                        log.info("Stream [{}] cancelled by the client after {} tokens", conversationId, tokens.get());
+                    }
+                    if (signal == SignalType.ON_COMPLETE) {
+                        remember(conversationId, userMessage, answer.toString());
+                    }
+                });
+    }
+
+    private void remember(String conversationId, String question, String answer) {
+        try {
+            conversationMemory.record(conversationId, question, answer);
+        } catch (RuntimeException e) {
+            log.warn("Could not update conversation [{}]: {}", conversationId, e.getMessage());
+        }
+    }
+
     private static boolean shouldFlush(String latestToken, StringBuilder buffer) {
         return buffer.length() >= STREAM_FLUSH_THRESHOLD
                 || latestToken.contains("\n")
@@ -98,38 +210,49 @@ public class ChatService {
                 || latestToken.contains("! ");
     }
 
-    private static void flushBuffer(StringBuilder buffer, StreamCallbacks cb) {
+    private static String outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_COMPLETE -> "success";
+            case ON_ERROR -> "error";
+            default -> "cancelled";
+        };
+    }
+
+    private Optional<StreamEvent> flushBuffer(StringBuilder buffer) {
         if (buffer.isEmpty()) {
-            return;
+            return Optional.empty();
         }
-        cb.onToken(buffer.toString());
+        metrics.streamFlush();
+        String text = buffer.toString();
         buffer.setLength(0);
+        return Optional.of(new StreamEvent.Token(text));
     }
 
     public ChatDtos.ChatResponse chat(ax.sjoholm.srd.api.ChatRequest req) {
-    var qaAdvisor = qaAdvisor(req.getQuestion());
-
     log.info("Prompt: {}", req.getQuestion());
-    var hits = vectorStore.similaritySearch(req.getQuestion());
-    hits.forEach(d -> log.info("hit md={} chars={} head={}",
-        d.getMetadata(),
-        d.getText().length(),
-        d.getText().substring(0, Math.min(120, d.getText().length())).replace("\n", "\\n")
-    ));
-
-    ChatClientResponse resp = chatClient
-        .prompt()
-        .advisors(qaAdvisor, promptLogger)
-        .user(req.getQuestion())
-        .call()
-        .chatClientResponse();
+    long requestStart = System.nanoTime();
+    boolean includeChunks = Boolean.TRUE.equals(req.getIncludeChunks());
+    // the cache key is an embedding of the question, which a statute lookup does not need
+    boolean useCache = answerCache.isEnabled() && !Boolean.TRUE.equals(req.getBypassCache())
+        && !retrievalService.isStatuteQuestion(req.getQuestion());
+
+    AnswerCache.Key cacheKey = useCache ? answerCache.key(req.getQuestion()) : null;
+    if (cacheKey != null) {
+      var cached = answerCache.get(cacheKey);
+      if (cached.isPresent()) {
+        return includeChunks ? cached.get() : withoutChunks(cached.get());
+      }
+    }
 
-    String answer = resp.chatResponse()
-        .getResult()
-        .getOutput()
-        .getText();
-    List<Document> retrieved = retrievedDocuments(resp.context());
+    ChatDtos.ChatResponse response = answer(req.getQuestion(), requestStart);
+    if (cacheKey != null && "SUPPORTED".equals(response.verification().status())) {
+      answerCache.put(cacheKey, response);
+    }
+    return includeChunks ? response : withoutChunks(response);
+  }
 
+    private ChatDtos.ChatResponse answer(String question, long requestStart) {
+    List<Document> retrieved = retrievalService.retrieve(question);
 
     if (retrieved.isEmpty()) {
       return new ChatDtos.ChatResponse(
@@ -139,15 +262,22 @@ public class ChatService {
           List.of());
     }
 
+    ChatClientResponse resp;
+    try (var permit = generationLimiter.acquire(requestStart)) {
+      resp = generate(question, retrieved);
+    }
+
+    String answer = resp.chatResponse()
+        .getResult()
+        .getOutput()
+        .getText();
+
     var citations = retrieved.stream()
         .map(this::toCitation)
         .distinct()
         .toList();
 
-    boolean includeChunks = Boolean.TRUE.equals(req.getIncludeChunks());
-    var chunks = includeChunks
-        ? retrieved.stream().map(this::toChunk).toList()
-        : List.<ChatDtos.Chunk>of();
+    var chunks = retrieved.stream().map(this::toChunk).toList();
 
     var verification = citations.isEmpty()
         ? new ChatDtos.Verification("INSUFFICIENT_CONTEXT", "Model returned an answer but no citations were captured.")
@@ -164,37 +294,29 @@ public class ChatService {
     return new ChatDtos.ChatResponse(answer, verification, citations, chunks);
   }
 
-    private QuestionAnswerAdvisor qaAdvisor(String query) {
-        var searchRequest = SearchRequest.builder()
-                .query(query)
-                .topK(props.topK())
-                .similarityThreshold(props.similarityThreshold())
-                .build();
-
-        return QuestionAnswerAdvisor.builder(vectorStore)
-                .searchRequest(searchRequest)
-                .promptTemplate(PromptTemplate.builder()
-                        .template("""
-                                {query}
-
-                                Kontextinformation är nedan, omgiven av ---------------------
-
-                                ---------------------
-                                {question_answer_context}
-                                ---------------------
-
-                                Baserat på endast den ovanstående kontextinformationen, svara på frågan på svenska 
-                                så kortfattat och koncist som möjligt. Referera till den lag och paragraf där du 
-                                hittat svaret. Om du inte hittar svaret i kontextinformationen, säg att du inte kan 
-                                svara utgående från de nuvarande dokumenten.
-                                """)
-                        .build())
-                .build();
+    private ChatClientResponse generate(String question, List<Document> retrieved) {
+    long start = System.nanoTime();
+    String outcome = "error";
+    try {
+      ChatClientResponse resp = chatClient
+          .prompt()
+          .advisors(contextAdvisor, promptLogger)
+          .advisors(a -> a.param(RetrievedContextAdvisor.RETRIEVED_DOCUMENTS, retrieved))
+          .user(question)
+          .call()
+          .chatClientResponse();
+      outcome = "success";
+      return resp;
+    } finally {
+      metrics.generation("call", outcome, System.nanoTime() - start);
     }
+  }
 
-    @SuppressWarnings("unchecked")
-    private List<Document> retrievedDocuments(Map<String, Object> context) {
-        return (List<Document>) context.getOrDefault(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, List.of());
+    private static ChatDtos.ChatResponse withoutChunks(ChatDtos.ChatResponse response) {
+        if (response.chunks().isEmpty()) {
+            return response;
+        }
+        return new ChatDtos.ChatResponse(response.answer(), response.verification(), response.citations(), List.of());
     }
 
     private List<Source> toSources(List<Document> documents) {
@@ -240,11 +362,17 @@ public class ChatService {
         return oneLine.length() <= max ? oneLine : oneLine.substring(0, max) + "…";
     }
 
-    public interface StreamCallbacks {
-        void onToken(String token);
-        void onSources(List<Source> sources);
-        void onDone();
-        void onError(Throwable t);
+    public sealed interface StreamEvent {
+
+        record Token(String text) implements StreamEvent {
+        }
+
+        record Sources(List<Source> sources) implements StreamEvent {
+        }
+
+        enum Done implements StreamEvent {
+            INSTANCE
+        }
     }
 
     public record Source(String url) {
@@ -0,0 +1,196 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+/**
+ * Turns the retrieved chunks into the context text of the prompt, within a token budget.
+ * <p>
+ * Chunks of the same section ({@code law_code}, {@code chapter_no}, {@code section_no}) are
+ * put back together in {@code subchunk_index}/{@code chunk_index} order under a single
+ * {@code [law=…]} header, so the header the reader puts in front of every section is not
+ * repeated for each piece and neighbouring pieces read as one text. A chunk whose position
+ * (or, for chunks without a {@code chunk_index}, whose text) was already taken is dropped.
+ * <p>
+ * Chunks are admitted in retrieval order as long as they fit into {@code maxTokens}, counting
+ * the {@code token_count} stored at ingestion (estimated for older chunks; it includes the
+ * embedded metadata, so it is an upper bound of the text) and each section
+ * header once; the best chunk is always admitted. Tokens the prompt spends on something else
+ * from the same budget, such as the conversation so far, are reserved up front. Sections
+ * appear in the order of their best chunk.
+ */
+public final class ContextPacker {
+
+    public record Packed(String text, int chunks, int tokens) {
+    }
+
+    static final String TOKEN_COUNT = "token_count";
+    static final String CHUNK_INDEX = "chunk_index";
+
+    private static final String HEADER_PREFIX = "[law=";
+    private static final String GAP = "\n…\n";
+
+    private final int maxTokens;
+    private final TokenCountEstimator tokenCounter;
+
+    public ContextPacker(int maxTokens) {
+        this(maxTokens, new JTokkitTokenCountEstimator());
+    }
+
+    public ContextPacker(int maxTokens, TokenCountEstimator tokenCounter) {
+        this.maxTokens = maxTokens;
+        this.tokenCounter = tokenCounter;
+    }
+
+    public Packed pack(List<Document> documents) {
+        return pack(documents, 0);
+    }
+
+    public Packed pack(List<Document> documents, int reservedTokens) {
+        int budget = maxTokens - reservedTokens;
+        Map<String, Section> sections = new LinkedHashMap<>();
+        Set<String> seen = new HashSet<>();
+        int tokens = 0;
+        int chunks = 0;
+        for (Document document : documents) {
+            String text = document.getText();
+            if (text == null || text.isBlank()) {
+                continue;
+            }
+            Map<String, Object> md = document.getMetadata();
+            String sectionKey = sectionKey(document);
+            Piece piece = piece(md, text);
+            String pieceKey = md.get(CHUNK_INDEX) != null
+                    ? sectionKey + "|" + piece.subchunk() + "|" + piece.chunk()
+                    : sectionKey + "|" + piece.body();
+            if (!seen.add(pieceKey)) {
+                continue;
+            }
+
+            Section section = sections.get(sectionKey);
+            int cost = tokens(md, text);
+            if (section == null) {
+                section = new Section(header(md));
+                cost += section.header == null ? 0 : tokenCounter.estimate(section.header);
+            }
+            if (chunks > 0 && tokens + cost > budget) {
+                continue;
+            }
+            sections.putIfAbsent(sectionKey, section);
+            section.add(piece);
+            tokens += cost;
+            chunks++;
+        }
+
+        List<String> rendered = new ArrayList<>(sections.size());
+        for (Section section : sections.values()) {
+            rendered.add(section.render());
+        }
+        return new Packed(String.join("\n\n", rendered), chunks, tokens);
+    }
+
+    private int tokens(Map<String, Object> md, String text) {
+        return md.get(TOKEN_COUNT) instanceof Number n ? n.intValue() : tokenCounter.estimate(text);
+    }
+
+    private static String sectionKey(Document document) {
+        Map<String, Object> md = document.getMetadata();
+        Object lawCode = md.get("law_code");
+        if (lawCode == null) {
+            return "doc:" + document.getId();
+        }
+        return lawCode + "|" + md.getOrDefault("chapter_no", "") + "|" + md.getOrDefault("section_no", "");
+    }
+
+    private static Piece piece(Map<String, Object> md, String text) {
+        String header = null;
+        String body = text.strip();
+        if (body.startsWith(HEADER_PREFIX)) {
+            int eol = body.indexOf('\n');
+            header = eol < 0 ? body : body.substring(0, eol);
+            body = eol < 0 ? "" : body.substring(eol + 1).strip();
+        }
+        return new Piece(index(md.get("subchunk_index")), index(md.get(CHUNK_INDEX)), header, body);
+    }
+
+    /**
+     * The header the reader puts in front of each section, for sections whose first chunk was
+     * not retrieved; replaced by the original header when that chunk is packed.
+     */
+    private static String header(Map<String, Object> md) {
+        if (md.get("law_code") == null) {
+            return null;
+        }
+        return HEADER_PREFIX + md.get("law_code")
+                + " | " + md.get("law_name")
+                + " | kap " + md.get("chapter_no")
+                + " | § " + md.get("section_no")
+                + " | url=" + md.get("url")
+                + "]";
+    }
+
+    private static int index(Object value) {
+        if (value instanceof Number n) {
+            return n.intValue();
+        }
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.toString());
+            } catch (NumberFormatException ignored) {
+                // fall through
+            }
+        }
+        return 0;
+    }
+
+    private record Piece(int subchunk, int chunk, String header, String body) {
+
+        boolean follows(Piece previous) {
+            return subchunk == previous.subchunk ? chunk == previous.chunk + 1
+                    : subchunk == previous.subchunk + 1 && chunk == 0;
+        }
+    }
+
+    private static final class Section {
+
+        String header;
+        final List<Piece> pieces = new ArrayList<>();
+
+        Section(String header) {
+            this.header = header;
+        }
+
+        void add(Piece piece) {
+            if (piece.header() != null) {
+                header = piece.header();
+            }
+            pieces.add(piece);
+        }
+
+        String render() {
+            pieces.sort(Comparator.comparingInt(Piece::subchunk).thenComparingInt(Piece::chunk));
+            StringBuilder out = new StringBuilder();
+            if (header != null) {
+                out.append(header).append('\n');
+            }
+            Piece previous = null;
+            for (Piece piece : pieces) {
+                if (previous != null) {
+                    out.append(piece.follows(previous) ? "\n" : GAP);
+                }
+                out.append(piece.body());
+                previous = piece;
+            }
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Memory of the streaming chat, keyed by {@code conversationId}.
+ * <p>
+ * A conversation keeps its last turns while they fit into {@code rag.memory.max-turns} and
+ * {@code rag.memory.window-tokens}; older turns are folded into a rolling summary of one line
+ * per turn (the question and the first sentence of the answer), which is itself cut to
+ * {@code rag.memory.summary-tokens} by dropping its oldest lines. The prompt carries the
+ * summary and the window, never the full history.
+ * <p>
+ * A follow-up question ("Och hur väljs de?") is condensed into a standalone retrieval query by
+ * putting it in front of the last standalone question of the conversation, so retrieval sees
+ * what the follow-up refers to. Conversations are held by a {@link ConversationStore} that bounds their number, their total
+ * tokens and their idle time.
+ */
+@Slf4j
+public class ConversationMemory {
+
+    /**
+     * @param topic the standalone question the turn belongs to: the question itself, or for a
+     *              follow-up the topic of the turn before
+     */
+    public record Turn(String question, String topic, String answer, int tokens) {
+    }
+
+    public record Conversation(String summary, int summaryTokens, List<Turn> turns) {
+
+        public static final Conversation EMPTY = new Conversation("", 0, List.of());
+
+        public int tokens() {
+            return summaryTokens + turns.stream().mapToInt(Turn::tokens).sum();
+        }
+
+        public boolean hasHistory() {
+            return !summary.isEmpty() || !turns.isEmpty();
+        }
+    }
+
+    private static final int FOLLOW_UP_MAX_WORDS = 6;
+    private static final int CONTENT_WORD_MIN_LENGTH = 8;
+    private static final int SUMMARY_ANSWER_CHARS = 200;
+
+    private static final Set<String> CONNECTIVES = Set.of("och", "men", "eller", "samt", "även", "också");
+
+    private static final Set<String> REFERRING_WORDS = Set.of(
+            "denna", "detta", "dessa", "dem", "deras", "dess", "där", "dit", "samma", "sådan", "sådana",
+            "sådant", "han", "hon", "hen", "ovan", "ovanstående");
+
+    private final ConversationStore store;
+    private final RagProperties.Memory props;
+    private final TokenCountEstimator tokenCounter;
+
+    public ConversationMemory(RagProperties.Memory props) {
+        this(new InMemoryConversationStore(props), props);
+    }
+
+    ConversationMemory(ConversationStore store, RagProperties.Memory props) {
+        this.store = store;
+        this.props = props;
+        this.tokenCounter = new JTokkitTokenCountEstimator();
+    }
+
+    public boolean isEnabled() {
+        return props.enabled();
+    }
+
+    public Conversation get(String conversationId) {
+        if (!props.enabled() || conversationId == null) {
+            return Conversation.EMPTY;
+        }
+        return store.load(conversationId).orElse(Conversation.EMPTY);
+    }
+
+    /**
+     * The query to retrieve with: the question itself, or for a follow-up the question followed
+     * by the topic of the last turn.
+     */
+    public String retrievalQuery(Conversation conversation, String question) {
+        String topic = topic(conversation, question);
+        if (topic.equals(question)) {
+            return question;
+        }
+        String query = question + " " + topic;
+        log.debug("Condensed follow-up question into retrieval query: {}", query);
+        return query;
+    }
+
+    /**
+     * Summary and recent turns for the prompt, or an empty string for a new conversation.
+     */
+    public String promptContext(Conversation conversation) {
+        if (!conversation.hasHistory()) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder("Tidigare i samtalet:\n");
+        if (!conversation.summary().isEmpty()) {
+            out.append(conversation.summary()).append('\n');
+        }
+        for (Turn turn : conversation.turns()) {
+            out.append("Fråga: ").append(turn.question()).append('\n')
+                    .append("Svar: ").append(turn.answer()).append('\n');
+        }
+        return out.append('\n').toString();
+    }
+
+    /**
+     * Adds a completed turn and folds the turns that no longer fit the window into the summary.
+     * The update is atomic per conversation, so concurrent answers in one conversation are all
+     * kept.
+     */
+    public void record(String conversationId, String question, String answer) {
+        if (!props.enabled() || conversationId == null || answer.isBlank()) {
+            return;
+        }
+        int tokens = tokenCounter.estimate(question) + tokenCounter.estimate(answer);
+        store.update(conversationId, current -> append(current, question, answer.strip(), tokens));
+    }
+
+    private Conversation append(Conversation current, String question, String answer, int tokens) {
+        List<Turn> turns = new ArrayList<>(current.turns());
+        turns.add(new Turn(question, topic(current, question), answer, tokens));
+
+        List<String> summary = new ArrayList<>(current.summary().isEmpty()
+                ? List.of()
+                : List.of(current.summary().split("\n")));
+        int windowTokens = turns.stream().mapToInt(Turn::tokens).sum();
+        while (turns.size() > 1 && (turns.size() > props.maxTurns() || windowTokens > props.windowTokens())) {
+            Turn folded = turns.removeFirst();
+            windowTokens -= folded.tokens();
+            summary.add(summaryLine(folded));
+        }
+
+        int summaryTokens = tokenCounter.estimate(String.join("\n", summary));
+        while (!summary.isEmpty() && summaryTokens > props.summaryTokens()) {
+            summary.removeFirst();
+            summaryTokens = summary.isEmpty() ? 0 : tokenCounter.estimate(String.join("\n", summary));
+        }
+        return new Conversation(String.join("\n", summary), summaryTokens, List.copyOf(turns));
+    }
+
+    private static String topic(Conversation conversation, String question) {
+        if (conversation.turns().isEmpty() || !isFollowUp(question)) {
+            return question;
+        }
+        return conversation.turns().getLast().topic();
+    }
+
+    private static String summaryLine(Turn turn) {
+        String answer = turn.answer().replaceAll("\\s+", " ");
+        int end = answer.indexOf(". ");
+        if (end > 0) {
+            answer = answer.substring(0, end + 1);
+        }
+        if (answer.length() > SUMMARY_ANSWER_CHARS) {
+            answer = answer.substring(0, SUMMARY_ANSWER_CHARS) + "…";
+        }
+        return "- " + turn.question().strip() + " → " + answer;
+    }
+
+    /**
+     * A question that starts with a connective or refers back with a pronoun is taken to depend
+     * on the previous turn, and so is a short question without a subject of its own: no law
+     * or section reference and no long word (Swedish subjects are mostly long compounds such as
+     * "kommunallagen"), as in "Hur väljs de?".
+     */
+    static boolean isFollowUp(String question) {
+        String[] words = question.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}§]+");
+        List<String> nonEmpty = new ArrayList<>(words.length);
+        for (String word : words) {
+            if (!word.isEmpty()) {
+                nonEmpty.add(word);
+            }
+        }
+        if (nonEmpty.isEmpty()) {
+            return false;
+        }
+        if (CONNECTIVES.contains(nonEmpty.getFirst()) || nonEmpty.stream().anyMatch(REFERRING_WORDS::contains)) {
+            return true;
+        }
+        return nonEmpty.size() <= FOLLOW_UP_MAX_WORDS && nonEmpty.stream().noneMatch(ConversationMemory::isContentWord);
+    }
+
+    private static boolean isContentWord(String word) {
+        return word.length() >= CONTENT_WORD_MIN_LENGTH || word.chars().anyMatch(c -> c == '§' || Character.isDigit(c));
+    }
+}
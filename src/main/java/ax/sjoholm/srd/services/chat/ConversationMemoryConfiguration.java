@@ -0,0 +1,41 @@
+package ax.sjoholm.srd.services.chat;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+import ax.sjoholm.srd.services.startup.StartupTasks;
+
+@Configuration
+public class ConversationMemoryConfiguration {
+
+    @Bean
+    ConversationMemory conversationMemory(RagProperties props, ObjectProvider<JdbcTemplate> jdbcTemplate,
+            ObjectProvider<TransactionTemplate> transactionTemplate, ObjectMapper objectMapper, RagMetrics metrics,
+            StartupTasks startupTasks) {
+        var memory = props.memory();
+        ConversationStore store = switch (memory.store()) {
+            case MEMORY -> {
+                var inMemory = new InMemoryConversationStore(memory);
+                metrics.bindConversationStore(inMemory, s -> s.stats().size(), s -> s.stats().evictions(),
+                        InMemoryConversationStore::tokens);
+                yield inMemory;
+            }
+            case JDBC -> {
+                var jdbc = new JdbcConversationStore(jdbcTemplate.getObject(), transactionTemplate.getObject(),
+                        objectMapper, memory);
+                if (memory.enabled()) {
+                    startupTasks.add("conversation memory table", jdbc::initializeSchema);
+                }
+                yield jdbc;
+            }
+        };
+        return new ConversationMemory(store, memory);
+    }
+}
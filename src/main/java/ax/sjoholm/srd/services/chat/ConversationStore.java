@@ -0,0 +1,24 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+import ax.sjoholm.srd.services.chat.ConversationMemory.Conversation;
+
+/**
+ * Keeps conversations for {@link ConversationMemory}. Implementations bound the number of
+ * conversations, their total tokens and their idle time themselves.
+ * <p>
+ * {@link #update} is atomic per conversation, so two answers finishing at the same time in the
+ * same conversation both end up in it.
+ */
+interface ConversationStore {
+
+    Optional<Conversation> load(String conversationId);
+
+    /**
+     * Replaces the conversation (or {@link Conversation#EMPTY} for an unknown or idle one) with
+     * what {@code change} makes of it.
+     */
+    void update(String conversationId, UnaryOperator<Conversation> change);
+}
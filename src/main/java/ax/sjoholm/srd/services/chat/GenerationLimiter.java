@@ -0,0 +1,79 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.stereotype.Component;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Caps the number of LLM generations running at once ({@code rag.generation.max-concurrent}).
+ * Requests beyond the cap wait in FIFO order and are rejected with a
+ * {@link GenerationRejectedException} once {@code rag.generation.queue-timeout} has passed since
+ * the request started, so a burst queues up in front of Ollama instead of hitting it all at
+ * once. The timeout is a deadline for the whole request: time spent on retrieval before asking
+ * for a slot counts against it.
+ */
+@Component
+@Slf4j
+public class GenerationLimiter {
+
+    private final Semaphore slots;
+    private final RagProperties.Generation props;
+    private final RagMetrics metrics;
+
+    public GenerationLimiter(RagProperties props, RagMetrics metrics) {
+        this.props = props.generation();
+        this.slots = new Semaphore(this.props.maxConcurrent(), true);
+        this.metrics = metrics;
+        metrics.bindGenerationSlots(this.props.maxConcurrent(), slots::availablePermits, slots::getQueueLength);
+    }
+
+    /**
+     * Waits for a free generation slot until {@code rag.generation.queue-timeout} after
+     * {@code requestStart}, a {@link System#nanoTime()} taken when the request arrived. The
+     * returned permit must be closed exactly when the generation has finished; closing it more
+     * than once is harmless.
+     */
+    public Permit acquire(long requestStart) {
+        long start = System.nanoTime();
+        long remaining = requestStart + props.queueTimeout().toNanos() - start;
+        boolean acquired = false;
+        try {
+            acquired = slots.tryAcquire(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenerationRejectedException("Interrupted while waiting for a generation slot", e);
+        } finally {
+            metrics.generationQueueWait(acquired, System.nanoTime() - start);
+        }
+        if (!acquired) {
+            log.warn("No generation slot free within {} of the request start ({} waiting)", props.queueTimeout(),
+                    slots.getQueueLength());
+            throw new GenerationRejectedException(
+                    "All " + props.maxConcurrent() + " generation slots are busy; try again later");
+        }
+        return new Permit(slots);
+    }
+
+    public static final class Permit implements AutoCloseable {
+
+        private final Semaphore slots;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+}
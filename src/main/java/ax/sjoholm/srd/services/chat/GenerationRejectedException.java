@@ -0,0 +1,15 @@
+package ax.sjoholm.srd.services.chat;
+
+/**
+ * Thrown when a chat request could not get a generation slot within the configured queue timeout.
+ */
+public class GenerationRejectedException extends RuntimeException {
+
+    public GenerationRejectedException(String message) {
+        super(message);
+    }
+
+    public GenerationRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
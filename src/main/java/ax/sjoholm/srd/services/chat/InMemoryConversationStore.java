@@ -0,0 +1,103 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.cache.LruCache;
+import ax.sjoholm.srd.services.chat.ConversationMemory.Conversation;
+
+/**
+ * Conversations on the heap, in least recently used order. A save evicts from the eldest end
+ * until there are at most {@code rag.memory.max-conversations} conversations holding at most
+ * {@code rag.memory.max-tokens} tokens together, and drops conversations idle for longer than
+ * {@code rag.memory.ttl} on the way.
+ */
+final class InMemoryConversationStore implements ConversationStore {
+
+    private final int maxConversations;
+    private final long maxTokens;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, Entry> conversations = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long tokens;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    InMemoryConversationStore(RagProperties.Memory props) {
+        this.maxConversations = props.maxConversations();
+        this.maxTokens = props.maxTokens();
+        this.ttlNanos = props.ttl().toNanos();
+    }
+
+    @Override
+    public synchronized Optional<Conversation> load(String conversationId) {
+        Entry entry = conversations.get(conversationId);
+        long now = System.nanoTime();
+        if (entry != null && isExpired(entry, now)) {
+            remove(conversationId);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        entry.lastAccess = now;
+        return Optional.of(entry.conversation);
+    }
+
+    @Override
+    public synchronized void update(String conversationId, UnaryOperator<Conversation> change) {
+        Conversation conversation = change.apply(load(conversationId).orElse(Conversation.EMPTY));
+        long now = System.nanoTime();
+        Entry previous = conversations.put(conversationId, new Entry(conversation, now));
+        tokens += conversation.tokens() - (previous == null ? 0 : previous.conversation.tokens());
+        Iterator<Map.Entry<String, Entry>> eldest = conversations.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Map.Entry<String, Entry> e = eldest.next();
+            boolean overCap = conversations.size() > maxConversations || tokens > maxTokens;
+            if (e.getKey().equals(conversationId) || !(overCap || isExpired(e.getValue(), now))) {
+                break;
+            }
+            tokens -= e.getValue().conversation.tokens();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    synchronized long tokens() {
+        return tokens;
+    }
+
+    synchronized LruCache.Stats stats() {
+        return new LruCache.Stats(hits, misses, evictions, conversations.size());
+    }
+
+    private void remove(String conversationId) {
+        Entry removed = conversations.remove(conversationId);
+        if (removed != null) {
+            tokens -= removed.conversation.tokens();
+            evictions++;
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.lastAccess > ttlNanos;
+    }
+
+    private static final class Entry {
+
+        final Conversation conversation;
+        long lastAccess;
+
+        Entry(Conversation conversation, long lastAccess) {
+            this.conversation = conversation;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.chat.ConversationMemory.Conversation;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Conversations as JSON rows in {@code rag.memory.table-name}, so they survive a restart and
+ * are shared by several instances. Every {@value #CLEANUP_INTERVAL}th save deletes idle
+ * conversations and, newest first, everything beyond {@code rag.memory.max-conversations}
+ * conversations or {@code rag.memory.max-tokens} tokens.
+ * <p>
+ * An update runs in a transaction holding a transaction-level advisory lock on the
+ * conversation, so updates of the same conversation from several instances are serialized
+ * without locking a row that may not exist yet.
+ */
+@Slf4j
+final class JdbcConversationStore implements ConversationStore {
+
+    static final int CLEANUP_INTERVAL = 64;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final RagProperties.Memory props;
+    private final String table;
+    private final AtomicInteger saves = new AtomicInteger();
+
+    JdbcConversationStore(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, ObjectMapper objectMapper,
+            RagProperties.Memory props) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.props = props;
+        this.table = props.tableName();
+    }
+
+    void initializeSchema() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " ("
+                + "id text PRIMARY KEY, "
+                + "state jsonb NOT NULL, "
+                + "tokens integer NOT NULL, "
+                + "updated_at timestamptz NOT NULL DEFAULT now())");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_updated_at_idx ON " + table + " (updated_at)");
+        log.info("Conversation memory table {} ready", table);
+    }
+
+    @Override
+    public Optional<Conversation> load(String conversationId) {
+        List<String> rows = jdbcTemplate.queryForList(
+                "SELECT state::text FROM " + table
+                        + " WHERE id = ? AND updated_at > now() - ? * interval '1 millisecond'",
+                String.class, conversationId, props.ttl().toMillis());
+        if (rows.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(rows.getFirst(), Conversation.class));
+        } catch (JsonProcessingException e) {
+            log.warn("Discarding unreadable conversation {}: {}", conversationId, e.getOriginalMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void update(String conversationId, UnaryOperator<Conversation> change) {
+        transactionTemplate.executeWithoutResult(tx -> {
+            jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock(hashtext(?))", table + "/" + conversationId);
+            save(conversationId, change.apply(load(conversationId).orElse(Conversation.EMPTY)));
+        });
+        if (saves.incrementAndGet() % CLEANUP_INTERVAL == 0) {
+            cleanup();
+        }
+    }
+
+    private void save(String conversationId, Conversation conversation) {
+        String state;
+        try {
+            state = objectMapper.writeValueAsString(conversation);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize conversation " + conversationId, e);
+        }
+        jdbcTemplate.update("INSERT INTO " + table + " (id, state, tokens, updated_at) VALUES (?, ?::jsonb, ?, now()) "
+                        + "ON CONFLICT (id) DO UPDATE SET state = EXCLUDED.state, tokens = EXCLUDED.tokens, "
+                        + "updated_at = EXCLUDED.updated_at",
+                conversationId, state, conversation.tokens());
+    }
+
+    void cleanup() {
+        int expired = jdbcTemplate.update("DELETE FROM " + table
+                + " WHERE updated_at < now() - ? * interval '1 millisecond'", props.ttl().toMillis());
+        int evicted = jdbcTemplate.update("DELETE FROM " + table + " WHERE id IN ("
+                        + "SELECT id FROM (SELECT id, row_number() OVER w AS n, sum(tokens) OVER w AS running "
+                        + "FROM " + table + " WINDOW w AS (ORDER BY updated_at DESC, id)) ranked "
+                        + "WHERE n > ? OR running > ?)",
+                props.maxConversations(), props.maxTokens());
+        if (expired + evicted > 0) {
+            log.debug("Removed {} idle and {} evicted conversations from {}", expired, evicted, table);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ax.sjoholm.srd.services.chat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.AdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.BaseAdvisor;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.document.Document;
+
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+
+/**
+ * Augments the user message with documents that were already retrieved for the request.
+ * Unlike {@link QuestionAnswerAdvisor} it never queries the vector store itself; the
+ * documents are handed over per request through the {@link #RETRIEVED_DOCUMENTS} param and
+ * packed into the token budget of the context by a {@link ContextPacker}. The summary of an
+ * ongoing conversation ({@link ConversationMemory#promptContext}) is passed the same way through
+ * {@link #CONVERSATION}, and its tokens ({@link #CONVERSATION_TOKENS}) are taken from the
+ * context budget before the documents are packed.
+ */
+final class RetrievedContextAdvisor implements BaseAdvisor {
+
+    static final String RETRIEVED_DOCUMENTS = QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS;
+    static final String CONVERSATION = "conversation_context";
+    static final String CONVERSATION_TOKENS = "conversation_tokens";
+
+    private final PromptTemplate promptTemplate;
+    private final ContextPacker contextPacker;
+    private final RagMetrics metrics;
+
+    RetrievedContextAdvisor(PromptTemplate promptTemplate, ContextPacker contextPacker, RagMetrics metrics) {
+        this.promptTemplate = promptTemplate;
+        this.contextPacker = contextPacker;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public ChatClientRequest before(ChatClientRequest chatClientRequest, AdvisorChain advisorChain) {
+        List<Document> documents = documents(chatClientRequest.context());
+        int conversationTokens = chatClientRequest.context().get(CONVERSATION_TOKENS) instanceof Integer n ? n : 0;
+        ContextPacker.Packed context = contextPacker.pack(documents, conversationTokens);
+        metrics.contextPacked(documents.size() - context.chunks(), context.text().length(), context.tokens());
+
+        UserMessage userMessage = chatClientRequest.prompt().getUserMessage();
+        String augmentedUserText = promptTemplate.render(Map.of(
+                "conversation", chatClientRequest.context().getOrDefault(CONVERSATION, ""),
+                "query", userMessage.getText(),
+                "question_answer_context", context.text()));
+
+        return chatClientRequest.mutate()
+                .prompt(chatClientRequest.prompt().augmentUserMessage(augmentedUserText))
+                .build();
+    }
+
+    @Override
+    public ChatClientResponse after(ChatClientResponse chatClientResponse, AdvisorChain advisorChain) {
+        return chatClientResponse;
+    }
+
+    @Override
+    public int getOrder() {
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Document> documents(Map<String, Object> context) {
+        return (List<Document>) context.getOrDefault(RETRIEVED_DOCUMENTS, List.of());
+    }
+}
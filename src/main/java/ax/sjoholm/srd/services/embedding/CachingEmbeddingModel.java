@@ -0,0 +1,82 @@
+package ax.sjoholm.srd.services.embedding;
+
+import java.time.Duration;
+import java.util.Objects;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import ax.sjoholm.srd.services.cache.LruCache;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link EmbeddingModel} decorator that caches single-text embeddings, which is the path
+ * used to embed questions before a similarity search. Batch and document embeddings used
+ * by ingestion go straight to the delegate so that they do not flush the query cache.
+ * <p>
+ * Texts are cached by their exact wording after collapsing whitespace, and the collapsed text
+ * is what gets embedded, so a cached vector is always the one the model returns for its key.
+ * Case is kept, because the embedding model is case-sensitive.
+ * <p>
+ * Single-text embeddings are timed as {@code rag.query.embedding}, tagged by cache outcome.
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final String modelName;
+    private final LruCache<String, float[]> cache;
+    private final RagMetrics metrics;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelName, int maxEntries, Duration ttl,
+            RagMetrics metrics) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate");
+        this.modelName = modelName == null ? "" : modelName;
+        this.cache = new LruCache<>(maxEntries, ttl);
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        metrics.bindCache("embedding", cache, LruCache::stats);
+    }
+
+    @Override
+    public float[] embed(String text) {
+        long start = System.nanoTime();
+        boolean[] miss = new boolean[1];
+        String normalized = normalize(text);
+        float[] vector = cache.computeIfAbsent(modelName + '\u0000' + normalized, k -> {
+            miss[0] = true;
+            log.debug("Embedding cache miss for model={} ({})", modelName, cache.stats());
+            return delegate.embed(normalized);
+        });
+        metrics.queryEmbedding(!miss[0], System.nanoTime() - start);
+        return vector.clone();
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public LruCache.Stats stats() {
+        return cache.stats();
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.strip().replaceAll("\\s+", " ");
+    }
+}
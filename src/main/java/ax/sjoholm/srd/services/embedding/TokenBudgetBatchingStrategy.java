@@ -0,0 +1,81 @@
+package ax.sjoholm.srd.services.embedding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+/**
+ * Groups documents into embedding requests bounded both by an estimated token budget and by
+ * a maximum number of documents. Used by the vector store for every embedding call and by the
+ * ingestion pipeline to size the batches it writes, so that one pipeline batch maps to one
+ * embedding request.
+ * <p>
+ * A document that carries a {@code token_count}, as every chunk written by ingestion does, is
+ * not tokenized again.
+ */
+public class TokenBudgetBatchingStrategy implements BatchingStrategy {
+
+    public static final String TOKEN_COUNT = "token_count";
+
+    private final TokenCountEstimator tokenCountEstimator;
+    private final int maxTokens;
+    private final int maxDocuments;
+
+    public TokenBudgetBatchingStrategy(int maxTokens, int maxDocuments) {
+        this(new JTokkitTokenCountEstimator(), maxTokens, maxDocuments);
+    }
+
+    public TokenBudgetBatchingStrategy(TokenCountEstimator tokenCountEstimator, int maxTokens, int maxDocuments) {
+        if (maxTokens < 1 || maxDocuments < 1) {
+            throw new IllegalArgumentException("maxTokens and maxDocuments must be >= 1");
+        }
+        this.tokenCountEstimator = tokenCountEstimator;
+        this.maxTokens = maxTokens;
+        this.maxDocuments = maxDocuments;
+    }
+
+    @Override
+    public List<List<Document>> batch(List<Document> documents) {
+        List<List<Document>> batches = new ArrayList<>();
+        List<Document> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (Document document : documents) {
+            int tokens = tokens(document);
+            if (!current.isEmpty() && !fits(current.size(), currentTokens, tokens)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(document);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    /**
+     * Estimated tokens of the text that is sent to the embedding model for {@code document}:
+     * its {@code token_count}, or the estimate of its content and embedded metadata.
+     */
+    public int tokens(Document document) {
+        if (document.getMetadata().get(TOKEN_COUNT) instanceof Number n) {
+            return n.intValue();
+        }
+        return tokenCountEstimator.estimate(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    /**
+     * Whether a document of {@code tokens} can join a batch that already holds {@code size}
+     * documents and {@code batchTokens} tokens. A single oversized document always gets a batch of its own.
+     */
+    public boolean fits(int size, int batchTokens, int tokens) {
+        return size < maxDocuments && batchTokens + tokens <= maxTokens;
+    }
+}
@@ -0,0 +1,224 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * Statistics of one ingestion run, accumulated in a single pass while the pipeline runs: the
+ * split stage reports every section document with its chunks, the write stage every batch, and
+ * the stage listener when each stage has drained. Safe for concurrent use by the stage workers;
+ * memory does not grow with the number of chunks except for one counter per law.
+ * <p>
+ * Lengths go into fixed-width buckets (25 characters, 4 tokens), so percentiles are exact to
+ * within a bucket; lengths beyond the last bucket are reported as the maximum.
+ */
+public final class ChunkStatistics {
+
+    /**
+     * @param chunksPerLaw chunks by {@code law_code}, most chunks first
+     * @param stageMillis  time from the start of the run until each stage had drained
+     */
+    public record Report(Distribution chars, Distribution tokens, Map<String, Long> chunksPerLaw,
+            Sections sections, Map<String, Long> stageMillis, Throughput throughput) {
+    }
+
+    /**
+     * @param total     sum of all lengths; for tokens, what embedding the run cost
+     * @param histogram chunk counts by length range
+     */
+    public record Distribution(long count, long total, long min, long max, double mean, long p50, long p90,
+            long p99, Map<String, Long> histogram) {
+    }
+
+    /**
+     * @param documents  section documents that reached the splitter
+     * @param merged     sections that absorbed at least one short section, counted once even when
+     *                   they were cut into subchunks
+     * @param mergedAway short sections merged into the following one
+     * @param subchunked sections too long for one document, cut into subchunks
+     * @param subchunks  documents that are one subchunk of such a section
+     * @param split      documents the token splitter cut into more than one chunk
+     */
+    public record Sections(long documents, long merged, long mergedAway, long subchunked, long subchunks,
+            long split) {
+    }
+
+    /**
+     * @param embeddingTokensPerSecond chunk tokens per second of write stage time (embedding and insert)
+     */
+    public record Throughput(double documentsPerSecond, double chunksPerSecond, double tokensPerSecond,
+            double embeddingTokensPerSecond) {
+    }
+
+    static final String NO_LAW = "(none)";
+
+    private static final int[] CHAR_BINS = { 50, 200, 500, 1000, 2000, 4000 };
+    private static final int[] TOKEN_BINS = { 16, 64, 128, 256, 512, 1024 };
+
+    private final Histogram chars = new Histogram(25, 400, CHAR_BINS);
+    private final Histogram tokens = new Histogram(4, 512, TOKEN_BINS);
+    private final ConcurrentHashMap<String, LongAdder> chunksPerLaw = new ConcurrentHashMap<>();
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder mergedAway = new LongAdder();
+    private final LongAdder subchunked = new LongAdder();
+    private final LongAdder subchunks = new LongAdder();
+    private final LongAdder split = new LongAdder();
+    private final LongAdder writtenTokens = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+
+    /**
+     * Records a section document and the chunks the splitter made of it.
+     */
+    public void documentSplit(Document document, List<Document> chunks) {
+        documents.increment();
+        Map<String, Object> md = document.getMetadata();
+        // every subchunk of a merged section carries merged_from_sections; count the first only
+        boolean firstPart = !(md.get("subchunk_total") instanceof Number)
+                || md.get("subchunk_index") instanceof Number index && index.intValue() == 0;
+        if (firstPart && md.get("merged_from_sections") instanceof String from && !from.isBlank()) {
+            merged.increment();
+            mergedAway.add(from.split(",").length);
+        }
+        if (md.get("subchunk_total") instanceof Number total && total.intValue() > 1) {
+            subchunks.increment();
+            if (md.get("subchunk_index") instanceof Number index && index.intValue() == 0) {
+                subchunked.increment();
+            }
+        }
+        if (chunks.size() > 1) {
+            split.increment();
+        }
+        for (Document chunk : chunks) {
+            int length = chunk.getText() == null ? 0 : chunk.getText().length();
+            chars.add(length);
+            tokens.add(tokens(chunk, length));
+            Object law = chunk.getMetadata().get("law_code");
+            chunksPerLaw.computeIfAbsent(law == null ? NO_LAW : law.toString(), k -> new LongAdder()).increment();
+        }
+    }
+
+    public void batchWritten(List<Document> batch, long nanos) {
+        for (Document chunk : batch) {
+            writtenTokens.add(tokens(chunk, chunk.getText() == null ? 0 : chunk.getText().length()));
+        }
+        writeNanos.add(nanos);
+    }
+
+    public synchronized void stageDrained(String stage, long nanosSinceStart) {
+        stageMillis.put(stage, nanosSinceStart / 1_000_000);
+    }
+
+    public synchronized Report report(long documentsRead, Duration elapsed) {
+        double seconds = Math.max(0.001, elapsed.toMillis() / 1000.0);
+        double writeSeconds = writeNanos.sum() / 1e9;
+        Map<String, Long> perLaw = new LinkedHashMap<>();
+        chunksPerLaw.entrySet().stream()
+                .sorted(Map.Entry.<String, LongAdder>comparingByValue(Comparator.comparingLong(LongAdder::sum))
+                        .reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> perLaw.put(e.getKey(), e.getValue().sum()));
+        return new Report(
+                chars.distribution(),
+                tokens.distribution(),
+                perLaw,
+                new Sections(documents.sum(), merged.sum(), mergedAway.sum(), subchunked.sum(), subchunks.sum(),
+                        split.sum()),
+                new LinkedHashMap<>(stageMillis),
+                new Throughput(
+                        documentsRead / seconds,
+                        chars.count() / seconds,
+                        tokens.total() / seconds,
+                        writeSeconds > 0 ? writtenTokens.sum() / writeSeconds : 0));
+    }
+
+    // token_count is set by the splitter; estimate for chunks that do not carry it
+    private static int tokens(Document chunk, int length) {
+        return chunk.getMetadata().get("token_count") instanceof Number n ? n.intValue() : (length + 3) / 4;
+    }
+
+    private static final class Histogram {
+
+        private final int width;
+        private final int[] bins;
+        private final AtomicLongArray buckets;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(int width, int buckets, int[] bins) {
+            this.width = width;
+            this.bins = bins;
+            // the last bucket holds everything beyond the range
+            this.buckets = new AtomicLongArray(buckets + 1);
+        }
+
+        void add(int value) {
+            buckets.incrementAndGet(Math.min(value / width, buckets.length() - 1));
+            count.increment();
+            total.add(value);
+            min.accumulateAndGet(value, Math::min);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long total() {
+            return total.sum();
+        }
+
+        long below(int limit) {
+            long n = 0;
+            for (int i = 0; i < Math.min(limit / width, buckets.length() - 1); i++) {
+                n += buckets.get(i);
+            }
+            return n;
+        }
+
+        Distribution distribution() {
+            long n = count.sum();
+            if (n == 0) {
+                return new Distribution(0, 0, 0, 0, 0, 0, 0, 0, histogram());
+            }
+            return new Distribution(n, total.sum(), min.get(), max.get(), (double) total.sum() / n,
+                    percentile(0.5, n), percentile(0.9, n), percentile(0.99, n), histogram());
+        }
+
+        private long percentile(double q, long n) {
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length() - 1; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), (long) (i + 1) * width - 1);
+                }
+            }
+            return max.get();
+        }
+
+        private Map<String, Long> histogram() {
+            Map<String, Long> out = new LinkedHashMap<>();
+            long previous = 0;
+            for (int bin : bins) {
+                long below = below(bin);
+                out.put("<" + bin, below - previous);
+                previous = below;
+            }
+            out.put(">=" + bins[bins.length - 1], count.sum() - previous);
+            return out;
+        }
+    }
+}
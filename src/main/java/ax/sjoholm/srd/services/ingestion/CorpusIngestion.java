@@ -0,0 +1,183 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.ingestion.IngestionService.CorpusChanges;
+import ax.sjoholm.srd.services.ingestion.IngestionService.IngestionReport;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Incremental ingestion of the PDF volumes in {@code rag.corpus.directory}. Files are compared
+ * with the {@link CorpusManifest}; only new and changed files are extracted and embedded, up to
+ * {@code rag.corpus.file-parallelism} of them at a time, all feeding one ingestion pipeline.
+ * <p>
+ * Every chunk carries its {@code source_file} and the id of the run that wrote it
+ * ({@code ingestion_run}). The previous chunks of a changed file are deleted only after the
+ * run has written the new ones, so the file stays searchable throughout; chunks of deleted
+ * files are removed. The manifest is saved only when the whole run succeeded, so a failed or
+ * cancelled run is simply repeated by the next sync.
+ * <p>
+ * Each file being read holds {@code rag.ingestion.extraction-parallelism} open PDF readers, so
+ * up to {@code file-parallelism × extraction-parallelism} are open at once; the properties
+ * refuse a product above 64.
+ */
+@Slf4j
+public class CorpusIngestion {
+
+    static final String SOURCE_FILE = "source_file";
+    static final String INGESTION_RUN = "ingestion_run";
+
+    private final IngestionService ingestionService;
+    private final VectorStore vectorStore;
+    private final TaskExecutor extractionExecutor;
+    private final RagProperties.Corpus corpus;
+    private final int extractionParallelism;
+    private final CorpusManifest manifest;
+
+    CorpusIngestion(IngestionService ingestionService, VectorStore vectorStore, TaskExecutor extractionExecutor,
+            RagProperties props, CorpusManifest manifest) {
+        this.ingestionService = ingestionService;
+        this.vectorStore = vectorStore;
+        this.extractionExecutor = extractionExecutor;
+        this.corpus = props.corpus();
+        this.extractionParallelism = props.ingestion().extractionParallelism();
+        this.manifest = manifest;
+    }
+
+    /**
+     * Brings the vector store in line with the corpus directory.
+     */
+    public synchronized IngestionReport sync(IngestionListener progress) {
+        CorpusManifest.Diff diff = manifest.diff(scan());
+        List<String> removed = diff.removed();
+        var changes = new CorpusChanges(diff.added(), diff.changed(), removed, diff.unchanged());
+
+        if (diff.isEmpty()) {
+            if (diff.touched()) {
+                // touched but identical files: remember the new timestamps so they are not hashed again
+                manifest.save();
+            }
+            log.info("Corpus {} is up to date ({} files)", corpus.directory(), diff.unchanged());
+            progress.stageStarted(IngestionStage.DONE);
+            return new IngestionReport(0, 0, 0, 0, null, changes);
+        }
+
+        log.info("Syncing corpus {}: added={} changed={} removed={} unchanged={}",
+                corpus.directory(), diff.added(), diff.changed(), removed, diff.unchanged());
+        String run = UUID.randomUUID().toString();
+        Map<String, CorpusManifest.Entry> pending = diff.pending();
+        List<String> toIngest = new ArrayList<>(pending.keySet());
+        toIngest.sort(null);
+        IngestionReport report = ingestionService.ingest(
+                sink -> readFiles(toIngest, run, sink),
+                progress,
+                () -> {
+                    toIngest.forEach(name -> vectorStore.delete(staleChunks(name, run)));
+                    removed.forEach(name -> vectorStore.delete(chunksOf(name)));
+                    Instant now = Instant.now();
+                    pending.forEach((name, entry) -> manifest.put(name, new CorpusManifest.Entry(
+                            entry.sha256(), entry.size(), entry.lastModified(), now)));
+                    removed.forEach(manifest::remove);
+                    manifest.save();
+                });
+        return report.withFiles(changes);
+    }
+
+    private Map<String, Path> scan() {
+        Map<String, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(corpus.directory(), corpus.filePattern())) {
+            for (Path path : dir) {
+                if (Files.isRegularFile(path)) {
+                    files.put(path.getFileName().toString(), path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed listing corpus directory " + corpus.directory(), e);
+        }
+        return files;
+    }
+
+    private void readFiles(List<String> names, String run, Consumer<Document> sink) {
+        if (names.isEmpty()) {
+            return;
+        }
+        ExecutorService readers = Executors.newFixedThreadPool(Math.min(corpus.fileParallelism(), names.size()),
+                Thread.ofPlatform().name("ingest-file-", 0).factory());
+        try {
+            List<Future<?>> reads = new ArrayList<>();
+            for (String name : names) {
+                reads.add(readers.submit(() -> readFile(name, run, sink)));
+            }
+            for (Future<?> read : reads) {
+                read.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException("Failed reading corpus file", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Ingestion pipeline was stopped");
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    private void readFile(String name, String run, Consumer<Document> sink) {
+        Path path = corpus.directory().resolve(name);
+        log.info("Reading corpus file {}", path);
+        new LagsamlingDocumentReader(new FileSystemResource(path), extractionExecutor, extractionParallelism)
+                .read(doc -> {
+                    Map<String, Object> metadata = new HashMap<>(doc.getMetadata());
+                    metadata.put(SOURCE_FILE, name);
+                    metadata.put(INGESTION_RUN, run);
+                    sink.accept(new Document(doc.getId(), doc.getText(), metadata));
+                });
+    }
+
+    /**
+     * Creates the index that the deletes of a sync use on a pgvector table. pgvector matches a
+     * filter expression as {@code metadata::jsonb @@ jsonpath}, which a GIN {@code jsonb_path_ops}
+     * index on that expression answers for the {@code source_file} equality.
+     */
+    public static void initializeSchema(JdbcTemplate jdbcTemplate, String schemaName, String tableName) {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_metadata_path_idx ON " + schemaName + "."
+                + tableName + " USING gin ((metadata::jsonb) jsonb_path_ops)");
+    }
+
+    private static Filter.Expression staleChunks(String name, String run) {
+        var b = new FilterExpressionBuilder();
+        return b.and(b.eq(SOURCE_FILE, name), b.ne(INGESTION_RUN, run)).build();
+    }
+
+    private static Filter.Expression chunksOf(String name) {
+        return new FilterExpressionBuilder().eq(SOURCE_FILE, name).build();
+    }
+}
@@ -0,0 +1,170 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * SHA-256 checksums of the corpus files whose chunks are in the vector store, keyed by file
+ * name and kept as JSON next to the corpus. Size and modification time are stored too, so an
+ * untouched file is recognised without reading it.
+ */
+public final class CorpusManifest {
+
+    public record Entry(String sha256, long size, long lastModified, Instant ingestedAt) {
+    }
+
+    /**
+     * The corpus files compared with the manifest. {@code pending} holds the new entries of the
+     * added and changed files; {@code touched} is set when an unchanged file only got a new
+     * timestamp, which {@link #diff} has already recorded.
+     */
+    public record Diff(List<String> added, List<String> changed, List<String> removed, int unchanged,
+            Map<String, Entry> pending, boolean touched) {
+
+        public boolean isEmpty() {
+            return pending.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private static final TypeReference<TreeMap<String, Entry>> ENTRIES = new TypeReference<>() {
+    };
+
+    private final Path file;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Entry> entries;
+
+    private CorpusManifest(Path file, ObjectMapper objectMapper, Map<String, Entry> entries) {
+        this.file = file;
+        this.objectMapper = objectMapper;
+        this.entries = entries;
+    }
+
+    public static CorpusManifest load(Path file, ObjectMapper objectMapper) {
+        if (!Files.exists(file)) {
+            return empty(file, objectMapper);
+        }
+        try {
+            return new CorpusManifest(file, objectMapper, objectMapper.readValue(file.toFile(), ENTRIES));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable corpus manifest " + file, e);
+        }
+    }
+
+    public static CorpusManifest empty(Path file, ObjectMapper objectMapper) {
+        return new CorpusManifest(file, objectMapper, new TreeMap<>());
+    }
+
+    public synchronized Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public synchronized Map<String, Entry> entries() {
+        return Map.copyOf(entries);
+    }
+
+    public synchronized void put(String name, Entry entry) {
+        entries.put(name, entry);
+    }
+
+    public synchronized void remove(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * Writes the manifest to a temporary file and moves it into place, so a crash never
+     * leaves a truncated manifest behind.
+     */
+    public synchronized void save() {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), entries);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed writing corpus manifest " + file, e);
+        }
+    }
+
+    /**
+     * Compares the corpus files, keyed by file name, with the manifest. A file is hashed only
+     * when its size or timestamp differs from its entry; one with a new timestamp but the same
+     * checksum is unchanged, and its entry is updated so that it is not hashed again.
+     */
+    public synchronized Diff diff(Map<String, Path> files) {
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        Map<String, Entry> pending = new HashMap<>();
+        int unchanged = 0;
+        boolean touched = false;
+        for (var file : new TreeMap<>(files).entrySet()) {
+            String name = file.getKey();
+            Entry known = entries.get(name);
+            Entry current = describe(file.getValue(), known);
+            if (known != null && known.sha256().equals(current.sha256())) {
+                unchanged++;
+                if (known.lastModified() != current.lastModified()) {
+                    entries.put(name, new Entry(known.sha256(), current.size(), current.lastModified(),
+                            known.ingestedAt()));
+                    touched = true;
+                }
+                continue;
+            }
+            (known == null ? added : changed).add(name);
+            pending.put(name, current);
+        }
+        List<String> removed = entries.keySet().stream()
+                .filter(name -> !files.containsKey(name))
+                .sorted()
+                .toList();
+        return new Diff(added, changed, removed, unchanged, pending, touched);
+    }
+
+    /**
+     * Size, timestamp and checksum of {@code path}; the checksum is taken from {@code known}
+     * when size and timestamp are unchanged.
+     */
+    private static Entry describe(Path path, Entry known) {
+        try {
+            long size = Files.size(path);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            if (known != null && known.size() == size && known.lastModified() == lastModified) {
+                return known;
+            }
+            return new Entry(sha256(path), size, lastModified, null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed reading corpus file " + path, e);
+        }
+    }
+
+    static String sha256(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,107 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.TaskRejectedException;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Queues a corpus sync job on startup and whenever a matching file in the corpus directory is
+ * created, modified or deleted. Events are collected until the directory has been quiet for
+ * {@code rag.corpus.settle-delay}, so a volume that is still being copied is not read half-written
+ * and a batch of new files becomes one job.
+ */
+@Slf4j
+final class CorpusWatcher implements SmartLifecycle {
+
+    private final IngestionJobService jobService;
+    private final Path directory;
+    private final PathMatcher files;
+    private final Duration settleDelay;
+    private volatile Thread thread;
+
+    CorpusWatcher(IngestionJobService jobService, RagProperties.Corpus corpus) {
+        this.jobService = jobService;
+        this.directory = corpus.directory();
+        this.files = directory.getFileSystem().getPathMatcher("glob:" + corpus.filePattern());
+        this.settleDelay = corpus.settleDelay();
+    }
+
+    @Override
+    public void start() {
+        thread = Thread.ofPlatform().daemon().name("corpus-watcher").start(this::watch);
+    }
+
+    @Override
+    public void stop() {
+        Thread t = thread;
+        thread = null;
+        if (t != null) {
+            t.interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    private void watch() {
+        try (WatchService watchService = directory.getFileSystem().newWatchService()) {
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            log.info("Watching corpus directory {}", directory);
+            submit("startup");
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean relevant = drain(watchService.take());
+                WatchKey next;
+                while ((next = watchService.poll(settleDelay.toMillis(), TimeUnit.MILLISECONDS)) != null) {
+                    relevant |= drain(next);
+                }
+                if (relevant) {
+                    submit("change");
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Cannot watch corpus directory {}", directory, e);
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW
+                    || (event.context() instanceof Path name && files.matches(name))) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    private void submit(String reason) {
+        try {
+            IngestionJob job = jobService.submit();
+            log.info("Corpus sync job {} queued ({})", job.id(), reason);
+        } catch (TaskRejectedException e) {
+            log.warn("Corpus sync ({}) not queued: too many ingestion jobs waiting", reason);
+        }
+    }
+}
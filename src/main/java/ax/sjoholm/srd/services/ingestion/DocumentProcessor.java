@@ -5,6 +5,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
@@ -30,25 +31,30 @@ public class DocumentProcessor {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Processes a single document.
+     *
+     * @param document the document to process
+     * @return the processed document, or empty if too little content remains after normalization
+     */
+    public Optional<Document> process(Document document) {
+        return Optional.of(processDocument(document))
+                .filter(this::hasValidContent);
+    }
+
     private Document processDocument(Document document) {
         String normalizedText = normalizeText(document.getText());
         Map<String, Object> enrichedMetadata = enrichMetadata(document.getMetadata(), normalizedText);
         return new Document(normalizedText, enrichedMetadata);
     }
 
-    private String normalizeText(String text) {
+    String normalizeText(String text) {
         if (text == null || text.isBlank()) {
             return "";
         }
 
-        String normalized = text;
-
-        // Normalize line endings
-        normalized = normalized.replace("\r\n", "\n").replace('\r', '\n');
-
-        // Remove excessive whitespace while preserving paragraph structure
-        normalized = normalized.replaceAll("[\\t ]{2,}", " ");
-        normalized = normalized.replaceAll("\\n{3,}", "\n\n");
+        // Fold line endings and collapse whitespace runs, keeping paragraph structure
+        String normalized = TextNormalizer.WHITESPACE.normalize(text);
 
         // Apply heading normalization for legal documents
         normalized = HeadingNormalizer.normalizeHeadings(normalized);
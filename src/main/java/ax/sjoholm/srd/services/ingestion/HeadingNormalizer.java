@@ -1,7 +1,5 @@
 package ax.sjoholm.srd.services.ingestion;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -32,9 +30,7 @@ public final class HeadingNormalizer {
   public static String normalizeHeadings(String text) {
     if (text == null || text.isBlank()) return "";
 
-    List<String> lines = new ArrayList<>(
-        Arrays.asList(text.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1))
-    );
+    List<String> lines = TextNormalizer.lines(text);
 
     StringBuilder out = new StringBuilder(text.length());
     for (int i = 0; i < lines.size(); i++) {
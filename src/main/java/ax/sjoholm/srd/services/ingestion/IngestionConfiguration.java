@@ -1,22 +1,84 @@
 package ax.sjoholm.srd.services.ingestion;
 
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import lombok.extern.slf4j.Slf4j;
+
 @Configuration
+@Slf4j
 public class IngestionConfiguration {
 
     @Bean
-    TaskExecutor ingestionExecutor() {
+    TaskExecutor ingestionExecutor(RagProperties props) {
+        int threads = props.ingestion().extractionParallelism();
         ThreadPoolTaskExecutor exec = new ThreadPoolTaskExecutor();
         exec.setThreadNamePrefix("ingest-");
-        exec.setCorePoolSize(4);
-        exec.setMaxPoolSize(4);
+        exec.setCorePoolSize(threads);
+        exec.setMaxPoolSize(threads);
         exec.setQueueCapacity(20);
         exec.setRejectedExecutionHandler(new java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy());
         exec.initialize();
         return exec;
     }
+
+    /**
+     * Runs ingestion jobs, one at a time. Kept apart from {@link #ingestionExecutor} and from
+     * the servlet threads so a running ingestion cannot starve chat traffic or its own page
+     * extraction workers.
+     */
+    @Bean
+    TaskExecutor ingestionJobExecutor() {
+        ThreadPoolTaskExecutor exec = new ThreadPoolTaskExecutor();
+        exec.setThreadNamePrefix("ingest-job-");
+        exec.setCorePoolSize(1);
+        exec.setMaxPoolSize(1);
+        exec.setQueueCapacity(4);
+        exec.initialize();
+        return exec;
+    }
+
+    @Bean
+    IngestionRunStore ingestionRunStore(RagProperties props, ObjectMapper objectMapper) {
+        var ingestion = props.ingestion();
+        return new IngestionRunStore(ingestion.reportDirectory(), ingestion.retainedReports(), objectMapper);
+    }
+
+    /**
+     * The manifest only describes the store if the store survived the restart; with an
+     * in-memory store or a table that is re-created on startup, everything is ingested again.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "rag.corpus", name = "directory")
+    CorpusIngestion corpusIngestion(IngestionService ingestionService, VectorStore vectorStore,
+            @Qualifier("ingestionExecutor") TaskExecutor ingestionExecutor, ObjectMapper objectMapper,
+            RagProperties props,
+            @Value("${spring.ai.vectorstore.pgvector.remove-existing-vector-store-table:false}") boolean storeRecreated) {
+        var manifestFile = props.corpus().manifestFile();
+        CorpusManifest manifest;
+        if (vectorStore instanceof PgVectorStore && !storeRecreated) {
+            manifest = CorpusManifest.load(manifestFile, objectMapper);
+        } else {
+            log.info("The vector store starts empty; ignoring corpus manifest {}", manifestFile);
+            manifest = CorpusManifest.empty(manifestFile, objectMapper);
+        }
+        return new CorpusIngestion(ingestionService, vectorStore, ingestionExecutor, props, manifest);
+    }
+
+    @Bean
+    @ConditionalOnExpression("'${rag.corpus.directory:}' != '' and ${rag.corpus.watch:true}")
+    CorpusWatcher corpusWatcher(IngestionJobService jobService, RagProperties props) {
+        return new CorpusWatcher(jobService, props.corpus());
+    }
 }
@@ -0,0 +1,40 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.time.Instant;
+
+public final class IngestionDtos {
+
+  public record JobStatus(
+      String id,
+      String status,
+      String stage,
+      long documentsRead,
+      long documentsProcessed,
+      long chunksWritten,
+      Double chunksPerSecond,
+      Long etaSeconds,
+      Instant createdAt,
+      Instant startedAt,
+      Instant finishedAt,
+      IngestionService.IngestionReport report,
+      String error
+  ) {}
+
+  /**
+   * One finished run, for comparing runs without fetching every report.
+   *
+   * @param tokensChangePercent change of the total chunk tokens against the previous successful run
+   */
+  public record RunSummary(
+      String id,
+      String status,
+      Instant finishedAt,
+      long documentsRead,
+      long chunksWritten,
+      Long chunkTokens,
+      Long tokensP50,
+      Long tokensP90,
+      Long charsP50,
+      Double tokensChangePercent
+  ) {}
+}
@@ -0,0 +1,24 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Monotonic counter identifying the current state of the ingested corpus. It is advanced
+ * after every completed ingestion so that anything derived from earlier content, such as
+ * cached answers, can be recognised as stale.
+ */
+@Component
+public class IngestionGeneration {
+
+    private final AtomicLong generation = new AtomicLong();
+
+    public long current() {
+        return generation.get();
+    }
+
+    public long advance() {
+        return generation.incrementAndGet();
+    }
+}
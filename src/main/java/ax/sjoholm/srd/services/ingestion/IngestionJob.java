@@ -0,0 +1,155 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of one asynchronous ingestion run. The job is its own {@link IngestionListener}, so
+ * the pipeline updates the counters directly and polls it for cancellation.
+ */
+public final class IngestionJob implements IngestionListener {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id;
+    private final Instant createdAt = Instant.now();
+
+    private final AtomicLong documentsRead = new AtomicLong();
+    private final AtomicLong documentsProcessed = new AtomicLong();
+    private final AtomicLong chunksProduced = new AtomicLong();
+    private final AtomicLong chunksWritten = new AtomicLong();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile IngestionStage stage = IngestionStage.PENDING;
+    private volatile boolean readingFinished;
+    private volatile boolean cancelRequested;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile IngestionService.IngestionReport report;
+    private volatile String error;
+
+    IngestionJob(String id) {
+        this.id = id;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    void started() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    void succeeded(IngestionService.IngestionReport report) {
+        this.report = report;
+        finish(Status.SUCCEEDED);
+    }
+
+    void failed(Throwable t) {
+        this.error = t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName();
+        finish(Status.FAILED);
+    }
+
+    void cancelled() {
+        finish(Status.CANCELLED);
+    }
+
+    void requestCancel() {
+        cancelRequested = true;
+    }
+
+    private void finish(Status finalStatus) {
+        finishedAt = Instant.now();
+        status = finalStatus;
+    }
+
+    @Override
+    public void stageStarted(IngestionStage stage) {
+        if (stage.ordinal() > IngestionStage.READING.ordinal()) {
+            readingFinished = true;
+        }
+        this.stage = stage;
+    }
+
+    @Override
+    public void documentRead() {
+        documentsRead.incrementAndGet();
+    }
+
+    @Override
+    public void documentProcessed() {
+        documentsProcessed.incrementAndGet();
+    }
+
+    @Override
+    public void chunksProduced(int count) {
+        chunksProduced.addAndGet(count);
+    }
+
+    @Override
+    public void chunksWritten(int count) {
+        chunksWritten.addAndGet(count);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelRequested;
+    }
+
+    public IngestionDtos.JobStatus toStatus() {
+        Instant start = startedAt;
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long read = documentsRead.get();
+        long processed = documentsProcessed.get();
+        long written = chunksWritten.get();
+        long produced = chunksProduced.get();
+
+        Double chunksPerSecond = null;
+        Long etaSeconds = null;
+        if (start != null) {
+            double seconds = Math.max(0.001, Duration.between(start, end).toMillis() / 1000.0);
+            chunksPerSecond = written / seconds;
+            // writing (embedding) dominates a run, so the ETA is the chunks still to write at the
+            // write rate so far. The document total is only known once the reader is done, and the
+            // chunk total once the splitter is; until then it is extrapolated from the chunks per
+            // processed document.
+            if (finishedAt == null && readingFinished && processed > 0 && written > 0) {
+                double expected = stage.ordinal() > IngestionStage.SPLITTING.ordinal()
+                        ? produced
+                        : (double) produced * read / processed;
+                etaSeconds = Math.round(Math.max(0, expected - written) / chunksPerSecond);
+            }
+        }
+
+        return new IngestionDtos.JobStatus(
+                id,
+                status.name(),
+                stage.name(),
+                read,
+                processed,
+                written,
+                chunksPerSecond,
+                etaSeconds,
+                createdAt,
+                start,
+                finishedAt,
+                report,
+                error);
+    }
+}
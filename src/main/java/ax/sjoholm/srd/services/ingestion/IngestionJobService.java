@@ -0,0 +1,203 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.startup.StartupTasks;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs ingestions as asynchronous jobs on the dedicated {@code ingestionJobExecutor}, so that
+ * a long ingestion neither holds a servlet thread nor competes with chat requests for threads.
+ * With {@code rag.corpus.directory} set, a job is a {@link CorpusIngestion#sync} of the
+ * directory; otherwise it ingests the classpath document.
+ * <p>
+ * Finished jobs are also written to the {@link IngestionRunStore}, so a run's report and chunk
+ * statistics can be read back after the job has been evicted or the application restarted.
+ * <p>
+ * A job waits at most {@code rag.startup.await-timeout} for the deferred startup tasks and
+ * fails when they are still not done.
+ */
+@Service
+@Slf4j
+public class IngestionJobService {
+
+    // finished jobs kept for status polling
+    private static final int MAX_RETAINED_JOBS = 50;
+
+    private final IngestionService ingestionService;
+    private final CorpusIngestion corpusIngestion;
+    private final TaskExecutor jobExecutor;
+    private final StartupTasks startupTasks;
+    private final Duration startupTimeout;
+    private final IngestionRunStore runStore;
+    private final Map<String, IngestionJob> jobs = new LinkedHashMap<>();
+
+    public IngestionJobService(IngestionService ingestionService, ObjectProvider<CorpusIngestion> corpusIngestion,
+            @Qualifier("ingestionJobExecutor") TaskExecutor jobExecutor, StartupTasks startupTasks,
+            IngestionRunStore runStore, RagProperties props) {
+        this.ingestionService = ingestionService;
+        this.corpusIngestion = corpusIngestion.getIfAvailable();
+        this.jobExecutor = jobExecutor;
+        this.startupTasks = startupTasks;
+        this.startupTimeout = props.startup().awaitTimeout();
+        this.runStore = runStore;
+    }
+
+    /**
+     * Queues a new ingestion job and returns it immediately.
+     *
+     * @throws TaskRejectedException if too many jobs are already waiting
+     */
+    public IngestionJob submit() {
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString());
+        synchronized (jobs) {
+            jobs.put(job.id(), job);
+            evictFinished();
+        }
+        try {
+            jobExecutor.execute(() -> run(job));
+        } catch (TaskRejectedException e) {
+            synchronized (jobs) {
+                jobs.remove(job.id());
+            }
+            throw e;
+        }
+        log.info("Ingestion job {} queued", job.id());
+        return job;
+    }
+
+    public Optional<IngestionJob> find(String id) {
+        synchronized (jobs) {
+            return Optional.ofNullable(jobs.get(id));
+        }
+    }
+
+    /**
+     * The job if it is still in memory, otherwise the stored run.
+     */
+    public Optional<IngestionDtos.JobStatus> findRun(String id) {
+        return find(id).map(IngestionJob::toStatus).or(() -> runStore.find(id));
+    }
+
+    /**
+     * Finished runs, newest first, each with the change of its chunk tokens against the
+     * previous successful run.
+     */
+    public List<IngestionDtos.RunSummary> runs() {
+        List<IngestionDtos.JobStatus> runs = new ArrayList<>(runStore.list());
+        Set<String> stored = runs.stream().map(IngestionDtos.JobStatus::id).collect(Collectors.toSet());
+        synchronized (jobs) {
+            jobs.values().stream()
+                    .filter(j -> j.isFinished() && !stored.contains(j.id()))
+                    .forEach(j -> runs.add(j.toStatus()));
+        }
+        runs.sort(Comparator.comparing(IngestionDtos.JobStatus::finishedAt));
+
+        List<IngestionDtos.RunSummary> summaries = new ArrayList<>(runs.size());
+        Long previousTokens = null;
+        for (IngestionDtos.JobStatus run : runs) {
+            ChunkStatistics.Report stats = run.report() != null ? run.report().statistics() : null;
+            Long tokens = stats != null ? stats.tokens().total() : null;
+            Double change = tokens != null && previousTokens != null && previousTokens > 0
+                    ? 100.0 * (tokens - previousTokens) / previousTokens
+                    : null;
+            summaries.add(new IngestionDtos.RunSummary(
+                    run.id(),
+                    run.status(),
+                    run.finishedAt(),
+                    run.documentsRead(),
+                    run.chunksWritten(),
+                    tokens,
+                    stats != null ? stats.tokens().p50() : null,
+                    stats != null ? stats.tokens().p90() : null,
+                    stats != null ? stats.chars().p50() : null,
+                    change));
+            if (tokens != null && IngestionJob.Status.SUCCEEDED.name().equals(run.status())) {
+                previousTokens = tokens;
+            }
+        }
+        return summaries.reversed();
+    }
+
+    /**
+     * Requests cooperative cancellation. A queued job never starts; a running job stops at the
+     * next document boundary of every pipeline stage.
+     */
+    public Optional<IngestionJob> cancel(String id) {
+        Optional<IngestionJob> job = find(id);
+        job.filter(j -> !j.isFinished()).ifPresent(j -> {
+            log.info("Cancelling ingestion job {}", id);
+            j.requestCancel();
+        });
+        return job;
+    }
+
+    private void run(IngestionJob job) {
+        execute(job);
+        try {
+            runStore.save(job.toStatus());
+        } catch (RuntimeException e) {
+            log.warn("Could not store the report of ingestion job {}: {}", job.id(), e.getMessage());
+        }
+    }
+
+    private void execute(IngestionJob job) {
+        try {
+            // with rag.startup.deferred the vector table may still be being created
+            startupTasks.awaitCompletion(startupTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.cancelled();
+            return;
+        } catch (TimeoutException e) {
+            job.failed(e);
+            log.error("Ingestion job {} failed: {}", job.id(), e.getMessage());
+            return;
+        }
+        if (job.isCancelled()) {
+            job.cancelled();
+            return;
+        }
+        job.started();
+        try {
+            job.succeeded(corpusIngestion != null
+                    ? corpusIngestion.sync(job)
+                    : ingestionService.ingestLagtingetDocuments(job));
+            log.info("Ingestion job {} finished", job.id());
+        } catch (CancellationException e) {
+            job.cancelled();
+            log.info("Ingestion job {} cancelled", job.id());
+        } catch (RuntimeException e) {
+            job.failed(e);
+            log.error("Ingestion job {} failed", job.id(), e);
+        }
+    }
+
+    private void evictFinished() {
+        Iterator<IngestionJob> it = jobs.values().iterator();
+        while (jobs.size() > MAX_RETAINED_JOBS && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+            }
+        }
+    }
+}
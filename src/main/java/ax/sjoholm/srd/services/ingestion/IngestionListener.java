@@ -0,0 +1,37 @@
+package ax.sjoholm.srd.services.ingestion;
+
+/**
+ * Receives progress from an ingestion run and lets the caller stop it cooperatively.
+ * Callbacks are invoked from pipeline worker threads and must be thread-safe.
+ */
+public interface IngestionListener {
+
+    IngestionListener NONE = new IngestionListener() {
+    };
+
+    default void stageStarted(IngestionStage stage) {
+    }
+
+    default void documentRead() {
+    }
+
+    default void documentProcessed() {
+    }
+
+    /**
+     * A document was split into {@code count} chunks.
+     */
+    default void chunksProduced(int count) {
+    }
+
+    default void chunksWritten(int count) {
+    }
+
+    /**
+     * Polled by every pipeline stage between documents; returning {@code true} stops the run
+     * with a {@link java.util.concurrent.CancellationException}.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,260 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.springframework.ai.document.Document;
+
+import ax.sjoholm.srd.services.embedding.TokenBudgetBatchingStrategy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Staged ingestion pipeline: read → process → split → write.
+ * <p>
+ * Stages are connected by bounded queues, so a slow stage back-pressures the ones in front
+ * of it and the number of documents in flight never exceeds the queue capacities. Every stage
+ * runs its own number of workers, and the write stage hands batches to the vector store as
+ * soon as they fill up, so the first chunks are searchable while the rest is still being read.
+ * <p>
+ * Write batches are sized by the embedding {@link TokenBudgetBatchingStrategy}, so each one
+ * becomes a single embedding request; the number of write workers is the number of embedding
+ * requests in flight.
+ * <p>
+ * Chunk lengths, sections and write throughput are accumulated into {@link ChunkStatistics}
+ * as the chunks pass through, so the report needs no second walk over them.
+ */
+@Slf4j
+final class IngestionPipeline {
+
+    record Settings(int queueCapacity, int processWorkers, int splitWorkers, int writeWorkers) {
+    }
+
+    record Result(long docsRead, long docsKept, long chunksProduced, long chunksWritten) {
+    }
+
+    private final Settings settings;
+    private final TokenBudgetBatchingStrategy batching;
+    private final Function<Document, List<Document>> processor;
+    private final Function<Document, List<Document>> splitter;
+    private final Consumer<List<Document>> writer;
+    private final IngestionListener listener;
+    private final ChunkStatistics statistics;
+
+    private final LongAdder docsRead = new LongAdder();
+    private final LongAdder docsKept = new LongAdder();
+    private final LongAdder chunksProduced = new LongAdder();
+    private final LongAdder chunksWritten = new LongAdder();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    IngestionPipeline(Settings settings,
+            TokenBudgetBatchingStrategy batching,
+            Function<Document, List<Document>> processor,
+            Function<Document, List<Document>> splitter,
+            Consumer<List<Document>> writer,
+            IngestionListener listener,
+            ChunkStatistics statistics) {
+        this.settings = settings;
+        this.batching = batching;
+        this.processor = processor;
+        this.splitter = splitter;
+        this.writer = writer;
+        this.listener = listener;
+        this.statistics = statistics;
+    }
+
+    Result run(Consumer<Consumer<Document>> source) {
+        BlockingQueue<Item> toProcess = new ArrayBlockingQueue<>(settings.queueCapacity());
+        BlockingQueue<Item> toSplit = new ArrayBlockingQueue<>(settings.queueCapacity());
+        BlockingQueue<Item> toWrite = new ArrayBlockingQueue<>(settings.queueCapacity());
+
+        ExecutorService threads = Executors.newThreadPerTaskExecutor(
+                Thread.ofPlatform().name("ingest-pipeline-", 0).factory());
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            listener.stageStarted(IngestionStage.READING);
+            tasks.add(threads.submit(guarded(threads, "read", () -> {
+                source.accept(doc -> {
+                    checkCancelled();
+                    docsRead.increment();
+                    listener.documentRead();
+                    put(toProcess, new Item(doc));
+                });
+                listener.stageStarted(IngestionStage.PROCESSING);
+                endOfStream(toProcess, settings.processWorkers());
+            })));
+
+            AtomicInteger processing = new AtomicInteger(settings.processWorkers());
+            for (int i = 0; i < settings.processWorkers(); i++) {
+                tasks.add(threads.submit(guarded(threads, "process-" + i,
+                        () -> transform(toProcess, processing, IngestionStage.SPLITTING, toSplit,
+                                settings.splitWorkers(), doc -> {
+                            List<Document> kept = processor.apply(doc);
+                            docsKept.add(kept.size());
+                            listener.documentProcessed();
+                            return kept;
+                        }))));
+            }
+
+            AtomicInteger splitting = new AtomicInteger(settings.splitWorkers());
+            for (int i = 0; i < settings.splitWorkers(); i++) {
+                tasks.add(threads.submit(guarded(threads, "split-" + i,
+                        () -> transform(toSplit, splitting, IngestionStage.WRITING, toWrite,
+                                settings.writeWorkers(), doc -> {
+                            List<Document> chunks = splitter.apply(doc);
+                            chunksProduced.add(chunks.size());
+                            statistics.documentSplit(doc, chunks);
+                            listener.chunksProduced(chunks.size());
+                            return chunks;
+                        }))));
+            }
+
+            for (int i = 0; i < settings.writeWorkers(); i++) {
+                tasks.add(threads.submit(guarded(threads, "write-" + i, () -> write(toWrite))));
+            }
+
+            for (Future<?> task : tasks) {
+                await(task);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        Throwable t = failure.get();
+        if (t != null) {
+            if (t instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException("Ingestion pipeline failed", t);
+        }
+
+        return new Result(docsRead.sum(), docsKept.sum(), chunksProduced.sum(), chunksWritten.sum());
+    }
+
+    private void transform(BlockingQueue<Item> in, AtomicInteger activeWorkers, IngestionStage nextStage,
+            BlockingQueue<Item> out, int downstreamWorkers, Function<Document, List<Document>> step)
+            throws InterruptedException {
+        while (true) {
+            Item item = in.take();
+            if (item == Item.END) {
+                if (activeWorkers.decrementAndGet() == 0) {
+                    listener.stageStarted(nextStage);
+                    endOfStream(out, downstreamWorkers);
+                }
+                return;
+            }
+            checkCancelled();
+            for (Document result : step.apply(item.document())) {
+                out.put(new Item(result));
+            }
+        }
+    }
+
+    private void write(BlockingQueue<Item> in) throws InterruptedException {
+        List<Document> batch = new ArrayList<>();
+        int batchTokens = 0;
+        while (true) {
+            Item item = in.take();
+            if (item == Item.END) {
+                flush(batch, batchTokens);
+                return;
+            }
+            checkCancelled();
+            int tokens = batching.tokens(item.document());
+            if (!batch.isEmpty() && !batching.fits(batch.size(), batchTokens, tokens)) {
+                flush(batch, batchTokens);
+                batch = new ArrayList<>();
+                batchTokens = 0;
+            }
+            batch.add(item.document());
+            batchTokens += tokens;
+        }
+    }
+
+    private void flush(List<Document> batch, int batchTokens) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        writer.accept(batch);
+        long nanos = System.nanoTime() - start;
+        statistics.batchWritten(batch, nanos);
+        long millis = nanos / 1_000_000;
+        chunksWritten.add(batch.size());
+        listener.chunksWritten(batch.size());
+        log.info("Embedded and wrote batch of {} chunks (~{} tokens) in {} ms ({} chunks total)",
+                batch.size(), batchTokens, millis, chunksWritten.sum());
+    }
+
+    private void checkCancelled() {
+        if (listener.isCancelled()) {
+            throw new CancellationException("Ingestion was cancelled");
+        }
+    }
+
+    private Runnable guarded(ExecutorService threads, String stage, Task task) {
+        return () -> {
+            Thread.currentThread().setName("ingest-" + stage);
+            try {
+                task.run();
+            } catch (Throwable t) {
+                if (failure.compareAndSet(null, t)) {
+                    if (t instanceof CancellationException) {
+                        log.info("Ingestion stage {} stopped: {}", stage, t.getMessage());
+                    } else {
+                        log.error("Ingestion stage {} failed", stage, t);
+                    }
+                    // unblock every other stage; they see an interrupt on their next queue operation
+                    threads.shutdownNow();
+                }
+            }
+        };
+    }
+
+    private void await(Future<?> task) {
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (ExecutionException | CancellationException ignored) {
+            // failures are recorded by the stage itself
+        }
+    }
+
+    private static void endOfStream(BlockingQueue<Item> queue, int workers) throws InterruptedException {
+        for (int i = 0; i < workers; i++) {
+            queue.put(Item.END);
+        }
+    }
+
+    private static void put(BlockingQueue<Item> queue, Item item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Ingestion pipeline was stopped");
+        }
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private record Item(Document document) {
+        static final Item END = new Item(null);
+    }
+}
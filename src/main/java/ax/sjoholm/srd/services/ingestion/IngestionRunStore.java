@@ -0,0 +1,111 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finished ingestion jobs, one JSON file per run named {@code <finished millis>-<id>.json}, so
+ * that reports and their chunk statistics outlive the in-memory job list and a restart. Only
+ * the newest {@code retained} runs are kept. Run ids are restricted to letters, digits and
+ * dashes, so an id never names a file outside the directory.
+ */
+@Slf4j
+public final class IngestionRunStore {
+
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9-]+");
+    private static final String SUFFIX = ".json";
+
+    private final Path directory;
+    private final int retained;
+    private final ObjectMapper objectMapper;
+
+    public IngestionRunStore(Path directory, int retained, ObjectMapper objectMapper) {
+        this.directory = directory;
+        this.retained = retained;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Writes the run to a temporary file and moves it into place, then removes the oldest runs
+     * beyond the retention.
+     */
+    public synchronized void save(IngestionDtos.JobStatus run) {
+        if (!ID.matcher(run.id()).matches()) {
+            throw new IllegalArgumentException("Invalid ingestion run id " + run.id());
+        }
+        if (retained == 0) {
+            return;
+        }
+        long finished = run.finishedAt() != null ? run.finishedAt().toEpochMilli() : System.currentTimeMillis();
+        Path file = directory.resolve(finished + "-" + run.id() + SUFFIX);
+        try {
+            Files.createDirectories(directory);
+            Path tmp = Files.createTempFile(directory, run.id(), ".tmp");
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), run);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            List<Path> files = files();
+            for (Path old : files.subList(Math.min(retained, files.size()), files.size())) {
+                Files.deleteIfExists(old);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed writing ingestion run " + file, e);
+        }
+    }
+
+    public synchronized Optional<IngestionDtos.JobStatus> find(String id) {
+        if (!ID.matcher(id).matches()) {
+            return Optional.empty();
+        }
+        return files().stream()
+                .filter(f -> f.getFileName().toString().endsWith("-" + id + SUFFIX))
+                .findFirst()
+                .flatMap(this::read);
+    }
+
+    /**
+     * The stored runs, newest first.
+     */
+    public synchronized List<IngestionDtos.JobStatus> list() {
+        List<IngestionDtos.JobStatus> runs = new ArrayList<>();
+        for (Path file : files()) {
+            read(file).ifPresent(runs::add);
+        }
+        return runs;
+    }
+
+    private Optional<IngestionDtos.JobStatus> read(Path file) {
+        try {
+            return Optional.of(objectMapper.readValue(file.toFile(), IngestionDtos.JobStatus.class));
+        } catch (IOException e) {
+            log.warn("Skipping unreadable ingestion run {}: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    // file names start with the finish time, so sorting them by name orders the runs
+    private List<Path> files() {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> s = Files.list(directory)) {
+            return s.filter(f -> f.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing((Path f) -> f.getFileName().toString()).reversed())
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed listing ingestion runs in " + directory, e);
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package ax.sjoholm.srd.services.ingestion;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.springframework.ai.document.Document;
 import org.springframework.ai.document.DocumentReader;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 
 import ax.sjoholm.srd.configuration.ApplicationConfiguration.MyTokenTextSplitter;
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.embedding.TokenBudgetBatchingStrategy;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+import ax.sjoholm.srd.services.vectorstore.VectorTableGenerations;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -20,41 +33,214 @@ public class IngestionService {
     private final MyTokenTextSplitter splitter;
     private final DocumentProcessor processor;
     private final VectorStore vectorStore;
+    private final IngestionGeneration generation;
+    private final RagProperties props;
+    private final TokenBudgetBatchingStrategy embeddingBatching;
+    private final RagMetrics metrics;
+    private final ObjectProvider<VectorTableGenerations> generations;
 
     public record IngestionReport(
             int docsRead,
             int docsKept,
             int chunksProduced,
             int chunksKept,
-            long chunksLt50,
-            long chunksLt200,
-            long chunksLt500) {
+            ChunkStatistics.Report statistics,
+            CorpusChanges files) {
+
+        IngestionReport withFiles(CorpusChanges files) {
+            return new IngestionReport(docsRead, docsKept, chunksProduced, chunksKept, statistics, files);
+        }
+    }
+
+    /**
+     * Files of a corpus directory run, by what happened to them; {@code null} in the report
+     * when the single classpath document was ingested.
+     */
+    public record CorpusChanges(List<String> added, List<String> changed, List<String> removed, int unchanged) {
     }
 
     public IngestionReport ingestLagtingetDocuments() {
-        log.info("Starting ingestion…");
+        return ingestLagtingetDocuments(IngestionListener.NONE);
+    }
+
+    /**
+     * Ingests every document of the reader. With blue/green reindexing the chunks go into a new
+     * shadow generation of the vector table, which is indexed and switched to once the run is
+     * complete; queries keep reading the previous generation until then, and a failed or
+     * cancelled run leaves it untouched.
+     */
+    public IngestionReport ingestLagtingetDocuments(IngestionListener progress) {
+        VectorTableGenerations tables = generations.getIfAvailable();
+        if (tables == null) {
+            return ingest(source(), progress, vectorStore, null);
+        }
+        VectorTableGenerations.Generation shadow = tables.createShadow();
+        try {
+            return ingest(source(), progress, shadow.store(), () -> tables.activate(shadow));
+        } catch (RuntimeException e) {
+            tables.discard(shadow);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the pipeline over the documents {@code source} passes to its sink; {@code source}
+     * may call the sink from several threads. The optional {@code finalizer} runs after every
+     * chunk has been written and before the run is reported as done, and may modify the store.
+     */
+    IngestionReport ingest(Consumer<Consumer<Document>> source, IngestionListener progress, Runnable finalizer) {
+        return ingest(source, progress, vectorStore, finalizer);
+    }
 
-        List<Document> docs = reader.get();
-        log.info("Extracted {} documents", docs.size());
+    private IngestionReport ingest(Consumer<Consumer<Document>> source, IngestionListener progress,
+            VectorStore target, Runnable finalizer) {
+        log.info("Starting ingestion…");
 
-        List<Document> processedDocs = processor.process(docs);
-        log.info("Processed {} documents", processedDocs.size());
+        long startedAt = System.nanoTime();
+        var statistics = new ChunkStatistics();
+        IngestionListener listener = new StageTimingListener(progress, metrics, statistics, startedAt);
+        Timer processTimer = metrics.ingestionStep("process");
+        Timer splitTimer = metrics.ingestionStep("split");
+        Timer writeTimer = metrics.ingestionStep("write");
+        AtomicBoolean storeChanged = new AtomicBoolean();
+        var pipelineProps = props.ingestion();
+        var pipeline = new IngestionPipeline(
+                new IngestionPipeline.Settings(
+                        pipelineProps.queueCapacity(),
+                        pipelineProps.processWorkers(),
+                        pipelineProps.splitWorkers(),
+                        props.embedding().concurrency()),
+                embeddingBatching,
+                doc -> processTimer.record(() -> processor.process(doc).map(List::of).orElseGet(List::of)),
+                doc -> splitTimer.record(() -> numbered(splitter.splitCustomized(List.of(doc)))),
+                batch -> {
+                    storeChanged.set(true);
+                    writeTimer.record(() -> target.add(batch));
+                },
+                listener,
+                statistics);
 
-        List<Document> chunks = splitter.splitCustomized(processedDocs);
-        log.info("Split into {} chunks", chunks.size());
+        IngestionPipeline.Result result;
+        try {
+            result = pipeline.run(source);
+            listener.stageStarted(IngestionStage.FINALIZING);
+            if (finalizer != null) {
+                storeChanged.set(true);
+                finalizer.run();
+            }
+        } finally {
+            // a failed or cancelled run may still have written chunks, which makes cached answers stale too
+            if (storeChanged.get()) {
+                generation.advance();
+            }
+        }
 
-        long lt50 = chunks.stream().filter(d -> d.getText().length() < 50).count();
-        long lt200 = chunks.stream().filter(d -> d.getText().length() < 200).count();
-        long lt500 = chunks.stream().filter(d -> d.getText().length() < 500).count();
+        log.info("Ingestion done. readDocs={} keptDocs={} keptChunks={} generation={}",
+                result.docsRead(), result.docsKept(), result.chunksWritten(), generation.current());
+        listener.stageStarted(IngestionStage.DONE);
 
-        vectorStore.add(chunks);
-        log.info("Ingestion done. keptDocs={} keptChunks={}", processedDocs.size(), chunks.size());
+        ChunkStatistics.Report stats = statistics.report(result.docsRead(),
+                Duration.ofNanos(System.nanoTime() - startedAt));
+        log.info("Chunk lengths: chars p50={} p90={} max={}, tokens p50={} p90={} max={} total={}; "
+                        + "merged sections={} subchunked sections={}",
+                stats.chars().p50(), stats.chars().p90(), stats.chars().max(),
+                stats.tokens().p50(), stats.tokens().p90(), stats.tokens().max(), stats.tokens().total(),
+                stats.sections().merged(), stats.sections().subchunked());
 
         return new IngestionReport(
-                docs.size(),
-                processedDocs.size(),
-                chunks.size(),
-                chunks.size(),
-                lt50, lt200, lt500);
+                (int) result.docsRead(),
+                (int) result.docsKept(),
+                (int) result.chunksProduced(),
+                (int) result.chunksWritten(),
+                stats,
+                null);
+    }
+
+    /**
+     * Adds the position of each chunk within its section ({@code chunk_index}) and its token
+     * count ({@code token_count}), which the chat context packer uses to stitch neighbouring
+     * chunks together and to fill its token budget without re-tokenizing. The count is that of
+     * the embedded content, metadata included; it is the only time a chunk is tokenized, the
+     * pipeline and the vector store batch by it.
+     */
+    private List<Document> numbered(List<Document> chunks) {
+        List<Document> out = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Document chunk = chunks.get(i);
+            Map<String, Object> metadata = new HashMap<>(chunk.getMetadata());
+            metadata.put("chunk_index", i);
+            int tokens = embeddingBatching.tokens(new Document(chunk.getId(), chunk.getText(), metadata));
+            metadata.put(TokenBudgetBatchingStrategy.TOKEN_COUNT, tokens);
+            out.add(new Document(chunk.getId(), chunk.getText(), metadata));
+        }
+        return out;
+    }
+
+    private Consumer<Consumer<Document>> source() {
+        if (reader instanceof StreamingDocumentReader streaming) {
+            return streaming::read;
+        }
+        return sink -> reader.get().forEach(sink);
+    }
+
+    /**
+     * Records {@code rag.ingestion.stage} and the stage times of the report: stages start in a
+     * fixed order and each one starts once the previous one has drained, so the time from the
+     * start of the run to the next stage event is how long the previous stage took to finish.
+     */
+    private static final class StageTimingListener implements IngestionListener {
+
+        private final IngestionListener delegate;
+        private final RagMetrics metrics;
+        private final ChunkStatistics statistics;
+        private final long startedAt;
+        private IngestionStage current;
+
+        StageTimingListener(IngestionListener delegate, RagMetrics metrics, ChunkStatistics statistics,
+                long startedAt) {
+            this.delegate = delegate;
+            this.metrics = metrics;
+            this.statistics = statistics;
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public void stageStarted(IngestionStage stage) {
+            synchronized (this) {
+                if (current != null) {
+                    String name = current.name().toLowerCase(Locale.ROOT);
+                    long nanos = System.nanoTime() - startedAt;
+                    metrics.ingestionStage(name, nanos);
+                    statistics.stageDrained(name, nanos);
+                }
+                current = stage;
+            }
+            delegate.stageStarted(stage);
+        }
+
+        @Override
+        public void documentRead() {
+            delegate.documentRead();
+        }
+
+        @Override
+        public void documentProcessed() {
+            delegate.documentProcessed();
+        }
+
+        @Override
+        public void chunksProduced(int count) {
+            delegate.chunksProduced(count);
+        }
+
+        @Override
+        public void chunksWritten(int count) {
+            delegate.chunksWritten(count);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return delegate.isCancelled();
+        }
     }
-}
\ No newline at end of file
+}
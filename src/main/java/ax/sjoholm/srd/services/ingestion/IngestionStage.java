@@ -0,0 +1,15 @@
+package ax.sjoholm.srd.services.ingestion;
+
+/**
+ * Stages of an ingestion run. Pipeline stages overlap, so the reported stage is the earliest
+ * one that is still running.
+ */
+public enum IngestionStage {
+    PENDING,
+    READING,
+    PROCESSING,
+    SPLITTING,
+    WRITING,
+    FINALIZING,
+    DONE
+}
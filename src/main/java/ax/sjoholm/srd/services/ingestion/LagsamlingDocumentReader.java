@@ -1,33 +1,60 @@
 package ax.sjoholm.srd.services.ingestion;
 
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.text.PDFTextStripperByArea;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.document.DocumentReader;
 import org.springframework.core.io.Resource;
 
+import lombok.extern.slf4j.Slf4j;
+
 import java.awt.geom.Rectangle2D;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.function.Function;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * A custom document reader that is aware of the layout of the Åland Lagsamling
  * PDF documents.
  * It produces documents segmented by law code, merging pages that belong to the
  * same law.
+ * <p>
+ * When an executor is given, pages are extracted in parallel: the page list is split into
+ * contiguous ranges, each range is processed with one of {@code parallelism} private
+ * {@link PDDocument} handles (PDFBox documents are not thread-safe), and the ranges are
+ * consumed in page order as they complete. Only {@code parallelism} ranges are in flight, so
+ * a reader held back by the pipeline holds back extraction too; when reading stops early,
+ * ranges that have not started are dropped and running ones stop at their next page.
+ * <p>
+ * The PDF is read from disk with random access rather than loaded into memory; resources
+ * that are not files are first copied to a temporary file.
+ * <p>
+ * Pages are merged into laws by a {@link LawDocumentAssembler}, and each law is segmented as
+ * soon as its last page has been read, while later pages are still being extracted.
  */
-public class LagsamlingDocumentReader implements DocumentReader {
+@Slf4j
+public class LagsamlingDocumentReader implements StreamingDocumentReader {
 
     private static final Pattern PAGE_SUB_HEADER_PATTERN = Pattern.compile(
             "(?s)\\A\\s*([\\p{L}]\\s*\\d{1,2})\\b\\s*(.*?)(?=\\R\\s*1\\s*kap\\.?\\b)", Pattern.DOTALL);
@@ -46,48 +73,222 @@ public class LagsamlingDocumentReader implements DocumentReader {
     private static final Rectangle2D PAGE_SUB_HEADER_REGION = new Rectangle2D.Float(1f, 35f, 480f, 10f);
     private static final Rectangle2D HEADER_PAGE_REGION = new Rectangle2D.Float(1f, 130f, 480f, 30f);
 
+    // Ranges per worker; more than one so that uneven pages do not leave workers idle
+    private static final int RANGES_PER_WORKER = 4;
+    // ...but small enough that the ranges in flight stay a working set, not a share of the volume
+    private static final int MAX_PAGES_PER_RANGE = 8;
+
     private final Resource resource;
+    private final Executor executor;
+    private final int parallelism;
     private final SectionSegmenter sectionSegmenter = new SectionSegmenter();
 
     public LagsamlingDocumentReader(final Resource resource) {
+        this(resource, null, 1);
+    }
+
+    public LagsamlingDocumentReader(final Resource resource, final Executor executor, final int parallelism) {
         this.resource = Objects.requireNonNull(resource, "resource");
+        this.executor = executor;
+        this.parallelism = executor == null ? 1 : Math.max(1, parallelism);
     }
 
     @Override
-    public List<Document> get() {
-        try (InputStream is = resource.getInputStream();
-                PDDocument pdf = Loader.loadPDF(is.readAllBytes())) {
+    public void read(Consumer<Document> sink) {
+        Path spooled = null;
+        try {
+            File pdfFile;
+            if (resource.isFile()) {
+                pdfFile = resource.getFile();
+            } else {
+                spooled = spool(resource);
+                pdfFile = spooled.toFile();
+            }
+
+            var laws = new LawDocumentAssembler(law ->
+                    sectionSegmenter.splitIntoSections(law).stream().map(d -> withHeader(d)).forEach(sink));
+            if (parallelism > 1) {
+                extractPagesInParallel(pdfFile, laws);
+            } else {
+                extractPages(pdfFile, laws);
+            }
+            laws.finish();
 
-            List<DocumentText> pageTexts = new ArrayList<>(pdf.getNumberOfPages());
+        } catch (IOException | UncheckedIOException e) {
+            throw new IllegalStateException("Failed reading PDF: " + resource, e);
+        } finally {
+            if (spooled != null) {
+                deleteQuietly(spooled);
+            }
+        }
+    }
+
+    /**
+     * Opens the PDF through a buffered random-access file reader ({@code Loader.loadPDF(File)}
+     * uses {@code RandomAccessReadBufferedFile}) instead of an in-memory copy,
+     * with PDFBox scratch buffers (decoded streams) in temporary files rather than on the heap.
+     * Only the pages being extracted are held in memory, whatever the size of the volume.
+     */
+    private static PDDocument open(File pdfFile) throws IOException {
+        return Loader.loadPDF(pdfFile, IOUtils.createTempFileOnlyStreamCache());
+    }
+
+    /**
+     * Copies a resource that is not a plain file (a classpath entry inside the jar, a URL) to
+     * a temporary file, so it can be opened for random access like any other file.
+     */
+    private static Path spool(Resource resource) throws IOException {
+        Path tmp = Files.createTempFile("lagsamling-", ".pdf");
+        try (InputStream in = resource.getInputStream()) {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(tmp);
+            throw e;
+        }
+        return tmp;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete temporary file {}", path, e);
+        }
+    }
+
+    private void extractPages(File pdfFile, Consumer<DocumentText> pages) throws IOException {
+        try (PDDocument pdf = open(pdfFile)) {
             for (int i = 0; i < pdf.getNumberOfPages(); i++) {
-                PDPage page = pdf.getPage(i);
-                DocumentText text = extractPageText(page);
-                pageTexts.add(text);
+                pages.accept(extractPageText(pdf.getPage(i)));
             }
+        }
+    }
 
-            return sectionSegmenter.splitIntoSections(mergePagesByLawCode(pageTexts)).stream().map(d -> withHeader(d))
-                    .toList();
+    private void extractPagesInParallel(File pdfFile, Consumer<DocumentText> pages) throws IOException {
+        BlockingQueue<PDDocument> handles = new ArrayBlockingQueue<>(parallelism);
+        Deque<PageRange> inFlight = new ArrayDeque<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+        try {
+            PDDocument first = open(pdfFile);
+            handles.add(first);
+            int pageCount = first.getNumberOfPages();
+            int workers = Math.min(parallelism, Math.max(1, pageCount));
+            for (int i = 1; i < workers; i++) {
+                handles.add(open(pdfFile));
+            }
 
+            // one range per worker in flight: the next is submitted as the oldest is consumed, so
+            // extraction runs at most that far ahead of a reader blocked by the pipeline
+            int rangeSize = Math.clamp((long) Math.ceil((double) pageCount / (workers * RANGES_PER_WORKER)), 1,
+                    MAX_PAGES_PER_RANGE);
+            int next = 0;
+            while (next < pageCount || !inFlight.isEmpty()) {
+                while (next < pageCount && inFlight.size() < workers) {
+                    PageRange range = new PageRange(next, Math.min(pageCount, next + rangeSize));
+                    inFlight.addLast(range);
+                    executor.execute(() -> range.run(handles, stopped));
+                    next = range.to;
+                }
+                awaitRange(inFlight.peekFirst()).forEach(pages);
+                inFlight.removeFirst();
+            }
+        } finally {
+            // ranges not started yet never run; running ones stop at their next page and are
+            // waited for, so that they hand their documents back before they are closed
+            stopped.set(true);
+            for (PageRange range : inFlight) {
+                if (!range.cancel()) {
+                    range.result.handle((r, t) -> null).join();
+                }
+            }
+            for (PDDocument handle : handles) {
+                handle.close();
+            }
+        }
+    }
+
+    private List<DocumentText> awaitRange(PageRange range) throws IOException {
+        try {
+            return range.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting pages " + range.from + ".." + range.to, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException("Failed extracting pages: " + resource, e.getCause());
+        }
+    }
+
+    private List<DocumentText> extractWithHandle(BlockingQueue<PDDocument> handles, int from, int to,
+            AtomicBoolean stopped) {
+        PDDocument pdf = null;
+        try {
+            pdf = handles.take();
+            return extractPageRange(pdf, from, to, stopped);
         } catch (IOException e) {
-            throw new IllegalStateException("Failed reading PDF: " + resource, e);
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while extracting pages " + from + ".." + to, e);
+        } finally {
+            if (pdf != null) {
+                handles.add(pdf);
+            }
         }
     }
 
-    private List<Document> mergePagesByLawCode(List<DocumentText> pageTexts) {
-        return pageTexts.stream()
-                .collect(Collectors.toMap(
-                        DocumentText::lawCode,
-                        Function.identity(),
-                        (a, b) -> new DocumentText(
-                                a.text() + "\n" + b.text(),
-                                a.lawCode(),
-                                a.lawName()),
-                        LinkedHashMap::new))
-                .values().stream()
-                .map(dt -> new Document(dt.text(), Map.of(
-                        "law_code", dt.lawCode(),
-                        "law_name", dt.lawName())))
-                .collect(Collectors.toList());
+    private List<DocumentText> extractPageRange(PDDocument pdf, int from, int to, AtomicBoolean stopped)
+            throws IOException {
+        List<DocumentText> pageTexts = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            if (stopped.get() || Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Page extraction stopped at page " + i);
+            }
+            PDPage page = pdf.getPage(i);
+            DocumentText text = extractPageText(page);
+            pageTexts.add(text);
+        }
+        return pageTexts;
+    }
+
+    /**
+     * A range of pages extracted by one task. Whoever claims it first, the task or
+     * {@link #cancel}, decides whether it runs.
+     */
+    private final class PageRange {
+
+        final int from;
+        final int to;
+        final CompletableFuture<List<DocumentText>> result = new CompletableFuture<>();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        PageRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void run(BlockingQueue<PDDocument> handles, AtomicBoolean stopped) {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                result.complete(extractWithHandle(handles, from, to, stopped));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+
+        /**
+         * @return whether the range had not started and now never will
+         */
+        boolean cancel() {
+            return claimed.compareAndSet(false, true);
+        }
     }
 
     private DocumentText extractPageText(PDPage page) throws IOException {
@@ -136,7 +337,7 @@ public class LagsamlingDocumentReader implements DocumentReader {
                 lawName != null ? lawName : "");
     }
 
-    private String mergeColumns(String leftText, String rightText) {
+    static String mergeColumns(String leftText, String rightText) {
         StringBuilder merged = new StringBuilder();
         if (leftText != null && !leftText.isBlank()) {
             merged.append(leftText.trim());
@@ -158,24 +359,12 @@ public class LagsamlingDocumentReader implements DocumentReader {
         return stripper;
     }
 
-    private String normalize(String text) {
-        if (text == null) {
-            return "";
-        }
-
-        String normalized = text.replace("\r\n", "\n").replace('\r', '\n');
-
-        // Remove control chars except newline/tab
-        normalized = normalized.replaceAll("[\\p{Cc}&&[^\\n\\t]]", "");
-
-        // De-hyphenate across line breaks: "tillämp-\nning" -> "tillämpning"
-        normalized = normalized.replaceAll("-\\s*\\n\\s*(?=\\p{L})", "");
-
-        // Collapse extreme whitespace runs from PDF extraction
-        normalized = normalized.replaceAll("[\\t ]{2,}", " ");
-        normalized = normalized.replaceAll("\\n{3,}", "\n\n");
-
-        return normalized.trim();
+    /**
+     * Folds line endings, strips control characters, joins words hyphenated across line breaks
+     * ("tillämp-\nning" -> "tillämpning") and collapses the whitespace runs left by PDF extraction.
+     */
+    static String normalize(String text) {
+        return TextNormalizer.EXTRACTED_TEXT.normalize(text);
     }
 
     static Document withHeader(Document d) {
@@ -190,6 +379,6 @@ public class LagsamlingDocumentReader implements DocumentReader {
     }
     private record TwoColumnPageConfig(Rectangle2D leftColumn, Rectangle2D rightColumn) {
     }
-    private record DocumentText(String text, String lawCode, String lawName) {
+    public record DocumentText(String text, String lawCode, String lawName) {
     }
 }
@@ -0,0 +1,66 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.springframework.ai.document.Document;
+
+import ax.sjoholm.srd.services.ingestion.LagsamlingDocumentReader.DocumentText;
+
+/**
+ * Assembles law documents from pages as they are extracted. Consecutive pages with the same
+ * law code are appended to one buffer, and the finished law is handed to the sink as soon as
+ * a page with another law code arrives, so it can be segmented while later pages are still
+ * being extracted.
+ * <p>
+ * Laws are laid out contiguously in the Lagsamling. A law code that comes back after another
+ * one starts a new document. A page without a recognised header (empty law code) continues the
+ * law being assembled.
+ */
+public final class LawDocumentAssembler implements Consumer<DocumentText> {
+
+    private final Consumer<Document> sink;
+    private final StringBuilder text = new StringBuilder();
+    private String lawCode;
+    private String lawName;
+
+    public LawDocumentAssembler(Consumer<Document> sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void accept(DocumentText page) {
+        if (lawCode != null && !page.lawCode().isEmpty() && !lawCode.equals(page.lawCode())) {
+            emit();
+        }
+        if (lawCode == null) {
+            lawCode = page.lawCode();
+            lawName = page.lawName();
+        } else {
+            text.append('\n');
+            if (lawName.isEmpty()) {
+                lawName = page.lawName();
+            }
+        }
+        text.append(page.text());
+    }
+
+    /**
+     * Emits the law that is still being assembled; call once after the last page.
+     */
+    public void finish() {
+        if (lawCode != null) {
+            emit();
+        }
+    }
+
+    private void emit() {
+        Document law = new Document(text.toString(), Map.of(
+                "law_code", lawCode,
+                "law_name", lawName));
+        text.setLength(0);
+        lawCode = null;
+        lawName = null;
+        sink.accept(law);
+    }
+}
@@ -144,16 +144,8 @@ public class SectionSegmenter {
   // --- helpers ---
 
   private List<String> lines(String text) {
-    String t = text.replace("\r\n", "\n").replace('\r', '\n');
-    // collapse crazy whitespace but keep newlines
-    t = t.replaceAll("[\\t ]{2,}", " ");
-    String[] arr = t.split("\n");
-    List<String> out = new ArrayList<>(arr.length);
-    for (String s : arr) {
-      // keep empty lines only if you want paragraph breaks. Here we keep them lightly.
-      out.add(s.trim());
-    }
-    return out;
+    // collapse crazy whitespace but keep newlines; every line is trimmed
+    return TextNormalizer.trimmedLines(text);
   }
 
   private String normalizeSpaces(String s) {
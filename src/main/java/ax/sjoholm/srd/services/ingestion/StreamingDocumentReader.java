@@ -0,0 +1,27 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentReader;
+
+/**
+ * A {@link DocumentReader} that can hand documents to a consumer as soon as they are read,
+ * instead of returning them all at once.
+ */
+public interface StreamingDocumentReader extends DocumentReader {
+
+    /**
+     * Reads all documents, passing each one to {@code sink} in reading order.
+     */
+    void read(Consumer<Document> sink);
+
+    @Override
+    default List<Document> get() {
+        List<Document> documents = new ArrayList<>();
+        read(documents::add);
+        return documents;
+    }
+}
@@ -0,0 +1,217 @@
+package ax.sjoholm.srd.services.ingestion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Whitespace and line-ending normalization for ingested text, done in one scan of the input
+ * into a per-thread buffer instead of a chain of {@code replace}/{@code replaceAll} calls that
+ * each copy the whole document.
+ * <p>
+ * The output is the same as the regex pipeline it replaces, applied in this order:
+ * <ol>
+ *   <li>{@code \r\n} and {@code \r} become {@code \n}</li>
+ *   <li>control characters other than {@code \n} and {@code \t} are removed ({@link #EXTRACTED_TEXT} only)</li>
+ *   <li>{@code -\s*\n\s*(?=\p{L})} is removed, joining words hyphenated across lines ({@link #EXTRACTED_TEXT} only)</li>
+ *   <li>{@code [\t ]{2,}} becomes a single space</li>
+ *   <li>{@code \n{3,}} becomes {@code \n\n}</li>
+ *   <li>{@link String#trim()} ({@link #EXTRACTED_TEXT} only)</li>
+ * </ol>
+ */
+public final class TextNormalizer {
+
+    /** Raw text from the PDF reader: all steps. */
+    public static final TextNormalizer EXTRACTED_TEXT = new TextNormalizer(true);
+
+    /** Already cleaned text: line endings and whitespace runs only, not trimmed. */
+    public static final TextNormalizer WHITESPACE = new TextNormalizer(false);
+
+    // a whole law is a few hundred thousand chars; don't keep buffers for outliers around
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(8192));
+
+    private final boolean cleanExtracted;
+
+    private TextNormalizer(boolean cleanExtracted) {
+        this.cleanExtracted = cleanExtracted;
+    }
+
+    public String normalize(CharSequence text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder out = buffer();
+        int blankRun = 0;
+        int newlineRun = 0;
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i++);
+            if (c == '\r') {
+                if (i < n && text.charAt(i) == '\n') {
+                    i++;
+                }
+                c = '\n';
+            } else if (cleanExtracted && isRemovedControl(c)) {
+                continue;
+            } else if (cleanExtracted && c == '-') {
+                int next = hyphenationEnd(text, i);
+                if (next > i) {
+                    i = next;
+                    blankRun = 0;
+                    newlineRun = 0;
+                    continue;
+                }
+            }
+
+            if (c == ' ' || c == '\t') {
+                newlineRun = 0;
+                if (blankRun == 0) {
+                    out.append(c);
+                } else if (blankRun == 1) {
+                    out.setCharAt(out.length() - 1, ' ');
+                }
+                blankRun++;
+            } else if (c == '\n') {
+                blankRun = 0;
+                if (newlineRun < 2) {
+                    out.append(c);
+                }
+                newlineRun++;
+            } else {
+                blankRun = 0;
+                newlineRun = 0;
+                out.append(c);
+            }
+        }
+        return cleanExtracted ? trimmed(out) : out.toString();
+    }
+
+    /**
+     * Splits on {@code \r\n}, {@code \r} and {@code \n}, keeping trailing empty lines, like
+     * {@code text.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1)}.
+     */
+    public static List<String> lines(CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        int n = text.length();
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                lines.add(text.subSequence(start, i).toString());
+                if (c == '\r' && i + 1 < n && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        lines.add(text.subSequence(start, n).toString());
+        return lines;
+    }
+
+    /**
+     * Lines with runs of two or more spaces and tabs collapsed to one space and each line
+     * trimmed. Same result as splitting {@link #WHITESPACE}-normalized text with
+     * {@code split("\n")}, which also drops trailing empty lines, and trimming each line.
+     */
+    public static List<String> trimmedLines(CharSequence text) {
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = buffer();
+        int n = text.length();
+        int start = 0;
+        int trailingEmpty = 0;
+        boolean separated = false;
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? text.charAt(i) : '\n';
+            if (c != '\n' && c != '\r') {
+                continue;
+            }
+            trailingEmpty = i == start ? trailingEmpty + 1 : 0;
+            lines.add(collapsedTrimmed(text, start, i, line));
+            if (i < n) {
+                separated = true;
+                if (c == '\r' && i + 1 < n && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            }
+            start = i + 1;
+        }
+        if (!separated) {
+            return lines;
+        }
+        return new ArrayList<>(lines.subList(0, lines.size() - trailingEmpty));
+    }
+
+    private static String collapsedTrimmed(CharSequence text, int start, int end, StringBuilder out) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        out.setLength(0);
+        int blankRun = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == '\t') {
+                if (blankRun == 0) {
+                    out.append(c);
+                } else if (blankRun == 1) {
+                    out.setCharAt(out.length() - 1, ' ');
+                }
+                blankRun++;
+            } else {
+                blankRun = 0;
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Index just past the whitespace that follows a line-break hyphen, or {@code from} when the
+     * hyphen at {@code from - 1} is not followed by whitespace containing a newline and then a letter.
+     */
+    private static int hyphenationEnd(CharSequence text, int from) {
+        int n = text.length();
+        int j = from;
+        boolean newline = false;
+        while (j < n) {
+            char c = text.charAt(j);
+            if (c == '\n' || c == '\r') {
+                newline = true;
+            } else if (c != ' ' && c != '\t' && !isRemovedControl(c)) {
+                break;
+            }
+            j++;
+        }
+        return newline && j < n && Character.isLetter(Character.codePointAt(text, j)) ? j : from;
+    }
+
+    private static boolean isRemovedControl(char c) {
+        return Character.isISOControl(c) && c != '\n' && c != '\t' && c != '\r';
+    }
+
+    private static String trimmed(CharSequence s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return s.subSequence(start, end).toString();
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder buffer = BUFFER.get();
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = new StringBuilder(8192);
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        return buffer;
+    }
+}
@@ -0,0 +1,269 @@
+package ax.sjoholm.srd.services.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import ax.sjoholm.srd.services.cache.LruCache;
+
+/**
+ * Meters for the retrieval, generation, streaming and ingestion paths, exposed on
+ * {@code /actuator/prometheus}. All names start with {@code rag.}; timers and summaries publish
+ * histogram buckets so percentiles can be aggregated across instances.
+ * <p>
+ * Latency meters:
+ * <ul>
+ *   <li>{@code rag.query.embedding} – embedding a question, tagged {@code cache=hit|miss}</li>
+ *   <li>{@code rag.retrieval.search} – the whole vector store similarity search (includes the query embedding)</li>
+ *   <li>{@code rag.retrieval.lexical} – the full-text search of hybrid retrieval</li>
+ *   <li>{@code rag.retrieval.statute} – the metadata lookup of an explicit statute reference</li>
+ *   <li>{@code rag.retrieval.rerank} – the local reranking and cut-off of the retrieved candidates</li>
+ *   <li>{@code rag.llm.queue.wait} – waiting for a generation slot, tagged {@code outcome=acquired|timeout}</li>
+ *   <li>{@code rag.llm.ttft} – time from sending a streaming prompt to the first token</li>
+ *   <li>{@code rag.llm.generation} – total generation time, tagged {@code mode=call|stream} and {@code outcome}</li>
+ *   <li>{@code rag.ingestion.step} – one process/split/write step, tagged {@code stage}</li>
+ *   <li>{@code rag.ingestion.stage} – wall time until a pipeline stage has drained, tagged {@code stage}</li>
+ * </ul>
+ * Meters with a fixed set of tags are registered once and kept in fields; those with a tag
+ * known only at the call site go through a {@link Meter.MeterProvider}.
+ */
+@Component
+public class RagMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Timer queryEmbeddingHit;
+    private final Timer queryEmbeddingMiss;
+    private final Timer search;
+    private final Timer lexicalSearch;
+    private final Timer statuteLookup;
+    private final Timer rerank;
+    private final Timer timeToFirstToken;
+    private final Timer queueWaitAcquired;
+    private final Timer queueWaitTimeout;
+    private final Meter.MeterProvider<Timer> generation;
+    private final Meter.MeterProvider<Timer> ingestionStep;
+    private final Meter.MeterProvider<Timer> ingestionStage;
+    private final DistributionSummary retrievedDocuments;
+    private final DistributionSummary contextChars;
+    private final DistributionSummary contextTokens;
+    private final Counter contextChunksDropped;
+    private final DistributionSummary streamTokensPerSecond;
+    private final Counter streamTokens;
+    private final Counter streamFlushes;
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    public RagMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.queryEmbeddingHit = queryEmbeddingTimer("hit");
+        this.queryEmbeddingMiss = queryEmbeddingTimer("miss");
+        this.search = Timer.builder("rag.retrieval.search")
+                .description("Vector store similarity search, including the query embedding")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.lexicalSearch = Timer.builder("rag.retrieval.lexical")
+                .description("Full-text search for hybrid retrieval")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.statuteLookup = Timer.builder("rag.retrieval.statute")
+                .description("Metadata lookup of an explicit statute reference")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.rerank = Timer.builder("rag.retrieval.rerank")
+                .description("Local re-scoring and cut-off of the retrieved candidates")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.timeToFirstToken = Timer.builder("rag.llm.ttft")
+                .description("Time from sending a streaming prompt to the first generated token")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.retrievedDocuments = DistributionSummary.builder("rag.retrieval.documents")
+                .description("Number of documents returned by a retrieval")
+                .serviceLevelObjectives(0, 1, 2, 3, 5, 8, 13, 20)
+                .register(registry);
+        this.contextChars = DistributionSummary.builder("rag.context.chars")
+                .description("Size of the retrieved context put into the prompt")
+                .baseUnit("characters")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.contextTokens = DistributionSummary.builder("rag.context.tokens")
+                .description("Estimated tokens of the packed context put into the prompt")
+                .baseUnit("tokens")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.contextChunksDropped = Counter.builder("rag.context.chunks.dropped")
+                .description("Retrieved chunks left out of the prompt as duplicates or over the token budget")
+                .register(registry);
+        this.streamTokensPerSecond = DistributionSummary.builder("rag.stream.tokens.rate")
+                .description("Tokens per second of a streamed answer, measured from the first token")
+                .baseUnit("tokens/s")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.streamTokens = Counter.builder("rag.stream.tokens")
+                .description("Tokens received from the model on streaming requests")
+                .register(registry);
+        this.streamFlushes = Counter.builder("rag.stream.flushes")
+                .description("SSE message events sent to clients")
+                .register(registry);
+        Gauge.builder("rag.stream.active", activeStreams, AtomicInteger::get)
+                .description("Streaming chat requests currently in progress")
+                .register(registry);
+        this.queueWaitAcquired = queueWaitTimer("acquired");
+        this.queueWaitTimeout = queueWaitTimer("timeout");
+        this.generation = Timer.builder("rag.llm.generation")
+                .description("Total LLM generation time")
+                .publishPercentileHistogram()
+                .withRegistry(registry);
+        this.ingestionStep = Timer.builder("rag.ingestion.step")
+                .description("One ingestion step: processing or splitting a document, or writing a batch")
+                .publishPercentileHistogram()
+                .withRegistry(registry);
+        this.ingestionStage = Timer.builder("rag.ingestion.stage")
+                .description("Wall time from the start of an ingestion until the stage has drained")
+                .withRegistry(registry);
+    }
+
+    private Timer queueWaitTimer(String outcome) {
+        return Timer.builder("rag.llm.queue.wait")
+                .description("Time a request waited for a free generation slot")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Timer queryEmbeddingTimer(String cache) {
+        return Timer.builder("rag.query.embedding")
+                .description("Embedding a question before the similarity search")
+                .tag("cache", cache)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public void queryEmbedding(boolean cacheHit, long nanos) {
+        (cacheHit ? queryEmbeddingHit : queryEmbeddingMiss).record(Duration.ofNanos(nanos));
+    }
+
+    public <T> T timeSearch(Supplier<T> search) {
+        return this.search.record(search);
+    }
+
+    public <T> T timeLexicalSearch(Supplier<T> search) {
+        return lexicalSearch.record(search);
+    }
+
+    public <T> T timeStatuteLookup(Supplier<T> lookup) {
+        return statuteLookup.record(lookup);
+    }
+
+    public <T> T timeRerank(Supplier<T> rerank) {
+        return this.rerank.record(rerank);
+    }
+
+    public void retrieved(int documents) {
+        retrievedDocuments.record(documents);
+    }
+
+    public void contextPacked(int droppedChunks, int chars, int tokens) {
+        contextChars.record(chars);
+        contextTokens.record(tokens);
+        contextChunksDropped.increment(droppedChunks);
+    }
+
+    public void generation(String mode, String outcome, long nanos) {
+        generation.withTags("mode", mode, "outcome", outcome).record(Duration.ofNanos(nanos));
+    }
+
+    public void generationQueueWait(boolean acquired, long nanos) {
+        (acquired ? queueWaitAcquired : queueWaitTimeout).record(Duration.ofNanos(nanos));
+    }
+
+    public void bindGenerationSlots(int capacity, IntSupplier available, IntSupplier waiting) {
+        Gauge.builder("rag.llm.active", () -> capacity - available.getAsInt())
+                .description("LLM generations currently holding a slot")
+                .register(registry);
+        Gauge.builder("rag.llm.waiting", waiting::getAsInt)
+                .description("Requests waiting for a generation slot")
+                .register(registry);
+    }
+
+    public void firstToken(long nanos) {
+        timeToFirstToken.record(Duration.ofNanos(nanos));
+    }
+
+    public void streamToken() {
+        streamTokens.increment();
+    }
+
+    public void streamFlush() {
+        streamFlushes.increment();
+    }
+
+    public void streamTokenRate(long tokens, long nanosSinceFirstToken) {
+        if (tokens > 1 && nanosSinceFirstToken > 0) {
+            streamTokensPerSecond.record(tokens * 1e9 / nanosSinceFirstToken);
+        }
+    }
+
+    public void streamStarted() {
+        activeStreams.incrementAndGet();
+    }
+
+    public void streamFinished() {
+        activeStreams.decrementAndGet();
+    }
+
+    public Timer ingestionStep(String stage) {
+        return ingestionStep.withTags("stage", stage);
+    }
+
+    public void ingestionStage(String stage, long nanos) {
+        ingestionStage.withTags("stage", stage).record(Duration.ofNanos(nanos));
+    }
+
+    /**
+     * Publishes the statistics of a cache as {@code rag.cache.*} meters tagged with the cache name.
+     * The meters hold {@code cache} weakly, so it must be the long-lived cache itself, not a
+     * method reference to it.
+     */
+    public <T> void bindCache(String name, T cache, Function<T, LruCache.Stats> stats) {
+        FunctionCounter.builder("rag.cache.hits", cache, c -> stats.apply(c).hits())
+                .tag("cache", name).register(registry);
+        FunctionCounter.builder("rag.cache.misses", cache, c -> stats.apply(c).misses())
+                .tag("cache", name).register(registry);
+        FunctionCounter.builder("rag.cache.evictions", cache, c -> stats.apply(c).evictions())
+                .tag("cache", name).register(registry);
+        Gauge.builder("rag.cache.size", cache, c -> stats.apply(c).size())
+                .tag("cache", name).register(registry);
+    }
+
+    /**
+     * Publishes the in-memory conversation store as {@code rag.memory.*}: it is bounded like a
+     * cache, but a conversation that is not found is new rather than a miss.
+     */
+    public <T> void bindConversationStore(T store, ToDoubleFunction<T> conversations, ToDoubleFunction<T> evictions,
+            ToDoubleFunction<T> tokens) {
+        Gauge.builder("rag.memory.conversations", store, conversations)
+                .description("Conversations held by the in-memory conversation store")
+                .register(registry);
+        FunctionCounter.builder("rag.memory.evictions", store, evictions)
+                .description("Conversations dropped from the in-memory store as idle or over its limits")
+                .register(registry);
+        Gauge.builder("rag.memory.tokens", store, tokens)
+                .description("Tokens held by the in-memory conversation store")
+                .baseUnit("tokens")
+                .register(registry);
+    }
+}
@@ -0,0 +1,160 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * Re-scores retrieved candidates on the CPU and keeps only the best few, so the prompt, and
+ * with it the LLM prefill time, stays small.
+ * <p>
+ * The score blends BM25 of the question terms over the candidate set (document frequencies
+ * are taken from the candidates themselves) with the candidate's position in the retrieval
+ * order, so a chunk that the embedding found but that shares no words with the question is
+ * not thrown away. Candidates are kept in score order while they reach {@code cutoffRatio}
+ * of the best score, at least {@code minChunks} and at most {@code maxChunks} of them.
+ * <p>
+ * Terms are lower-cased letter or digit runs without Swedish stop words, cut to their first
+ * {@value #STEM_LENGTH} characters: a crude but effective stemmer for Swedish inflections
+ * ("kommunen", "kommunens", "kommuner"). The {@code [law=…]} header line the reader puts in
+ * front of a section is not scored: its law name, {@code kap} and URL terms would match every
+ * chunk of a law alike.
+ */
+public final class Bm25Reranker {
+
+    static final int STEM_LENGTH = 6;
+
+    private static final String HEADER_PREFIX = "[law=";
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "och", "att", "det", "som", "en", "på", "är", "av", "för", "med", "till", "den", "har", "de",
+            "inte", "om", "ett", "men", "var", "jag", "sig", "från", "vi", "så", "kan", "man", "när",
+            "hon", "han", "under", "också", "efter", "eller", "nu", "sin", "där", "vid", "mot", "ska",
+            "skall", "får", "vad", "hur", "vilka", "vilken", "vilket", "denna", "detta", "dessa", "hos",
+            "än", "då", "vara", "bli", "blir", "mig", "min", "mitt", "sina", "sitt", "deras", "dem");
+
+    private final double lexicalWeight;
+    private final double cutoffRatio;
+    private final int minChunks;
+    private final int maxChunks;
+
+    public Bm25Reranker(double lexicalWeight, double cutoffRatio, int minChunks, int maxChunks) {
+        this.lexicalWeight = lexicalWeight;
+        this.cutoffRatio = cutoffRatio;
+        this.minChunks = minChunks;
+        this.maxChunks = maxChunks;
+    }
+
+    public List<Document> rerank(String question, List<Document> candidates) {
+        if (candidates.size() <= minChunks) {
+            return candidates;
+        }
+        Set<String> queryTerms = new LinkedHashSet<>(terms(question));
+        if (queryTerms.isEmpty()) {
+            return candidates.subList(0, Math.min(maxChunks, candidates.size()));
+        }
+
+        int n = candidates.size();
+        List<String> query = List.copyOf(queryTerms);
+        int[][] tf = new int[n][query.size()];
+        int[] length = new int[n];
+        int[] df = new int[query.size()];
+        double totalLength = 0;
+        for (int d = 0; d < n; d++) {
+            List<String> docTerms = terms(body(candidates.get(d).getText()));
+            length[d] = docTerms.size();
+            totalLength += docTerms.size();
+            Map<String, Integer> counts = new HashMap<>();
+            for (String term : docTerms) {
+                if (queryTerms.contains(term)) {
+                    counts.merge(term, 1, Integer::sum);
+                }
+            }
+            for (int t = 0; t < query.size(); t++) {
+                tf[d][t] = counts.getOrDefault(query.get(t), 0);
+                if (tf[d][t] > 0) {
+                    df[t]++;
+                }
+            }
+        }
+
+        double avgLength = Math.max(1.0, totalLength / n);
+        double[] bm25 = new double[n];
+        double best = 0;
+        for (int d = 0; d < n; d++) {
+            double norm = K1 * (1 - B + B * length[d] / avgLength);
+            for (int t = 0; t < query.size(); t++) {
+                if (tf[d][t] > 0) {
+                    double idf = Math.log(1 + (n - df[t] + 0.5) / (df[t] + 0.5));
+                    bm25[d] += idf * tf[d][t] * (K1 + 1) / (tf[d][t] + norm);
+                }
+            }
+            best = Math.max(best, bm25[d]);
+        }
+
+        Integer[] order = new Integer[n];
+        double[] score = new double[n];
+        for (int d = 0; d < n; d++) {
+            double lexical = best > 0 ? bm25[d] / best : 0;
+            double prior = 1.0 - (double) d / n;
+            score[d] = lexicalWeight * lexical + (1 - lexicalWeight) * prior;
+            order[d] = d;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer d) -> score[d]).reversed());
+
+        double threshold = cutoffRatio * score[order[0]];
+        List<Document> kept = new ArrayList<>(maxChunks);
+        for (int d : order) {
+            if (kept.size() >= maxChunks || (kept.size() >= minChunks && score[d] < threshold)) {
+                break;
+            }
+            kept.add(candidates.get(d));
+        }
+        return kept;
+    }
+
+    private static String body(String text) {
+        if (text == null || !text.startsWith(HEADER_PREFIX)) {
+            return text;
+        }
+        int eol = text.indexOf('\n');
+        return eol < 0 ? "" : text.substring(eol + 1);
+    }
+
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int i = 0;
+        int len = text.length();
+        while (i < len) {
+            int cp = text.codePointAt(i);
+            if (!Character.isLetterOrDigit(cp)) {
+                i += Character.charCount(cp);
+                continue;
+            }
+            int start = i;
+            boolean digits = Character.isDigit(cp);
+            while (i < len && Character.isLetterOrDigit(cp = text.codePointAt(i))) {
+                i += Character.charCount(cp);
+            }
+            String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+            if ((digits || word.length() >= 2) && !STOP_WORDS.contains(word)) {
+                terms.add(word.length() > STEM_LENGTH ? word.substring(0, STEM_LENGTH) : word);
+            }
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,56 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.springframework.ai.document.Document;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Helpers for the JDBC queries that read chunks straight from the pgvector table
+ * ({@code id}, {@code content}, {@code metadata} columns).
+ */
+final class ChunkRows {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {
+    };
+
+    private ChunkRows() {
+    }
+
+    /**
+     * Table and schema names are concatenated into SQL, so only plain identifiers are accepted.
+     */
+    static String identifier(String name) {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            throw new IllegalArgumentException("Not a plain SQL identifier: " + name);
+        }
+        return name;
+    }
+
+    static Document document(ResultSet rs, ObjectMapper objectMapper, double score) throws SQLException {
+        return Document.builder()
+                .id(rs.getString("id"))
+                .text(rs.getString("content"))
+                .metadata(metadata(objectMapper, rs.getString("metadata")))
+                .score(score)
+                .build();
+    }
+
+    private static Map<String, Object> metadata(ObjectMapper objectMapper, String json) {
+        if (json == null) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(json, METADATA);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable chunk metadata: " + json, e);
+        }
+    }
+}
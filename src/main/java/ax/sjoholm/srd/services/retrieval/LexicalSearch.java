@@ -0,0 +1,66 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.List;
+
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Full-text search over the pgvector table. Adds a stored {@code tsvector} column generated
+ * from the chunk content with the configured text search configuration ({@code swedish} by
+ * default) and a GIN index on it, so a lexical query is an index scan and never touches the
+ * embedding model.
+ * <p>
+ * Question terms are OR-ed rather than AND-ed: a chunk only has to contain some of the words of
+ * a natural-language question to be a candidate, and {@code ts_rank_cd} orders the candidates by
+ * how many terms they contain and how close together.
+ */
+@Slf4j
+public class LexicalSearch {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final String table;
+    private final String textSearchConfig;
+
+    public LexicalSearch(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, String schemaName, String tableName,
+            String textSearchConfig) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.table = ChunkRows.identifier(schemaName) + "." + ChunkRows.identifier(tableName);
+        this.textSearchConfig = ChunkRows.identifier(textSearchConfig);
+    }
+
+    /**
+     * Adds the generated column and its index when they are missing. Must run after the vector
+     * store has created (or re-created) its table.
+     */
+    public void initializeSchema() {
+        String tableName = table.substring(table.indexOf('.') + 1);
+        jdbcTemplate.execute("ALTER TABLE " + table + " ADD COLUMN IF NOT EXISTS content_tsv tsvector"
+                + " GENERATED ALWAYS AS (to_tsvector('" + textSearchConfig + "', coalesce(content, ''))) STORED");
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_content_tsv_idx ON " + table
+                + " USING gin (content_tsv)");
+        log.info("Full-text index ready on {} (config={})", table, textSearchConfig);
+    }
+
+    public List<Document> search(String question, int topK) {
+        if (question == null || question.isBlank()) {
+            return List.of();
+        }
+        // plainto_tsquery stems the words and ANDs them; OR them instead, casting so the lexemes
+        // are not stemmed a second time
+        String sql = "SELECT id, content, metadata, ts_rank_cd(content_tsv, q) AS rank"
+                + " FROM " + table + ","
+                + " replace(plainto_tsquery('" + textSearchConfig + "', ?)::text, '&', '|')::tsquery q"
+                + " WHERE content_tsv @@ q"
+                + " ORDER BY rank DESC"
+                + " LIMIT ?";
+        return jdbcTemplate.query(sql, (rs, i) -> ChunkRows.document(rs, objectMapper, rs.getDouble("rank")),
+                question, topK);
+    }
+}
@@ -0,0 +1,195 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Two-phase vector search over a compact HNSW index. The table keeps its full-precision
+ * {@code embedding} column, but the only ANN index is an expression index over a smaller
+ * representation of it:
+ * <ul>
+ *   <li>{@code HALFVEC}: 16-bit floats, half the size of {@code vector}</li>
+ *   <li>{@code BINARY}: one bit per dimension ({@code binary_quantize}, Hamming distance), 1/32 of the size</li>
+ * </ul>
+ * Optionally only the first {@code dimensions} components are indexed. {@code nomic-embed-text}
+ * is trained Matryoshka-style, so a prefix of the embedding is itself a usable embedding.
+ * <p>
+ * The index returns {@code candidates} rows, which are then re-ranked by exact cosine distance
+ * on the full-precision column, so the final order and scores are the same as an unquantized
+ * search over those candidates. Requires pgvector 0.7 or later.
+ * <p>
+ * Only one vector index is kept on a table: creating the quantized index drops the full-precision
+ * index and the quantized indexes of other modes and dimensions, and {@link #dropIndexes} removes
+ * the quantized ones again when quantization is switched off.
+ */
+@Slf4j
+public class QuantizedVectorSearch {
+
+    public enum Mode {
+        HALFVEC,
+        BINARY
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final String schemaName;
+    private final String tableName;
+    private final Mode mode;
+    private final int requestedDimensions;
+    private final int candidates;
+
+    /**
+     * @param stored  dimensions of the {@code embedding} column
+     * @param indexed dimensions the quantized index keeps, at most {@code stored}
+     */
+    private record Dimensions(int stored, int indexed) {
+
+        boolean truncated() {
+            return indexed < stored;
+        }
+    }
+
+    // resolved once, and again whenever the schema is initialized
+    private volatile Dimensions dimensions;
+
+    public QuantizedVectorSearch(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+            ObjectMapper objectMapper, String schemaName, String tableName, Mode mode, int dimensions, int candidates) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.schemaName = ChunkRows.identifier(schemaName);
+        this.tableName = ChunkRows.identifier(tableName);
+        this.mode = mode;
+        this.requestedDimensions = dimensions;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Creates the quantized expression index when it is missing and drops every other vector
+     * index of the table. Must run after the vector store has created (or re-created) its table.
+     */
+    public void initializeSchema() {
+        Dimensions d = resolveDimensions();
+        dimensions = d;
+        String index = tableName + "_embedding_" + mode.name().toLowerCase(Locale.ROOT) + d.indexed() + "_idx";
+        String opClass = mode == Mode.HALFVEC ? "halfvec_cosine_ops" : "bit_hamming_ops";
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + index + " ON " + table()
+                + " USING hnsw ((" + indexedExpression("embedding", d) + ") " + opClass + ")");
+        dropIndexes(jdbcTemplate, schemaName, tableName, "indexdef ~* ' USING (hnsw|ivfflat) '", index);
+        log.info("Quantized vector index {} ready ({} of {} dimensions, {} candidates re-scored)",
+                index, d.indexed(), d.stored(), candidates);
+    }
+
+    /**
+     * Drops the quantized indexes of a table, which are left behind when
+     * {@code rag.quantization.mode} is switched back to {@code none}.
+     */
+    public static void dropIndexes(JdbcTemplate jdbcTemplate, String schemaName, String tableName) {
+        String table = ChunkRows.identifier(tableName);
+        dropIndexes(jdbcTemplate, ChunkRows.identifier(schemaName), table,
+                "indexname ~* '^" + table + "_embedding_(halfvec|binary)[0-9]+_idx$'", null);
+    }
+
+    private static void dropIndexes(JdbcTemplate jdbcTemplate, String schemaName, String tableName,
+            String condition, String keep) {
+        // unquoted identifiers are stored in lower case
+        List<String> stale = jdbcTemplate.queryForList("SELECT indexname FROM pg_indexes"
+                + " WHERE schemaname = ? AND tablename = ? AND " + condition, String.class,
+                schemaName.toLowerCase(Locale.ROOT), tableName.toLowerCase(Locale.ROOT));
+        for (String index : stale) {
+            if (!index.equalsIgnoreCase(keep)) {
+                jdbcTemplate.execute("DROP INDEX IF EXISTS " + schemaName + "." + index);
+                log.info("Dropped vector index {} of {}.{}, which the quantization mode no longer uses", index,
+                        schemaName, tableName);
+            }
+        }
+    }
+
+    /**
+     * Top {@code topK} chunks by exact cosine similarity among the index candidates, keeping
+     * those with a similarity of at least {@code similarityThreshold}.
+     */
+    public List<Document> search(float[] query, int topK, double similarityThreshold) {
+        Dimensions d = dimensions();
+        String vector = toVectorLiteral(query);
+        String sql = "SELECT id, content, metadata, embedding <=> ?::vector AS distance FROM ("
+                + "SELECT id, content, metadata, embedding FROM " + table()
+                + " ORDER BY " + indexedExpression("embedding", d) + " " + operator() + " "
+                + indexedExpression("?::vector", d)
+                + " LIMIT ?) candidates"
+                + " ORDER BY distance LIMIT ?";
+        int limit = Math.max(candidates, topK);
+
+        List<Document> hits = transactionTemplate.execute(tx -> {
+            // the index scan stops after ef_search rows, so it has to be at least the candidate count
+            jdbcTemplate.execute("SET LOCAL hnsw.ef_search = " + limit);
+            return jdbcTemplate.query(sql,
+                    (rs, i) -> ChunkRows.document(rs, objectMapper, 1.0 - rs.getDouble("distance")),
+                    vector, vector, limit, topK);
+        });
+        return hits == null ? List.of() : hits.stream()
+                .filter(doc -> doc.getScore() != null && doc.getScore() >= similarityThreshold)
+                .toList();
+    }
+
+    private String indexedExpression(String vector, Dimensions d) {
+        String source = d.truncated() ? "subvector(" + vector + ", 1, " + d.indexed() + ")" : vector;
+        return switch (mode) {
+            case HALFVEC -> source + "::halfvec(" + d.indexed() + ")";
+            case BINARY -> "binary_quantize(" + source + ")::bit(" + d.indexed() + ")";
+        };
+    }
+
+    private String operator() {
+        return mode == Mode.HALFVEC ? "<=>" : "<~>";
+    }
+
+    private Dimensions dimensions() {
+        Dimensions d = dimensions;
+        if (d == null) {
+            d = resolveDimensions();
+            dimensions = d;
+        }
+        return d;
+    }
+
+    private Dimensions resolveDimensions() {
+        int stored = storedDimensions();
+        return new Dimensions(stored, requestedDimensions <= 0 ? stored : Math.min(requestedDimensions, stored));
+    }
+
+    private int storedDimensions() {
+        // atttypmod of a vector(n) column is n
+        Integer stored = jdbcTemplate.queryForObject(
+                "SELECT atttypmod FROM pg_attribute WHERE attrelid = ?::regclass AND attname = 'embedding'",
+                Integer.class, table());
+        if (stored == null || stored <= 0) {
+            throw new IllegalStateException("Cannot determine the dimensions of " + table() + ".embedding");
+        }
+        return stored;
+    }
+
+    private String table() {
+        return schemaName + "." + tableName;
+    }
+
+    static String toVectorLiteral(float[] vector) {
+        StringBuilder sb = new StringBuilder(vector.length * 10).append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
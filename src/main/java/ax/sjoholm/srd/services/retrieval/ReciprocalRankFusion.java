@@ -0,0 +1,48 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * Reciprocal rank fusion: a document scores {@code sum(1 / (k + rank))} over the ranked lists it
+ * appears in (rank starting at 1). Only ranks are used, so lists with incomparable scores, such as
+ * cosine similarity and {@code ts_rank_cd}, can be merged without normalisation.
+ */
+final class ReciprocalRankFusion {
+
+    private ReciprocalRankFusion() {
+    }
+
+    static List<Document> fuse(List<List<Document>> rankings, int k, int limit) {
+        Map<String, Fused> byId = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int i = 0; i < ranking.size(); i++) {
+                Document document = ranking.get(i);
+                double contribution = 1.0 / (k + i + 1);
+                // the first list wins for the document instance, so vector hits keep their similarity metadata
+                byId.computeIfAbsent(document.getId(), id -> new Fused(document)).score += contribution;
+            }
+        }
+
+        List<Fused> fused = new ArrayList<>(byId.values());
+        fused.sort(Comparator.comparingDouble((Fused f) -> f.score).reversed());
+        return fused.stream()
+                .limit(limit)
+                .map(f -> f.document.mutate().score(f.score).build())
+                .toList();
+    }
+
+    private static final class Fused {
+        private final Document document;
+        private double score;
+
+        private Fused(Document document) {
+            this.document = document;
+        }
+    }
+}
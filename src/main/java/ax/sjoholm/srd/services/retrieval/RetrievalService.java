@@ -0,0 +1,144 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.metrics.RagMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Retrieval stage of the chat pipeline. The question is embedded and searched exactly once
+ * per request; the returned documents are shared by logging, prompt assembly and citations.
+ * <p>
+ * With {@code rag.hybrid.enabled} the vector candidates are fused with full-text candidates from
+ * {@link LexicalSearch} by reciprocal rank fusion, so exact legal terms that the embedding misses
+ * still make it into the top {@code rag.top-k}.
+ * <p>
+ * Questions that name a section explicitly ("3 kap. 12 § kommunallagen") are answered from a
+ * {@link StatuteLookup} metadata query instead, skipping the embedding and the searches.
+ * <p>
+ * With {@code rag.quantization.mode} set, the vector search goes through
+ * {@link QuantizedVectorSearch} (compact index, full-precision re-score) instead of the store.
+ * <p>
+ * With {@code rag.rerank.enabled}, {@code rag.rerank.candidates} documents are retrieved and
+ * {@link Bm25Reranker} passes only the best few of them on to the prompt, never more than
+ * {@code rag.top-k}.
+ */
+@Service
+@Slf4j
+public class RetrievalService {
+
+    private final VectorStore vectorStore;
+    private final LexicalSearch lexicalSearch;
+    private final StatuteLookup statuteLookup;
+    private final QuantizedVectorSearch quantizedSearch;
+    private final EmbeddingModel embeddingModel;
+    private final Bm25Reranker reranker;
+    private final RagProperties props;
+    private final RagMetrics metrics;
+
+    public RetrievalService(VectorStore vectorStore, ObjectProvider<LexicalSearch> lexicalSearch,
+            ObjectProvider<StatuteLookup> statuteLookup, ObjectProvider<QuantizedVectorSearch> quantizedSearch,
+            EmbeddingModel embeddingModel, RagProperties props, RagMetrics metrics) {
+        this.vectorStore = vectorStore;
+        this.lexicalSearch = lexicalSearch.getIfAvailable();
+        this.statuteLookup = statuteLookup.getIfAvailable();
+        this.quantizedSearch = quantizedSearch.getIfAvailable();
+        this.embeddingModel = embeddingModel;
+        var rerank = props.rerank();
+        // rag.top-k stays the upper bound on the documents in the prompt
+        this.reranker = rerank.enabled()
+                ? new Bm25Reranker(rerank.lexicalWeight(), rerank.cutoffRatio(),
+                        Math.min(rerank.minChunks(), props.topK()), Math.min(rerank.maxChunks(), props.topK()))
+                : null;
+        this.props = props;
+        this.metrics = metrics;
+    }
+
+    public List<Document> retrieve(String question) {
+        List<Document> hits = statuteSearch(question)
+                .orElseGet(() -> rerank(question, lexicalSearch == null
+                        ? vectorSearch(question, candidates())
+                        : hybridSearch(question)));
+        metrics.retrieved(hits.size());
+
+        hits.forEach(d -> log.info("hit md={} chars={} head={}",
+                d.getMetadata(),
+                d.getText().length(),
+                d.getText().substring(0, Math.min(120, d.getText().length())).replace("\n", "\\n")));
+        return hits;
+    }
+
+    /**
+     * Whether the question names a statute section, which {@link #retrieve} first tries to resolve
+     * with the metadata lookup instead of embedding the question.
+     */
+    public boolean isStatuteQuestion(String question) {
+        return statuteLookup != null && StatuteReference.parse(question).isPresent();
+    }
+
+    private Optional<List<Document>> statuteSearch(String question) {
+        if (statuteLookup == null) {
+            return Optional.empty();
+        }
+        Optional<StatuteReference> ref = StatuteReference.parse(question);
+        if (ref.isEmpty()) {
+            return Optional.empty();
+        }
+
+        int limit = props.statuteLookup().maxChunks();
+        List<Document> hits = metrics.timeStatuteLookup(() -> statuteLookup.find(ref.get(), limit));
+        if (hits.isEmpty() || (hits.size() > limit && !ref.get().identifiesLaw())) {
+            // unknown section, or the same chapter and section in too many laws to choose from
+            log.debug("Statute reference {} not resolved ({} hits); using search", ref.get(), hits.size());
+            return Optional.empty();
+        }
+        log.info("Statute reference {} resolved to {} chunks", ref.get(), Math.min(hits.size(), limit));
+        return Optional.of(hits.size() > limit ? hits.subList(0, limit) : hits);
+    }
+
+    private List<Document> hybridSearch(String question) {
+        var hybrid = props.hybrid();
+        List<Document> vectorHits = vectorSearch(question, hybrid.vectorTopK());
+        List<Document> lexicalHits = metrics.timeLexicalSearch(() -> lexicalSearch.search(question, hybrid.lexicalTopK()));
+        log.debug("Hybrid candidates: vector={} lexical={}", vectorHits.size(), lexicalHits.size());
+        return ReciprocalRankFusion.fuse(List.of(vectorHits, lexicalHits), hybrid.rrfK(), candidates());
+    }
+
+    private int candidates() {
+        return reranker == null ? props.topK() : props.rerank().candidates();
+    }
+
+    private List<Document> rerank(String question, List<Document> candidates) {
+        if (reranker == null) {
+            return candidates;
+        }
+        List<Document> kept = metrics.timeRerank(() -> reranker.rerank(question, candidates));
+        log.debug("Reranking kept {} of {} candidates", kept.size(), candidates.size());
+        return kept;
+    }
+
+    private List<Document> vectorSearch(String question, int topK) {
+        if (quantizedSearch != null) {
+            float[] query = embeddingModel.embed(question);
+            return metrics.timeSearch(() -> quantizedSearch.search(query, topK, props.similarityThreshold()));
+        }
+
+        var searchRequest = SearchRequest.builder()
+                .query(question)
+                .topK(topK)
+                .similarityThreshold(props.similarityThreshold())
+                .build();
+
+        List<Document> hits = metrics.timeSearch(() -> vectorStore.similaritySearch(searchRequest));
+        return hits == null ? List.of() : hits;
+    }
+}
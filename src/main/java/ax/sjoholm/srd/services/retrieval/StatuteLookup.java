@@ -0,0 +1,112 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.ai.document.Document;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resolves a {@link StatuteReference} to the stored chunks of that section with a metadata
+ * lookup, without embedding the question. Expression indexes on {@code metadata->>'section_no'},
+ * {@code chapter_no} and {@code law_code} keep the lookup an index scan.
+ * <p>
+ * Sections shorter than the segmenter's minimum are merged into the following section and only
+ * listed in its comma-separated {@code merged_from_sections}; those are found by a second query
+ * on a GIN index over that list split into an array. A law named in the question is matched as a
+ * substring of {@code law_name} through a trigram index, which needs the {@code pg_trgm}
+ * extension; without it that condition is a filter on the rows found by section.
+ * <p>
+ * The chunks of a section come back in {@code subchunk_index} order.
+ */
+@Slf4j
+public class StatuteLookup {
+
+    // the expressions must match the indexes exactly for the planner to use them
+    private static final String MERGED_FROM = "string_to_array(metadata->>'merged_from_sections', ',')";
+    private static final String LAW_NAME = "lower(metadata->>'law_name')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final String schemaName;
+    private final String tableName;
+
+    public StatuteLookup(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper, String schemaName, String tableName) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.schemaName = ChunkRows.identifier(schemaName);
+        this.tableName = ChunkRows.identifier(tableName);
+    }
+
+    /**
+     * Creates the metadata expression indexes when they are missing. Must run after the vector
+     * store has created (or re-created) its table.
+     */
+    public void initializeSchema() {
+        for (String field : List.of("section_no", "chapter_no", "law_code")) {
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_md_" + field + "_idx ON " + table()
+                    + " ((metadata->>'" + field + "'))");
+        }
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_md_merged_from_sections_idx ON " + table()
+                + " USING gin (" + MERGED_FROM + ")");
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + tableName + "_md_law_name_trgm_idx ON " + table()
+                    + " USING gin (" + LAW_NAME + " gin_trgm_ops)");
+        } catch (DataAccessException e) {
+            log.warn("No trigram index on law names of {}, law name matches are not indexed: {}", table(),
+                    e.getMessage());
+        }
+        log.info("Statute metadata indexes ready on {}", table());
+    }
+
+    /**
+     * Returns the chunks of the referenced section, at most {@code limit + 1} of them so that the
+     * caller can tell an ambiguous reference from a complete result.
+     */
+    public List<Document> find(StatuteReference ref, int limit) {
+        List<Document> hits = query("metadata->>'section_no' = ?", ref.sectionNo(), ref, limit);
+        if (hits.isEmpty()) {
+            hits = query(MERGED_FROM + " @> ARRAY[?::text]", ref.sectionNo(), ref, limit);
+        }
+        return hits;
+    }
+
+    private List<Document> query(String sectionCondition, String sectionArg, StatuteReference ref, int limit) {
+        StringBuilder sql = new StringBuilder("SELECT id, content, metadata FROM ").append(table())
+                .append(" WHERE ").append(sectionCondition);
+        List<Object> args = new ArrayList<>();
+        args.add(sectionArg);
+        if (ref.chapterNo() != null) {
+            sql.append(" AND metadata->>'chapter_no' = ?");
+            args.add(ref.chapterNo());
+        }
+        if (ref.lawCode() != null) {
+            sql.append(" AND metadata->>'law_code' = ?");
+            args.add(ref.lawCode());
+        }
+        if (ref.lawNumber() != null) {
+            sql.append(" AND ").append(LAW_NAME).append(" LIKE lower(?)");
+            args.add("%(" + ref.lawNumber() + ")%");
+        }
+        if (ref.lawName() != null) {
+            sql.append(" AND ").append(LAW_NAME).append(" LIKE lower(?)");
+            args.add("%" + ref.lawName() + "%");
+        }
+        sql.append(" ORDER BY metadata->>'law_code', metadata->>'section_no',"
+                + " (metadata->>'subchunk_index')::int NULLS FIRST, id LIMIT ?");
+        args.add(limit + 1);
+        return jdbcTemplate.query(sql.toString(), (rs, i) -> ChunkRows.document(rs, objectMapper, 1.0),
+                args.toArray());
+    }
+
+    private String table() {
+        return schemaName + "." + tableName;
+    }
+
+}
@@ -0,0 +1,105 @@
+package ax.sjoholm.srd.services.retrieval;
+
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An explicit reference to a section of a law in a question, such as
+ * "vad säger 3 kap. 12 § kommunallagen" or "17a § i E 1".
+ * <p>
+ * A reference always names a section ({@code §}) and at least one of chapter, law code
+ * ({@code "E 1"}), law number ({@code "2011:95"}) or law name; a bare "12 §" is too ambiguous
+ * to resolve without the vector search.
+ *
+ * @param sectionNo section number as stored in {@code section_no}, e.g. {@code "12"} or {@code "7a"}
+ * @param chapterNo chapter number as stored in {@code chapter_no}, or {@code null}
+ * @param lawCode   law code as stored in {@code law_code}, e.g. {@code "E 1"}, or {@code null}
+ * @param lawNumber law number as it appears in {@code law_name}, e.g. {@code "2011:95"}, or {@code null}
+ * @param lawName   lower-case stem of a law name, e.g. {@code "kommunallag"}, or {@code null}
+ */
+public record StatuteReference(String sectionNo, String chapterNo, String lawCode, String lawNumber, String lawName) {
+
+    // "12 §", "12a §", "12 a §"
+    private static final Pattern SECTION = Pattern.compile("(?<![\\d:])(\\d{1,3})\\s?([a-zA-Z])?\\s*§");
+    // "§ 12", "§ 12a"
+    private static final Pattern SECTION_AFTER = Pattern.compile("§\\s*(\\d{1,3})([a-zA-Z])?(?![\\p{L}\\d])");
+    // "3 kap.", "3 kap", "3 kapitlet", "kapitel 3"
+    private static final Pattern CHAPTER = Pattern.compile(
+            "(?iu)(?<![\\d:])(\\d{1,3})\\s*kap(?:\\.|itlet\\b|itel\\b|\\b)|\\bkapitel\\s+(\\d{1,3})\\b");
+    // "(2011:95)" or "2011:95"
+    private static final Pattern LAW_NUMBER = Pattern.compile("(?<!\\d)((?:19|20)\\d{2}:\\d{1,4})(?!\\d)");
+    // "E 1", "N 12" – a capital letter and a number that is not a chapter or section number
+    private static final Pattern LAW_CODE = Pattern.compile(
+            "(?<![\\p{L}\\d])([A-ZÅÄÖ])\\s?(\\d{1,3})(?![\\d:])(?!\\s?[a-zA-Z]?\\s*(?:§|kap))");
+    // "kommunallagen", "förvaltningslag", "lagen" is too generic
+    private static final Pattern LAW_NAME = Pattern.compile("(?iu)\\b(\\p{L}{3,}lag)(?:en|ens)?\\b");
+
+    public StatuteReference {
+        if (sectionNo == null || sectionNo.isBlank()) {
+            throw new IllegalArgumentException("sectionNo is required");
+        }
+    }
+
+    public static Optional<StatuteReference> parse(String question) {
+        if (question == null || question.indexOf('§') < 0) {
+            return Optional.empty();
+        }
+
+        String section = section(question);
+        if (section == null) {
+            return Optional.empty();
+        }
+
+        String chapter = null;
+        Matcher cm = CHAPTER.matcher(question);
+        if (cm.find()) {
+            chapter = cm.group(1) != null ? cm.group(1) : cm.group(2);
+        }
+
+        String lawNumber = null;
+        Matcher nm = LAW_NUMBER.matcher(question);
+        if (nm.find()) {
+            lawNumber = nm.group(1);
+        }
+
+        String lawCode = null;
+        Matcher lm = LAW_CODE.matcher(question);
+        if (lm.find()) {
+            lawCode = lm.group(1) + " " + lm.group(2);
+        }
+
+        String lawName = null;
+        Matcher wm = LAW_NAME.matcher(question);
+        while (wm.find()) {
+            String stem = wm.group(1).toLowerCase(Locale.ROOT);
+            // "landskapslagen" is how every law in the collection starts
+            if (!stem.equals("landskapslag")) {
+                lawName = stem;
+                break;
+            }
+        }
+
+        if (chapter == null && lawCode == null && lawNumber == null && lawName == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new StatuteReference(section, chapter, lawCode, lawNumber, lawName));
+    }
+
+    private static String section(String question) {
+        Matcher m = SECTION.matcher(question);
+        if (m.find()) {
+            return m.group(1) + (m.group(2) == null ? "" : m.group(2).toLowerCase(Locale.ROOT));
+        }
+        m = SECTION_AFTER.matcher(question);
+        if (m.find()) {
+            return m.group(1) + (m.group(2) == null ? "" : m.group(2).toLowerCase(Locale.ROOT));
+        }
+        return null;
+    }
+
+    public boolean identifiesLaw() {
+        return lawCode != null || lawNumber != null || lawName != null;
+    }
+}
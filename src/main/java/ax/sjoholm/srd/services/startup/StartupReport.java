@@ -0,0 +1,64 @@
+package ax.sjoholm.srd.services.startup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Logs where the startup time went once the application is ready: the top-level phases and the
+ * {@code rag.startup.report-beans} beans with the largest self time. Only steps recorded by a
+ * {@link BufferingApplicationStartup}, as installed by the main class, can be reported; the full
+ * timeline stays available at {@code /actuator/startup}.
+ */
+@Slf4j
+public class StartupReport implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final ApplicationStartup applicationStartup;
+    private final int topBeans;
+
+    public StartupReport(ApplicationStartup applicationStartup, int topBeans) {
+        this.applicationStartup = applicationStartup;
+        this.topBeans = topBeans;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (!(applicationStartup instanceof BufferingApplicationStartup buffering)) {
+            return;
+        }
+        StartupTimeline timeline = buffering.getBufferedTimeline();
+        List<StartupTimings.Step> steps = new ArrayList<>(timeline.getEvents().size());
+        for (StartupTimeline.TimelineEvent e : timeline.getEvents()) {
+            StartupStep step = e.getStartupStep();
+            String bean = null;
+            for (StartupStep.Tag tag : step.getTags()) {
+                if (tag.getKey().equals("beanName")) {
+                    bean = tag.getValue();
+                }
+            }
+            steps.add(new StartupTimings.Step(step.getId(), step.getParentId(), step.getName(), bean,
+                    e.getDuration()));
+        }
+        StartupTimings.Summary summary = StartupTimings.summarize(steps, topBeans);
+        log.info("Ready in {} ms. Phases: {}. Bean instantiation: {} ms, slowest: {}",
+                event.getTimeTaken().toMillis(),
+                format(summary.phases()),
+                summary.instantiation().toMillis(),
+                format(summary.beans()));
+    }
+
+    private static String format(List<StartupTimings.Entry> entries) {
+        return entries.stream()
+                .map(e -> e.name() + " " + e.duration().toMillis() + " ms")
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,243 @@
+package ax.sjoholm.srd.services.startup;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Initialization work that talks to the database or the model server: schema creation, the
+ * vector table generations, the Ollama model check.
+ * <p>
+ * By default a task runs as soon as it is added, that is while its bean is created, so startup
+ * fails when a dependency is missing. With {@code rag.startup.deferred} tasks are queued and run
+ * one at a time, in the order they were added, on a background thread that starts after the web
+ * server. A failing task is retried every {@code rag.startup.retry-delay} until its dependency
+ * is there, whatever it throws. As a health indicator in the readiness group this keeps the instance out of service
+ * until every task has completed, while liveness is served from the start.
+ * <p>
+ * Each task is recorded as a {@code rag.startup.task} step of the application startup, so it
+ * shows in {@code /actuator/startup} next to the bean instantiation steps.
+ */
+@Slf4j
+public class StartupTasks implements SmartLifecycle, HealthIndicator {
+
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private enum State { PENDING, RUNNING, RETRYING, DONE }
+
+    private record Status(State state, int attempts, String error, Duration took) {
+    }
+
+    private final boolean deferred;
+    private final Duration retryDelay;
+    private final ApplicationStartup applicationStartup;
+    private final Map<String, Status> tasks = new LinkedHashMap<>();
+    private final Map<String, Task> queued = new LinkedHashMap<>();
+    private ExecutorService executor;
+    private int pending;
+
+    public StartupTasks(boolean deferred, Duration retryDelay, ApplicationStartup applicationStartup) {
+        this.deferred = deferred;
+        this.retryDelay = retryDelay;
+        this.applicationStartup = applicationStartup;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
+    }
+
+    /**
+     * Runs {@code task} now or, when deferred, queues it behind the tasks added before.
+     */
+    public void add(String name, Task task) {
+        if (!deferred) {
+            run(name, task);
+            return;
+        }
+        synchronized (this) {
+            if (tasks.containsKey(name)) {
+                throw new IllegalArgumentException("Duplicate startup task " + name);
+            }
+            tasks.put(name, new Status(State.PENDING, 0, null, null));
+            pending++;
+            if (executor == null) {
+                queued.put(name, task);
+                return;
+            }
+        }
+        submit(name, task);
+    }
+
+    /**
+     * Blocks until every task added so far has completed.
+     *
+     * @throws TimeoutException if some are still pending after {@code timeout}
+     */
+    public synchronized void awaitCompletion(Duration timeout) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (pending > 0) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                List<String> waiting = tasks.entrySet().stream()
+                        .filter(e -> e.getValue().state() != State.DONE)
+                        .map(Map.Entry::getKey)
+                        .toList();
+                throw new TimeoutException("Startup tasks not done after " + timeout + ": " + waiting);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+    }
+
+    @Override
+    public Health health() {
+        Map<String, Object> details;
+        synchronized (this) {
+            details = new LinkedHashMap<>();
+            tasks.forEach((name, status) -> details.put(name, describe(status)));
+            if (pending == 0) {
+                return Health.up().withDetails(details).build();
+            }
+        }
+        return Health.outOfService().withDetails(details).build();
+    }
+
+    /**
+     * Starts after the web server, so that liveness is answered while the tasks run.
+     */
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void start() {
+        Map<String, Task> toRun;
+        synchronized (this) {
+            executor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("startup-tasks").factory());
+            toRun = new LinkedHashMap<>(queued);
+            queued.clear();
+        }
+        toRun.forEach(this::submit);
+    }
+
+    @Override
+    public void stop() {
+        ExecutorService e;
+        synchronized (this) {
+            e = executor;
+            executor = null;
+        }
+        if (e != null) {
+            e.shutdownNow();
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    private void submit(String name, Task task) {
+        ExecutorService e;
+        synchronized (this) {
+            e = executor;
+        }
+        try {
+            if (e != null) {
+                e.execute(() -> retry(name, task));
+                return;
+            }
+        } catch (RejectedExecutionException ex) {
+            // stopped in the meantime
+        }
+        log.debug("Startup task {} not run, the application is stopping", name);
+    }
+
+    private void retry(String name, Task task) {
+        int attempts = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            attempts++;
+            update(name, new Status(State.RUNNING, attempts, null, null));
+            try {
+                run(name, task);
+                return;
+            } catch (Throwable e) {
+                // an Error must not end the retry loop either, or readiness would never be reported
+                String error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                log.warn("Startup task {} failed (attempt {}), retrying in {}: {}", name, attempts, retryDelay, error);
+                update(name, new Status(State.RETRYING, attempts, error, null));
+            }
+            try {
+                Thread.sleep(retryDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run(String name, Task task) {
+        StartupStep step = applicationStartup.start("rag.startup.task").tag("name", name);
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            step.end();
+        }
+        Duration took = Duration.ofNanos(System.nanoTime() - start);
+        log.info("Startup task {} done in {} ms", name, took.toMillis());
+        if (deferred) {
+            complete(name, took);
+        }
+    }
+
+    private synchronized void complete(String name, Duration took) {
+        Status previous = tasks.get(name);
+        tasks.put(name, new Status(State.DONE, previous.attempts(), null, took));
+        if (--pending == 0) {
+            log.info("All startup tasks done, {} ms after JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+            notifyAll();
+        }
+    }
+
+    private synchronized void update(String name, Status status) {
+        tasks.put(name, status);
+    }
+
+    private static Object describe(Status status) {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("state", status.state().name().toLowerCase(Locale.ROOT));
+        if (status.attempts() > 1) {
+            out.put("attempts", status.attempts());
+        }
+        if (status.error() != null) {
+            out.put("error", status.error());
+        }
+        if (status.took() != null) {
+            out.put("ms", status.took().toMillis());
+        }
+        return out;
+    }
+}
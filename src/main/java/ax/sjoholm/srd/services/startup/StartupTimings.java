@@ -0,0 +1,62 @@
+package ax.sjoholm.srd.services.startup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Breaks the recorded startup steps down into phases and beans. Phases are the top-level steps
+ * (environment preparation, context refresh, …). Bean instantiation steps nest, a bean's step
+ * enclosing those of the dependencies it pulls in, so beans are ranked by self time: their own
+ * duration minus that of the steps directly inside them.
+ */
+public final class StartupTimings {
+
+    public static final String BEAN_STEP = "spring.beans.instantiate";
+
+    public record Step(long id, Long parentId, String name, String bean, Duration duration) {
+    }
+
+    public record Entry(String name, Duration duration) {
+    }
+
+    /**
+     * @param instantiation total self time of all bean instantiation steps
+     */
+    public record Summary(List<Entry> phases, List<Entry> beans, Duration instantiation) {
+    }
+
+    private StartupTimings() {
+    }
+
+    public static Summary summarize(List<Step> steps, int topBeans) {
+        Map<Long, Duration> childTime = new HashMap<>();
+        for (Step step : steps) {
+            if (step.parentId() != null) {
+                childTime.merge(step.parentId(), step.duration(), Duration::plus);
+            }
+        }
+        List<Entry> phases = new ArrayList<>();
+        List<Entry> beans = new ArrayList<>();
+        Duration instantiation = Duration.ZERO;
+        for (Step step : steps) {
+            if (step.parentId() == null) {
+                phases.add(new Entry(step.name(), step.duration()));
+            }
+            if (BEAN_STEP.equals(step.name()) && step.bean() != null) {
+                Duration self = step.duration().minus(childTime.getOrDefault(step.id(), Duration.ZERO));
+                if (self.isNegative()) {
+                    self = Duration.ZERO;
+                }
+                beans.add(new Entry(step.bean(), self));
+                instantiation = instantiation.plus(self);
+            }
+        }
+        beans.sort(Comparator.comparing(Entry::duration).reversed());
+        return new Summary(phases, List.copyOf(beans.subList(0, Math.min(topBeans, beans.size()))),
+                instantiation);
+    }
+}
@@ -0,0 +1,473 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical navigable small world graph (Malkov &amp; Yashunin) for cosine similarity.
+ * <p>
+ * Vectors are normalised on the way in and kept in {@link OffHeapVectors}; the graph itself is
+ * one {@code int[]} neighbour list per node and layer. Every node is on layer 0, and a node is on
+ * layer {@code l} with probability {@code 1/M^l}. A search descends greedily through the sparse
+ * upper layers and then runs a best-first search with a candidate list of size {@code ef} on
+ * layer 0.
+ * <p>
+ * Inserts are serialised, searches run concurrently with each other (read/write lock). Nodes are
+ * never removed from the graph; callers hide deleted nodes with the {@code accept} predicate and
+ * rebuild the index from {@link #vector}s of the live nodes once too many are hidden.
+ */
+public final class HnswIndex {
+
+    /**
+     * A search result: node id and cosine similarity to the query.
+     */
+    public record Hit(int node, float similarity) {
+    }
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final VectorKernels kernels;
+    private final SplittableRandom random;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private OffHeapVectors vectors;
+    // links.get(node)[level] = {count, neighbour...}; linkDistances holds the matching distances, offset by one
+    private final List<int[][]> links = new ArrayList<>();
+    private final List<float[][]> linkDistances = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int m, int efConstruction, long seed) {
+        this(m, efConstruction, seed, VectorKernels.best());
+    }
+
+    HnswIndex(int m, int efConstruction, long seed, VectorKernels kernels) {
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be >= 2");
+        }
+        if (efConstruction < m) {
+            throw new IllegalArgumentException("efConstruction must be >= m");
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.kernels = kernels;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return links.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Dimensions of the indexed vectors, or 0 while the index is empty.
+     */
+    public int dimensions() {
+        lock.readLock().lock();
+        try {
+            return vectors == null ? 0 : vectors.dimensions();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return vectors == null ? 0 : vectors.offHeapBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The stored (unit length) vector of a node.
+     */
+    public float[] vector(int node) {
+        lock.readLock().lock();
+        try {
+            return vectors.get(node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a vector and returns its node id; ids are dense and start at 0.
+     */
+    public int add(float[] vector) {
+        float[] unit = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            if (vectors == null) {
+                vectors = new OffHeapVectors(unit.length);
+            }
+            int node = vectors.add(unit);
+            int level = randomLevel();
+            int[][] nodeLinks = new int[level + 1][];
+            float[][] nodeDistances = new float[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                nodeLinks[l] = new int[(l == 0 ? maxM0 : m) + 1];
+                nodeDistances[l] = new float[nodeLinks[l].length];
+            }
+            links.add(nodeLinks);
+            linkDistances.add(nodeDistances);
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return node;
+            }
+
+            int current = entryPoint;
+            float currentDistance = distance(unit, current);
+            for (int l = maxLevel; l > level; l--) {
+                int[] greedy = greedyClosest(unit, current, currentDistance, l);
+                current = greedy[0];
+                currentDistance = Float.intBitsToFloat(greedy[1]);
+            }
+
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                NodeHeap candidates = searchLayer(unit, current, efConstruction, l, n -> true);
+                int[] nodes = candidates.sortedNodes();
+                float[] distances = candidates.sortedDistances();
+                int count = selectNeighbours(nodes, distances, l == 0 ? maxM0 : m);
+                int[] list = links.get(node)[l];
+                float[] listDistances = linkDistances.get(node)[l];
+                for (int i = 0; i < count; i++) {
+                    list[i + 1] = nodes[i];
+                    listDistances[i + 1] = distances[i];
+                    link(nodes[i], node, distances[i], l);
+                }
+                list[0] = count;
+                current = nodes[0];
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate {@code k} nearest neighbours among the nodes accepted by {@code accept}, most
+     * similar first. Rejected nodes are still traversed, so a restrictive predicate costs more
+     * graph steps but does not disconnect the search.
+     */
+    public List<Hit> search(float[] query, int k, int ef, IntPredicate accept) {
+        float[] unit = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return List.of();
+            }
+            if (unit.length != vectors.dimensions()) {
+                throw new IllegalArgumentException(
+                        "Query has " + unit.length + " dimensions, index has " + vectors.dimensions());
+            }
+            int current = entryPoint;
+            float currentDistance = distance(unit, current);
+            for (int l = maxLevel; l > 0; l--) {
+                int[] greedy = greedyClosest(unit, current, currentDistance, l);
+                current = greedy[0];
+                currentDistance = Float.intBitsToFloat(greedy[1]);
+            }
+            NodeHeap results = searchLayer(unit, current, Math.max(ef, k), 0, accept);
+            return results.toHits(k);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int randomLevel() {
+        double u = 1.0 - random.nextDouble(); // (0, 1]
+        return (int) Math.floor(-Math.log(u) * levelMultiplier);
+    }
+
+    /**
+     * Returns {node, floatBits(distance)} of the closest node reachable greedily on one layer.
+     */
+    private int[] greedyClosest(float[] query, int start, float startDistance, int level) {
+        int current = start;
+        float best = startDistance;
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links.get(current)[level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int candidate = neighbours[i];
+                float d = distance(query, candidate);
+                if (d < best) {
+                    best = d;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return new int[] {current, Float.floatToIntBits(best)};
+    }
+
+    private NodeHeap searchLayer(float[] query, int entry, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(links.size());
+        NodeHeap candidates = new NodeHeap(ef * 2, false);
+        NodeHeap results = new NodeHeap(ef + 1, true);
+
+        float entryDistance = distance(query, entry);
+        visited.set(entry);
+        candidates.push(entry, entryDistance);
+        if (accept.test(entry)) {
+            results.push(entry, entryDistance);
+        }
+
+        while (!candidates.isEmpty()) {
+            float candidateDistance = candidates.topDistance();
+            if (results.size() >= ef && candidateDistance > results.topDistance()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbours = level < links.get(candidate).length ? links.get(candidate)[level] : EMPTY;
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float d = distance(query, neighbour);
+                if (results.size() < ef || d < results.topDistance()) {
+                    candidates.push(neighbour, d);
+                    if (accept.test(neighbour)) {
+                        results.push(neighbour, d);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private static final int[] EMPTY = {0};
+
+    /**
+     * Neighbour selection heuristic: a candidate is kept only if it is closer to the new node than
+     * to every neighbour kept so far, which spreads links in different directions and keeps
+     * clusters connected. Remaining slots are filled with the closest discarded candidates.
+     * Reorders {@code nodes} and {@code distances} (sorted by distance on entry) so that the
+     * selection comes first, and returns its size.
+     */
+    private int selectNeighbours(int[] nodes, float[] distances, int max) {
+        if (nodes.length <= max) {
+            return nodes.length;
+        }
+        int[] selected = new int[max];
+        float[] selectedDistances = new float[max];
+        boolean[] taken = new boolean[nodes.length];
+        int count = 0;
+        for (int i = 0; i < nodes.length && count < max; i++) {
+            float[] candidate = vectors.get(nodes[i]);
+            boolean keep = true;
+            for (int j = 0; j < count; j++) {
+                if (distance(candidate, selected[j]) < distances[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count] = nodes[i];
+                selectedDistances[count++] = distances[i];
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < nodes.length && count < max; i++) {
+            if (!taken[i]) {
+                selected[count] = nodes[i];
+                selectedDistances[count++] = distances[i];
+            }
+        }
+        System.arraycopy(selected, 0, nodes, 0, count);
+        System.arraycopy(selectedDistances, 0, distances, 0, count);
+        return count;
+    }
+
+    /**
+     * Adds the reverse link {@code from -> to}. A full list drops its farthest neighbour if the new
+     * one is closer; the stored distances make that a scan instead of a re-selection.
+     */
+    private void link(int from, int to, float distance, int level) {
+        int[] list = links.get(from)[level];
+        float[] distances = linkDistances.get(from)[level];
+        int count = list[0];
+        if (count < list.length - 1) {
+            list[count + 1] = to;
+            distances[count + 1] = distance;
+            list[0] = count + 1;
+            return;
+        }
+        int farthest = 1;
+        for (int i = 2; i <= count; i++) {
+            if (distances[i] > distances[farthest]) {
+                farthest = i;
+            }
+        }
+        if (distance < distances[farthest]) {
+            list[farthest] = to;
+            distances[farthest] = distance;
+        }
+    }
+
+    private float distance(float[] query, int node) {
+        FloatBuffer page = vectors.page(node);
+        return 1f - kernels.dot(query, page, vectors.offset(node));
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float x : vector) {
+            norm += x * x;
+        }
+        norm = Math.sqrt(norm);
+        float[] out = Arrays.copyOf(vector, vector.length);
+        if (norm > 0) {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = (float) (out[i] / norm);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Binary heap of (node, distance) pairs; a min-heap pops the closest node, a max-heap the
+     * farthest.
+     */
+    private static final class NodeHeap {
+
+        private int[] nodes;
+        private float[] distances;
+        private int size;
+        private final boolean max;
+
+        NodeHeap(int capacity, boolean max) {
+            this.nodes = new int[Math.max(capacity, 4)];
+            this.distances = new float[nodes.length];
+            this.max = max;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        float topDistance() {
+            return distances[0];
+        }
+
+        void push(int node, float distance) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(distance, distances[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            distances[i] = distance;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                float distance = distances[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && before(distances[child + 1], distances[child])) {
+                        child++;
+                    }
+                    if (!before(distances[child], distance)) {
+                        break;
+                    }
+                    nodes[i] = nodes[child];
+                    distances[i] = distances[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                distances[i] = distance;
+            }
+            return top;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        private Integer[] order() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(distances[a], distances[b]));
+            return order;
+        }
+
+        int[] sortedNodes() {
+            Integer[] order = order();
+            int[] out = new int[size];
+            for (int i = 0; i < size; i++) {
+                out[i] = nodes[order[i]];
+            }
+            return out;
+        }
+
+        float[] sortedDistances() {
+            Integer[] order = order();
+            float[] out = new float[size];
+            for (int i = 0; i < size; i++) {
+                out[i] = distances[order[i]];
+            }
+            return out;
+        }
+
+        List<Hit> toHits(int k) {
+            Integer[] order = order();
+            List<Hit> hits = new ArrayList<>(Math.min(k, size));
+            for (int i = 0; i < size && i < k; i++) {
+                hits.add(new Hit(nodes[order[i]], 1f - distances[order[i]]));
+            }
+            return hits;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-process {@link VectorStore} backed by an {@link HnswIndex}, selected with
+ * {@code spring.ai.vectorstore.type=hnsw}. Queries never leave the JVM, which makes it suitable
+ * for tests, offline demos and a single-node low-latency mode.
+ * <p>
+ * Semantics follow the pgvector store with cosine distance: {@code score} is the cosine
+ * similarity, {@code distance} metadata is {@code 1 - score}, the similarity threshold is
+ * inclusive and filter expressions are evaluated on the document metadata. Content lives only in
+ * memory, so documents have to be ingested again after a restart. Deleted and replaced documents
+ * are hidden from searches and their text and metadata are released at once; their nodes stay in
+ * the graph until they make up half of it, when the index is rebuilt from the live documents
+ * (under the write lock, so searches wait for it). A rebuild re-inserts at most as many nodes as
+ * were deleted since the last one, so a corpus re-sync that deletes and re-adds everything does
+ * not grow the store.
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore {
+
+    // deleted nodes are only compacted away once there are this many, so small stores never rebuild
+    private static final int MIN_DELETED_TO_COMPACT = 32;
+
+    private final EmbeddingModel embeddingModel;
+    private final BatchingStrategy batchingStrategy;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private HnswIndex index;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Integer> nodesById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+
+    public HnswVectorStore(EmbeddingModel embeddingModel, BatchingStrategy batchingStrategy, int m, int efConstruction,
+            int efSearch) {
+        this.embeddingModel = embeddingModel;
+        this.batchingStrategy = batchingStrategy;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.index = new HnswIndex(m, efConstruction, 42L);
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = embeddingModel.embed(documents, EmbeddingOptionsBuilder.builder().build(),
+                batchingStrategy);
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                int node = index.add(embeddings.get(i));
+                entries.add(new Entry(document.getId(), document.getText(), Map.copyOf(document.getMetadata())));
+                Integer previous = nodesById.put(document.getId(), node);
+                if (previous != null) {
+                    remove(previous);
+                }
+            }
+            compactIfNeeded();
+            log.debug("Indexed {} documents ({} nodes, {} MiB off-heap)", documents.size(), index.size(),
+                    index.offHeapBytes() >> 20);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer node = nodesById.remove(id);
+                if (node != null) {
+                    remove(node);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        lock.writeLock().lock();
+        try {
+            for (int node = 0; node < entries.size(); node++) {
+                Entry entry = entries.get(node);
+                if (!deleted.get(node) && MetadataFilter.matches(filterExpression, entry.metadata())) {
+                    nodesById.remove(entry.id(), node);
+                    remove(node);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        Filter.Expression filter = request.getFilterExpression();
+
+        lock.readLock().lock();
+        try {
+            IntPredicate accept = filter == null
+                    ? node -> !deleted.get(node)
+                    : node -> !deleted.get(node) && MetadataFilter.matches(filter, entries.get(node).metadata());
+            int k = request.getTopK();
+            List<HnswIndex.Hit> hits = index.search(query, k, Math.max(efSearch, k), accept);
+
+            List<Document> documents = new ArrayList<>(hits.size());
+            for (HnswIndex.Hit hit : hits) {
+                if (hit.similarity() < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                Entry entry = entries.get(hit.node());
+                Map<String, Object> metadata = new HashMap<>(entry.metadata());
+                metadata.put("distance", 1f - hit.similarity());
+                documents.add(Document.builder()
+                        .id(entry.id())
+                        .text(entry.text())
+                        .metadata(metadata)
+                        .score((double) hit.similarity())
+                        .build());
+            }
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "HnswVectorStore";
+    }
+
+    /**
+     * Number of live (not deleted) documents.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodesById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of nodes in the graph, deleted ones included until the next compaction.
+     */
+    public int nodes() {
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void remove(int node) {
+        deleted.set(node);
+        entries.set(node, null);
+    }
+
+    private void compactIfNeeded() {
+        int dead = deleted.cardinality();
+        if (dead < MIN_DELETED_TO_COMPACT || dead * 2 < entries.size()) {
+            return;
+        }
+        long start = System.nanoTime();
+        HnswIndex compacted = new HnswIndex(m, efConstruction, 42L);
+        List<Entry> live = new ArrayList<>(entries.size() - dead);
+        for (int node = 0; node < entries.size(); node++) {
+            if (!deleted.get(node)) {
+                Entry entry = entries.get(node);
+                nodesById.put(entry.id(), compacted.add(index.vector(node)));
+                live.add(entry);
+            }
+        }
+        int before = entries.size();
+        index = compacted;
+        entries.clear();
+        entries.addAll(live);
+        deleted.clear();
+        log.info("Compacted the HNSW index from {} to {} nodes in {} ms", before, live.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private record Entry(String id, String text, Map<String, Object> metadata) {
+    }
+}
@@ -0,0 +1,126 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+/**
+ * Evaluates a portable {@link Filter.Expression} (the one built by {@code SearchRequest.filterExpression})
+ * against a document's metadata, with the semantics of the pgvector JSONPath translation:
+ * numbers compare numerically whatever their boxed type, strings lexicographically, values of
+ * different types (a number and a numeric string, say) are never equal, and a comparison with a
+ * missing key is false.
+ */
+public final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    public static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        return switch (expression.type()) {
+            case AND -> matches(operand(expression.left()), metadata) && matches(operand(expression.right()), metadata);
+            case OR -> matches(operand(expression.left()), metadata) || matches(operand(expression.right()), metadata);
+            case NOT -> !matches(operand(expression.left()), metadata);
+            case EQ -> equal(value(expression, metadata), literal(expression));
+            case NE -> {
+                Object actual = value(expression, metadata);
+                yield actual != null && !equal(actual, literal(expression));
+            }
+            case GT -> compare(expression, metadata, c -> c > 0);
+            case GTE -> compare(expression, metadata, c -> c >= 0);
+            case LT -> compare(expression, metadata, c -> c < 0);
+            case LTE -> compare(expression, metadata, c -> c <= 0);
+            case IN -> in(value(expression, metadata), literal(expression));
+            case NIN -> {
+                Object actual = value(expression, metadata);
+                yield actual != null && !in(actual, literal(expression));
+            }
+            case ISNULL -> value(expression, metadata) == null;
+            case ISNOTNULL -> value(expression, metadata) != null;
+        };
+    }
+
+    private static Filter.Expression operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return group.content();
+        }
+        if (operand instanceof Filter.Expression expression) {
+            return expression;
+        }
+        throw new IllegalArgumentException("Expected an expression, got " + operand);
+    }
+
+    private static Object value(Filter.Expression expression, Map<String, Object> metadata) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw new IllegalArgumentException("Expected a metadata key on the left of " + expression);
+        }
+        return metadata.get(unquote(key.key()));
+    }
+
+    private static Object literal(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("Expected a value on the right of " + expression);
+        }
+        return value.value();
+    }
+
+    private static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("\"") && key.endsWith("\"") || key.startsWith("'") && key.endsWith("'"))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    private static boolean equal(Object actual, Object expected) {
+        if (actual == null || expected == null) {
+            return actual == expected;
+        }
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return compareNumbers(a, e) == 0;
+        }
+        return actual.equals(expected);
+    }
+
+    private static int compareNumbers(Number a, Number e) {
+        if (integral(a) && integral(e)) {
+            return Long.compare(a.longValue(), e.longValue());
+        }
+        return Double.compare(a.doubleValue(), e.doubleValue());
+    }
+
+    private static boolean integral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    private static boolean in(Object actual, Object expected) {
+        if (actual == null) {
+            return false;
+        }
+        Collection<?> values = expected instanceof Collection<?> c ? c : List.of(expected);
+        for (Object value : values) {
+            if (equal(actual, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies {@code test} to the sign of actual - expected; false when the key is missing or the
+     * types do not compare.
+     */
+    private static boolean compare(Filter.Expression expression, Map<String, Object> metadata, IntPredicate test) {
+        Object actual = value(expression, metadata);
+        Object expected = literal(expression);
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return test.test(Integer.signum(compareNumbers(a, e)));
+        }
+        if (actual instanceof String a && expected instanceof String e) {
+            return test.test(Integer.signum(a.compareTo(e)));
+        }
+        return false;
+    }
+}
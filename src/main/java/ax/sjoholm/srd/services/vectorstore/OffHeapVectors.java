@@ -0,0 +1,72 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only store of fixed-length float vectors in direct (off-heap) buffers. Vectors are laid
+ * out contiguously in pages of {@value #VECTORS_PER_PAGE} vectors, so the garbage collector never
+ * scans or copies them and a lookup is a page index plus an offset.
+ * <p>
+ * Not thread-safe; {@link HnswIndex} guards it.
+ */
+final class OffHeapVectors {
+
+    static final int VECTORS_PER_PAGE = 1 << 14;
+
+    private final int dimensions;
+    private final List<FloatBuffer> pages = new ArrayList<>();
+    private int size;
+
+    OffHeapVectors(int dimensions) {
+        if (dimensions < 1) {
+            throw new IllegalArgumentException("dimensions must be >= 1");
+        }
+        this.dimensions = dimensions;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long offHeapBytes() {
+        return (long) pages.size() * VECTORS_PER_PAGE * dimensions * Float.BYTES;
+    }
+
+    int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        int id = size;
+        int slot = id % VECTORS_PER_PAGE;
+        if (slot == 0) {
+            pages.add(ByteBuffer.allocateDirect(VECTORS_PER_PAGE * dimensions * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+        pages.get(id / VECTORS_PER_PAGE).put(slot * dimensions, vector);
+        size++;
+        return id;
+    }
+
+    FloatBuffer page(int id) {
+        return pages.get(id / VECTORS_PER_PAGE);
+    }
+
+    int offset(int id) {
+        return (id % VECTORS_PER_PAGE) * dimensions;
+    }
+
+    float[] get(int id) {
+        float[] out = new float[dimensions];
+        page(id).get(offset(id), out);
+        return out;
+    }
+}
@@ -0,0 +1,24 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.nio.FloatBuffer;
+
+final class ScalarVectorKernels implements VectorKernels {
+
+    @Override
+    public float dot(float[] query, FloatBuffer store, int offset) {
+        int n = query.length;
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        // independent accumulators let the CPU overlap the multiply-adds
+        for (; i + 3 < n; i += 4) {
+            s0 += query[i] * store.get(offset + i);
+            s1 += query[i + 1] * store.get(offset + i + 1);
+            s2 += query[i + 2] * store.get(offset + i + 2);
+            s3 += query[i + 3] * store.get(offset + i + 3);
+        }
+        for (; i < n; i++) {
+            s0 += query[i] * store.get(offset + i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
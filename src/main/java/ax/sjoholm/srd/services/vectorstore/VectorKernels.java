@@ -0,0 +1,54 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.nio.FloatBuffer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Distance kernels for {@link HnswIndex}. Vectors are unit length, so cosine similarity is a
+ * plain dot product.
+ */
+interface VectorKernels {
+
+    /**
+     * Dot product of {@code query} with the {@code query.length} floats stored at {@code offset}.
+     */
+    float dot(float[] query, FloatBuffer store, int offset);
+
+    /**
+     * The SIMD kernels when the {@code jdk.incubator.vector} module is present at runtime
+     * (the JVM was started with {@code --add-modules jdk.incubator.vector}), otherwise scalar ones.
+     * The SIMD kernels are compiled in the {@code simd} source set and looked up by name, so the
+     * rest of the code compiles without the incubating module.
+     */
+    static VectorKernels best() {
+        return Holder.BEST;
+    }
+
+    @Slf4j
+    final class Holder {
+
+        private static final String SIMD_KERNELS = VectorKernels.class.getPackageName() + ".SimdVectorKernels";
+
+        private static final VectorKernels BEST = select();
+
+        private Holder() {
+        }
+
+        private static VectorKernels select() {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    VectorKernels simd = (VectorKernels) Class.forName(SIMD_KERNELS).getDeclaredConstructor()
+                            .newInstance();
+                    log.info("Using Vector API distance kernels ({})", simd);
+                    return simd;
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    log.warn("Vector API present but unusable, falling back to scalar kernels", e);
+                }
+            } else {
+                log.info("Using scalar distance kernels; start the JVM with --add-modules jdk.incubator.vector for SIMD");
+            }
+            return new ScalarVectorKernels();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Blue/green generations of the pgvector table. Chunks live in numbered tables
+ * ({@code vector_store_g1}, {@code vector_store_g2}, …) and the configured table name is a view
+ * on the active one, so the vector store, the full-text search and the statute lookup keep
+ * reading (and incremental ingestion keeps writing) through the same name.
+ * <p>
+ * A full re-ingestion writes into a new shadow generation that has no vector index yet.
+ * {@link #activate} then builds the indexes on the loaded table and replaces the view in one
+ * transaction: queries see the previous generation until the commit and the new one after it.
+ * The {@code retained} generations before the active one are kept for a manual rollback; older
+ * ones are dropped.
+ * <p>
+ * A plain table left by an earlier version is adopted as generation 1 on startup, its indexes
+ * renamed to the generation's names so they are not built a second time.
+ */
+@Slf4j
+public class VectorTableGenerations {
+
+    public record Generation(int number, String table, PgVectorStore store) {
+    }
+
+    // index created by PgVectorStore itself when it manages the table
+    private static final String STORE_INDEX = "spring_ai_vector_index";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String schema;
+    private final String view;
+    private final Pattern generationTable;
+    private final Function<String, PgVectorStore> storeFactory;
+    private final List<Consumer<String>> tableInitializers;
+    private final String vectorIndex;
+    private final int retained;
+
+    /**
+     * @param storeFactory      creates (without vector index) and returns a store on the given table
+     * @param tableInitializers add the full-text column and the metadata and quantized indexes to a table
+     * @param vectorIndex       index method and operator class of the embedding index, e.g.
+     *                          {@code hnsw (embedding vector_cosine_ops)}, or {@code null} for none
+     */
+    public VectorTableGenerations(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, String schema,
+            String view, Function<String, PgVectorStore> storeFactory, List<Consumer<String>> tableInitializers,
+            String vectorIndex, int retained) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.schema = schema;
+        this.view = view;
+        this.generationTable = Pattern.compile(Pattern.quote(view) + "_g(\\d+)");
+        this.storeFactory = storeFactory;
+        this.tableInitializers = tableInitializers;
+        this.vectorIndex = vectorIndex;
+        this.retained = retained;
+    }
+
+    /**
+     * Makes the view point at a generation: adopts a plain table, creates an empty first
+     * generation when there is nothing yet, and drops shadow generations of an interrupted
+     * re-ingestion. With {@code recreate} every generation is dropped first.
+     */
+    public synchronized void initialize(boolean recreate) {
+        if (recreate) {
+            log.info("Dropping all generations of {}", qualified(view));
+            switch (relationKind(view)) {
+                case "v" -> jdbcTemplate.execute("DROP VIEW " + qualified(view));
+                case "r" -> jdbcTemplate.execute("DROP TABLE " + qualified(view));
+                default -> {
+                }
+            }
+            generations().values().forEach(this::drop);
+        }
+        switch (relationKind(view)) {
+            case "r" -> adopt(table(1));
+            case "v" -> {
+                int active = active().orElseThrow(
+                        () -> new IllegalStateException(qualified(view) + " is not a view on a generation table"));
+                generations().tailMap(active, false).values().forEach(this::drop);
+                log.info("{} reads generation {}", qualified(view), active);
+            }
+            default -> activate(createShadow());
+        }
+    }
+
+    /**
+     * The number of the generation the view reads, if it is one.
+     */
+    public OptionalInt active() {
+        List<String> tables = jdbcTemplate.queryForList(
+                "SELECT table_name FROM information_schema.view_table_usage WHERE view_schema = ? AND view_name = ?",
+                String.class, schema, view);
+        for (String table : tables) {
+            Matcher m = generationTable.matcher(table);
+            if (m.matches()) {
+                return OptionalInt.of(Integer.parseInt(m.group(1)));
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    /**
+     * Creates the table of the next generation and a store writing into it.
+     */
+    public synchronized Generation createShadow() {
+        TreeMap<Integer, String> existing = generations();
+        int number = existing.isEmpty() ? 1 : existing.lastKey() + 1;
+        String table = table(number);
+        PgVectorStore store = storeFactory.apply(table);
+        try {
+            store.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot create vector table " + qualified(table), e);
+        }
+        log.info("Created shadow generation {} ({})", number, qualified(table));
+        return new Generation(number, table, store);
+    }
+
+    /**
+     * Builds the indexes of a loaded generation, points the view at it and drops the
+     * generations that are no longer retained.
+     */
+    public synchronized void activate(Generation generation) {
+        long start = System.nanoTime();
+        prepare(generation.table());
+        transactionTemplate.executeWithoutResult(tx -> {
+            jdbcTemplate.execute("DROP VIEW IF EXISTS " + qualified(view));
+            jdbcTemplate.execute("CREATE VIEW " + qualified(view) + " AS SELECT * FROM " + qualified(generation.table()));
+        });
+        log.info("{} switched to generation {} ({} ms to index and switch)", qualified(view), generation.number(),
+                (System.nanoTime() - start) / 1_000_000);
+        generations().headMap(generation.number() - retained, false).values().forEach(this::drop);
+    }
+
+    /**
+     * Drops a shadow generation that will not be activated, e.g. after a failed re-ingestion.
+     */
+    public synchronized void discard(Generation generation) {
+        if (active().orElse(-1) != generation.number()) {
+            drop(generation.table());
+        }
+    }
+
+    private void adopt(String table) {
+        log.info("Adopting table {} as generation 1", qualified(view));
+        transactionTemplate.executeWithoutResult(tx -> {
+            jdbcTemplate.execute("ALTER TABLE " + qualified(view) + " RENAME TO " + table);
+            for (String index : jdbcTemplate.queryForList(
+                    "SELECT indexname FROM pg_indexes WHERE schemaname = ? AND tablename = ?",
+                    String.class, schema, table)) {
+                String renamed = index.equals(STORE_INDEX) ? table + "_embedding_idx"
+                        : index.startsWith(view + "_") ? table + index.substring(view.length())
+                        : null;
+                if (renamed != null) {
+                    jdbcTemplate.execute("ALTER INDEX " + qualified(index) + " RENAME TO " + renamed);
+                }
+            }
+        });
+        activate(new Generation(1, table, null));
+    }
+
+    private void prepare(String table) {
+        tableInitializers.forEach(initializer -> initializer.accept(table));
+        if (vectorIndex != null) {
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_embedding_idx ON " + qualified(table)
+                    + " USING " + vectorIndex);
+        }
+        jdbcTemplate.execute("ANALYZE " + qualified(table));
+    }
+
+    private TreeMap<Integer, String> generations() {
+        TreeMap<Integer, String> generations = new TreeMap<>();
+        for (String table : jdbcTemplate.queryForList(
+                "SELECT c.relname FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace"
+                        + " WHERE n.nspname = ? AND c.relkind = 'r' AND c.relname LIKE ?",
+                String.class, schema, view + "\\_g%")) {
+            Matcher m = generationTable.matcher(table);
+            if (m.matches()) {
+                generations.put(Integer.parseInt(m.group(1)), table);
+            }
+        }
+        return generations;
+    }
+
+    private String relationKind(String name) {
+        List<String> kinds = jdbcTemplate.queryForList(
+                "SELECT c.relkind::text FROM pg_class c JOIN pg_namespace n ON n.oid = c.relnamespace"
+                        + " WHERE n.nspname = ? AND c.relname = ?",
+                String.class, schema, name);
+        return kinds.isEmpty() ? "" : kinds.getFirst();
+    }
+
+    private void drop(String table) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + qualified(table));
+        log.info("Dropped vector table generation {}", qualified(table));
+    }
+
+    private String table(int number) {
+        return view + "_g" + number;
+    }
+
+    private String qualified(String name) {
+        return schema + "." + name;
+    }
+}
@@ -0,0 +1,53 @@
+package ax.sjoholm.srd.services.vectorstore;
+
+import java.nio.FloatBuffer;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernels. Only loaded, reflectively, when {@code jdk.incubator.vector} is in the boot
+ * layer. They are their own source set so that only this class is compiled against the incubating
+ * module.
+ * <p>
+ * On Java 21 the Vector API can load from heap arrays or from the preview {@code MemorySegment}
+ * API, not from a {@code ByteBuffer}, so the stored vector is first bulk-copied into a per-thread
+ * scratch array (a plain memory copy) and the dot product runs over the two arrays.
+ */
+final class SimdVectorKernels implements VectorKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[0]);
+
+    @Override
+    public String toString() {
+        return SPECIES.vectorBitSize() + "-bit, " + SPECIES.length() + " lanes";
+    }
+
+    @Override
+    public float dot(float[] query, FloatBuffer store, int offset) {
+        int n = query.length;
+        float[] stored = SCRATCH.get();
+        if (stored.length < n) {
+            stored = new float[n];
+            SCRATCH.set(stored);
+        }
+        store.get(offset, stored, 0, n);
+
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int upper = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < upper; i += SPECIES.length()) {
+            FloatVector a = FloatVector.fromArray(SPECIES, query, i);
+            FloatVector b = FloatVector.fromArray(SPECIES, stored, i);
+            acc = a.fma(b, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += query[i] * stored[i];
+        }
+        return sum;
+    }
+}
@@ -3,7 +3,8 @@ package ax.sjoholm.srd;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// the in-process vector store lets the context load without Postgres
+@SpringBootTest(properties = "spring.ai.vectorstore.type=hnsw")
 class SpringRagDemoApplicationTests {
 
 	@Test
@@ -0,0 +1,26 @@
+package ax.sjoholm.srd;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * Chunk documents for the unit tests, with their metadata given as key/value pairs.
+ */
+public final class TestDocuments {
+
+    private TestDocuments() {
+    }
+
+    public static Document chunk(String id, String text, Object... metadata) {
+        if (metadata.length % 2 != 0) {
+            throw new IllegalArgumentException("Metadata must be key/value pairs");
+        }
+        Map<String, Object> md = new HashMap<>();
+        for (int i = 0; i < metadata.length; i += 2) {
+            md.put((String) metadata[i], metadata[i + 1]);
+        }
+        return new Document(id, text, md);
+    }
+}
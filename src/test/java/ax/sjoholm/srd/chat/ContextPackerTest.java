@@ -0,0 +1,73 @@
+package ax.sjoholm.srd.chat;
+
+import static ax.sjoholm.srd.TestDocuments.chunk;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ax.sjoholm.srd.services.chat.ContextPacker;
+
+@DisplayName("ContextPacker")
+class ContextPackerTest {
+
+    private static final String HEADER = "[law=E 1 | Kommunallag | kap 2 | § 5 | url=null]";
+
+    @Test
+    @DisplayName("stitches the chunks of a section under one header and drops duplicates")
+    void stitchesSection() {
+        var first = chunk("a", HEADER + "\n5 §. Fullmäktige sammanträder", "law_code", "E 1", "section_no", "5", "chunk_index", 0, "token_count", 100);
+        var second = chunk("b", "minst fyra gånger per år.", "law_code", "E 1", "section_no", "5", "chunk_index", 1, "token_count", 100);
+        var copy = chunk("c", HEADER + "\n5 §. Fullmäktige sammanträder", "law_code", "E 1", "section_no", "5", "chunk_index", 0, "token_count", 100);
+
+        ContextPacker.Packed packed = new ContextPacker(1000).pack(List.of(second, first, copy));
+
+        assertThat(packed.text()).isEqualTo(HEADER + "\n5 §. Fullmäktige sammanträder\nminst fyra gånger per år.");
+        assertThat(packed.chunks()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("marks a gap between chunks that are not neighbours")
+    void marksGap() {
+        var first = chunk("a", HEADER + "\nbörjan", "law_code", "E 1", "section_no", "5", "chunk_index", 0, "token_count", 100);
+        var third = chunk("b", "slutet", "law_code", "E 1", "section_no", "5", "chunk_index", 2, "token_count", 100);
+
+        String text = new ContextPacker(1000).pack(List.of(first, third)).text();
+
+        assertThat(text).isEqualTo(HEADER + "\nbörjan\n…\nslutet");
+    }
+
+    @Test
+    @DisplayName("keeps sections in retrieval order and skips chunks over the token budget")
+    void respectsBudget() {
+        var best = chunk("a", "[law=E 1 | x | kap 1 | § 1 | url=null]\nett", "law_code", "E 1", "section_no", "1", "chunk_index", 0, "token_count", 900);
+        var large = chunk("b", "[law=E 1 | x | kap 1 | § 2 | url=null]\ntvå", "law_code", "E 1", "section_no", "2", "chunk_index", 0, "token_count", 900);
+        var small = chunk("c", "[law=E 1 | x | kap 1 | § 3 | url=null]\ntre", "law_code", "E 1", "section_no", "3", "chunk_index", 0, "token_count", 50);
+
+        ContextPacker.Packed packed = new ContextPacker(1000).pack(List.of(best, large, small));
+
+        assertThat(packed.chunks()).isEqualTo(2);
+        assertThat(packed.text()).contains("ett").contains("tre").doesNotContain("två");
+        assertThat(packed.text().indexOf("ett")).isLessThan(packed.text().indexOf("tre"));
+    }
+
+    @Test
+    @DisplayName("leaves the tokens of the conversation out of the budget")
+    void reservesConversationTokens() {
+        var best = chunk("a", "[law=E 1 | x | kap 1 | § 1 | url=null]\nett", "law_code", "E 1", "section_no", "1", "chunk_index", 0, "token_count", 400);
+        var next = chunk("b", "[law=E 1 | x | kap 1 | § 2 | url=null]\ntvå", "law_code", "E 1", "section_no", "2", "chunk_index", 0, "token_count", 400);
+
+        assertThat(new ContextPacker(1000).pack(List.of(best, next)).chunks()).isEqualTo(2);
+        assertThat(new ContextPacker(1000).pack(List.of(best, next), 500).chunks()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("always keeps the best chunk")
+    void keepsBestChunk() {
+        var huge = chunk("a", HEADER + "\nlång text", "law_code", "E 1", "section_no", "5", "chunk_index", 0, "token_count", 5000);
+
+        assertThat(new ContextPacker(1000).pack(List.of(huge)).chunks()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,94 @@
+package ax.sjoholm.srd.chat;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.chat.ConversationMemory;
+import ax.sjoholm.srd.services.chat.ConversationMemory.Conversation;
+
+@DisplayName("ConversationMemory")
+class ConversationMemoryTest {
+
+    private static final String QUESTION = "Hur många ledamöter ska kommunfullmäktige ha enligt kommunallagen?";
+
+    @Test
+    @DisplayName("condenses a follow-up question with the topic of the conversation")
+    void condensesFollowUp() {
+        var memory = new ConversationMemory(props(4, 600, 5000));
+        memory.record("c1", QUESTION, "Antalet ledamöter bestäms av fullmäktige. Se 3 § kommunallagen.");
+        Conversation conversation = memory.get("c1");
+
+        assertThat(memory.retrievalQuery(conversation, "Och hur väljs de?")).isEqualTo("Och hur väljs de? " + QUESTION);
+        String standalone = "Vilka uppgifter har landskapsregeringen enligt lagen om radio- och televisionsverksamhet?";
+        assertThat(memory.retrievalQuery(conversation, standalone)).isEqualTo(standalone);
+        assertThat(memory.retrievalQuery(Conversation.EMPTY, "Och hur väljs de?")).isEqualTo("Och hur väljs de?");
+    }
+
+    @Test
+    @DisplayName("retrieves a short question that names its own subject as it is")
+    void keepsShortStandaloneQuestion() {
+        var memory = new ConversationMemory(props(4, 600, 5000));
+        memory.record("c1", QUESTION, "Antalet ledamöter bestäms av fullmäktige.");
+        Conversation conversation = memory.get("c1");
+
+        assertThat(memory.retrievalQuery(conversation, "Vad säger jaktlagen?")).isEqualTo("Vad säger jaktlagen?");
+        assertThat(memory.retrievalQuery(conversation, "Vad gäller enligt 12 §?")).isEqualTo("Vad gäller enligt 12 §?");
+        assertThat(memory.retrievalQuery(conversation, "Hur väljs de?")).isEqualTo("Hur väljs de? " + QUESTION);
+    }
+
+    @Test
+    @DisplayName("keeps every turn of answers recorded concurrently")
+    void recordsConcurrently() {
+        var memory = new ConversationMemory(props(100, 100_000, 5000));
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            IntStream.range(0, 50).forEach(i -> executor.submit(() -> memory.record("c1", QUESTION, "Svar " + i + ".")));
+        }
+
+        assertThat(memory.get("c1").turns()).hasSize(50);
+    }
+
+    @Test
+    @DisplayName("folds turns beyond the window into the summary")
+    void foldsOldTurns() {
+        var memory = new ConversationMemory(props(2, 600, 5000));
+        memory.record("c1", "Fråga ett om kommunallagen och fullmäktige?", "Svar ett. Mer text.");
+        memory.record("c1", "Fråga två om kommunallagen och styrelsen?", "Svar två.");
+        memory.record("c1", "Fråga tre om kommunallagen och revisionen?", "Svar tre.");
+
+        Conversation conversation = memory.get("c1");
+
+        assertThat(conversation.turns()).extracting(ConversationMemory.Turn::answer).containsExactly("Svar två.", "Svar tre.");
+        assertThat(conversation.summary()).isEqualTo("- Fråga ett om kommunallagen och fullmäktige? → Svar ett.");
+        assertThat(memory.promptContext(conversation))
+                .contains("Fråga ett om kommunallagen och fullmäktige? → Svar ett.")
+                .contains("Svar: Svar tre.")
+                .doesNotContain("Mer text.");
+    }
+
+    @Test
+    @DisplayName("evicts the least recently used conversation beyond the cap")
+    void evictsLeastRecentlyUsed() {
+        var memory = new ConversationMemory(props(4, 600, 2));
+        memory.record("a", QUESTION, "Svar a.");
+        memory.record("b", QUESTION, "Svar b.");
+        memory.get("a");
+        memory.record("c", QUESTION, "Svar c.");
+
+        assertThat(memory.get("a").hasHistory()).isTrue();
+        assertThat(memory.get("b").hasHistory()).isFalse();
+        assertThat(memory.get("c").hasHistory()).isTrue();
+    }
+
+    private static RagProperties.Memory props(int maxTurns, int windowTokens, int maxConversations) {
+        return new RagProperties.Memory(true, RagProperties.Memory.Store.MEMORY, maxTurns, windowTokens, 250,
+                maxConversations, 2_000_000, Duration.ofHours(2), "rag_conversation");
+    }
+}
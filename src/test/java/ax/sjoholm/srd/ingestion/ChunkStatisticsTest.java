@@ -0,0 +1,72 @@
+package ax.sjoholm.srd.ingestion;
+
+import static ax.sjoholm.srd.TestDocuments.chunk;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import ax.sjoholm.srd.services.ingestion.ChunkStatistics;
+
+@DisplayName("ChunkStatistics")
+class ChunkStatisticsTest {
+
+    @Test
+    @DisplayName("computes length percentiles and the length histogram in one pass")
+    void lengthDistribution() {
+        var statistics = new ChunkStatistics();
+        List<Document> chunks = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            chunks.add(chunk("c" + i, "x".repeat(i * 10), "law_code", "L1", "token_count", i));
+        }
+        statistics.documentSplit(section(Map.of()), chunks);
+
+        ChunkStatistics.Report report = statistics.report(1, Duration.ofSeconds(1));
+
+        assertThat(report.chars().count()).isEqualTo(100);
+        assertThat(report.chars().min()).isEqualTo(10);
+        assertThat(report.chars().max()).isEqualTo(1000);
+        // within one 25-character bucket of the exact percentile
+        assertThat(report.chars().p50()).isBetween(500L, 524L);
+        assertThat(report.chars().p90()).isBetween(900L, 924L);
+        assertThat(report.tokens().total()).isEqualTo(5050);
+        assertThat(report.tokens().p50()).isBetween(50L, 53L);
+        assertThat(report.chars().histogram()).containsEntry("<50", 4L).containsEntry("<200", 15L)
+                .containsEntry("<500", 30L).containsEntry("<1000", 50L).containsEntry(">=4000", 0L);
+        assertThat(report.throughput().chunksPerSecond()).isEqualTo(100.0);
+    }
+
+    @Test
+    @DisplayName("counts chunks per law and merged and subchunked sections once each")
+    void sections() {
+        var statistics = new ChunkStatistics();
+        statistics.documentSplit(section(Map.of("merged_from_sections", "1 §,2 §")),
+                List.of(chunk("a", "a", "law_code", "L1", "token_count", 1)));
+        statistics.documentSplit(section(Map.of("subchunk_index", 0, "subchunk_total", 2)),
+                List.of(chunk("b", "b", "law_code", "L2", "token_count", 1), chunk("c", "c", "law_code", "L2", "token_count", 1)));
+        statistics.documentSplit(section(Map.of("subchunk_index", 1, "subchunk_total", 2)),
+                List.of(chunk("d", "d", "law_code", "L2", "token_count", 1)));
+        statistics.documentSplit(section(Map.of("merged_from_sections", "3 §", "subchunk_index", 0, "subchunk_total", 2)),
+                List.of(chunk("e", "e", "law_code", "L3", "token_count", 1)));
+        statistics.documentSplit(section(Map.of("merged_from_sections", "3 §", "subchunk_index", 1, "subchunk_total", 2)),
+                List.of(chunk("f", "f", "law_code", "L3", "token_count", 1)));
+        statistics.stageDrained("reading", 5_000_000);
+
+        ChunkStatistics.Report report = statistics.report(5, Duration.ofSeconds(1));
+
+        assertThat(report.sections()).isEqualTo(new ChunkStatistics.Sections(5, 2, 3, 2, 4, 1));
+        assertThat(report.chunksPerLaw()).containsExactly(Map.entry("L2", 3L), Map.entry("L3", 2L),
+                Map.entry("L1", 1L));
+        assertThat(report.stageMillis()).containsEntry("reading", 5L);
+    }
+
+    private static Document section(Map<String, Object> metadata) {
+        return new Document("section", metadata);
+    }
+}
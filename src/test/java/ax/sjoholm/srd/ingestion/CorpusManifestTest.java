@@ -0,0 +1,129 @@
+package ax.sjoholm.srd.ingestion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import ax.sjoholm.srd.services.ingestion.CorpusManifest;
+
+@DisplayName("CorpusManifest")
+class CorpusManifestTest {
+
+    @TempDir
+    Path corpus;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Test
+    @DisplayName("reports new files as added and keeps their entries pending")
+    void added() throws IOException {
+        CorpusManifest manifest = manifest();
+
+        CorpusManifest.Diff diff = manifest.diff(files(write("a.pdf", "alpha"), write("b.pdf", "beta")));
+
+        assertThat(diff.added()).containsExactly("a.pdf", "b.pdf");
+        assertThat(diff.changed()).isEmpty();
+        assertThat(diff.removed()).isEmpty();
+        assertThat(diff.pending()).containsOnlyKeys("a.pdf", "b.pdf");
+        assertThat(diff.isEmpty()).isFalse();
+        // entries are only recorded once the run has succeeded
+        assertThat(manifest.entries()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("reports a file with new content as changed and a vanished one as removed")
+    void changedAndRemoved() throws IOException {
+        CorpusManifest manifest = manifest();
+        Path a = write("a.pdf", "alpha");
+        Path b = write("b.pdf", "beta");
+        record(manifest, manifest.diff(files(a, b)));
+
+        write("a.pdf", "alpha, amended");
+        Files.delete(b);
+        CorpusManifest.Diff diff = manifest.diff(files(a));
+
+        assertThat(diff.added()).isEmpty();
+        assertThat(diff.changed()).containsExactly("a.pdf");
+        assertThat(diff.removed()).containsExactly("b.pdf");
+        assertThat(diff.unchanged()).isZero();
+        assertThat(diff.pending().get("a.pdf").sha256()).isNotEqualTo(manifest.get("a.pdf").sha256());
+    }
+
+    @Test
+    @DisplayName("counts a touched file with the same content as unchanged and records its new timestamp")
+    void touched() throws IOException {
+        CorpusManifest manifest = manifest();
+        Path a = write("a.pdf", "alpha");
+        record(manifest, manifest.diff(files(a)));
+        long before = manifest.get("a.pdf").lastModified();
+
+        Files.setLastModifiedTime(a, FileTime.fromMillis(before + 60_000));
+        CorpusManifest.Diff diff = manifest.diff(files(a));
+
+        assertThat(diff.isEmpty()).isTrue();
+        assertThat(diff.unchanged()).isEqualTo(1);
+        assertThat(diff.touched()).isTrue();
+        assertThat(manifest.get("a.pdf").lastModified()).isEqualTo(before + 60_000);
+
+        assertThat(manifest.diff(files(a)).touched()).isFalse();
+    }
+
+    @Test
+    @DisplayName("does not hash a file whose size and timestamp match its entry")
+    void trustsSizeAndTimestamp() throws IOException {
+        CorpusManifest manifest = manifest();
+        Path a = write("a.pdf", "alpha");
+        manifest.put("a.pdf", new CorpusManifest.Entry("not-a-checksum", Files.size(a),
+                Files.getLastModifiedTime(a).toMillis(), null));
+
+        CorpusManifest.Diff diff = manifest.diff(files(a));
+
+        assertThat(diff.isEmpty()).isTrue();
+        assertThat(diff.unchanged()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("reads back what it saved")
+    void saveAndLoad() throws IOException {
+        Path file = corpus.resolve(".ingestion-manifest.json");
+        CorpusManifest manifest = CorpusManifest.empty(file, objectMapper);
+        record(manifest, manifest.diff(files(write("a.pdf", "alpha"))));
+        manifest.save();
+
+        assertThat(CorpusManifest.load(file, objectMapper).entries()).isEqualTo(manifest.entries());
+    }
+
+    private CorpusManifest manifest() {
+        return CorpusManifest.empty(corpus.resolve(".ingestion-manifest.json"), objectMapper);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(corpus.resolve(name), content);
+    }
+
+    private static Map<String, Path> files(Path... paths) {
+        Map<String, Path> files = new TreeMap<>();
+        for (Path path : paths) {
+            files.put(path.getFileName().toString(), path);
+        }
+        return files;
+    }
+
+    // what a successful sync stores
+    private static void record(CorpusManifest manifest, CorpusManifest.Diff diff) {
+        diff.pending().forEach(manifest::put);
+        diff.removed().forEach(manifest::remove);
+    }
+}
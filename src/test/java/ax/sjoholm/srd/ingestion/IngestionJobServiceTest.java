@@ -0,0 +1,98 @@
+package ax.sjoholm.srd.ingestion;
+
+import static ax.sjoholm.srd.TestDocuments.chunk;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+import org.springframework.core.metrics.ApplicationStartup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import ax.sjoholm.srd.configuration.RagProperties;
+import ax.sjoholm.srd.services.ingestion.ChunkStatistics;
+import ax.sjoholm.srd.services.ingestion.CorpusIngestion;
+import ax.sjoholm.srd.services.ingestion.IngestionDtos;
+import ax.sjoholm.srd.services.ingestion.IngestionJob;
+import ax.sjoholm.srd.services.ingestion.IngestionJobService;
+import ax.sjoholm.srd.services.ingestion.IngestionRunStore;
+import ax.sjoholm.srd.services.ingestion.IngestionService;
+import ax.sjoholm.srd.services.startup.StartupTasks;
+
+@DisplayName("IngestionJobService")
+class IngestionJobServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("lists runs newest first with the token change against the previous successful run")
+    void runs() {
+        var store = new IngestionRunStore(directory, 10,
+                new ObjectMapper().registerModule(new JavaTimeModule()));
+        store.save(run("a", "SUCCEEDED", 1_000, 1000));
+        store.save(run("b", "FAILED", 2_000, 5000));
+        store.save(run("c", "SUCCEEDED", 3_000, 1100));
+        store.save(run("d", "CANCELLED", 4_000, null));
+
+        List<IngestionDtos.RunSummary> runs = service(store, new StartupTasks(false, Duration.ofSeconds(1),
+                ApplicationStartup.DEFAULT)).runs();
+
+        assertThat(runs).extracting(IngestionDtos.RunSummary::id).containsExactly("d", "c", "b", "a");
+        assertThat(runs).extracting(IngestionDtos.RunSummary::tokensChangePercent)
+                .containsExactly(null, 10.0, 400.0, null);
+    }
+
+    @Test
+    @DisplayName("fails a job whose startup tasks are not done within rag.startup.await-timeout")
+    void failsWhenStartupTasksHang() {
+        var store = new IngestionRunStore(directory, 10,
+                new ObjectMapper().registerModule(new JavaTimeModule()));
+        var startupTasks = new StartupTasks(true, Duration.ofSeconds(1), ApplicationStartup.DEFAULT);
+        // never started, so it stays pending
+        startupTasks.add("schema", () -> {
+        });
+
+        IngestionJob job = service(store, startupTasks).submit();
+
+        assertThat(job.status()).isEqualTo(IngestionJob.Status.FAILED);
+        assertThat(store.find(job.id())).map(IngestionDtos.JobStatus::error).get().asString()
+                .contains("Startup tasks not done", "[schema]");
+    }
+
+    // jobs run on the calling thread
+    private static IngestionJobService service(IngestionRunStore store, StartupTasks startupTasks) {
+        RagProperties props = new Binder(new MapConfigurationPropertySource(
+                Map.of("rag.top-k", "4", "rag.startup.await-timeout", "50ms")))
+                .bind("rag", RagProperties.class)
+                .get();
+        return new IngestionJobService(null, new StaticListableBeanFactory().getBeanProvider(CorpusIngestion.class),
+                Runnable::run, startupTasks, store, props);
+    }
+
+    private static IngestionDtos.JobStatus run(String id, String status, long finishedMillis, Integer tokens) {
+        IngestionService.IngestionReport report = null;
+        if (tokens != null) {
+            var statistics = new ChunkStatistics();
+            Document chunk = chunk(id, "text", "law_code", "L1", "token_count", tokens);
+            statistics.documentSplit(chunk, List.of(chunk));
+            report = new IngestionService.IngestionReport(1, 1, 1, 1,
+                    statistics.report(1, Duration.ofSeconds(1)), null);
+        }
+        Instant finished = Instant.ofEpochMilli(finishedMillis);
+        return new IngestionDtos.JobStatus(id, status, "DONE", 1, 1, 1, null, null, finished, finished, finished,
+                report, null);
+    }
+}
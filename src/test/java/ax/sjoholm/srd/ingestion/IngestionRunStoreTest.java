@@ -0,0 +1,84 @@
+package ax.sjoholm.srd.ingestion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import ax.sjoholm.srd.services.ingestion.IngestionDtos;
+import ax.sjoholm.srd.services.ingestion.IngestionRunStore;
+
+@DisplayName("IngestionRunStore")
+class IngestionRunStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Test
+    @DisplayName("lists the stored runs newest first and finds them by id")
+    void listsNewestFirst() {
+        var store = new IngestionRunStore(directory, 10, objectMapper);
+        store.save(run("a", 1_000));
+        store.save(run("b", 3_000));
+        store.save(run("c", 2_000));
+
+        assertThat(store.list()).extracting(IngestionDtos.JobStatus::id).containsExactly("b", "c", "a");
+        assertThat(store.find("c")).map(IngestionDtos.JobStatus::finishedAt).contains(Instant.ofEpochMilli(2_000));
+        assertThat(store.find("d")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("keeps only the newest runs within the retention")
+    void prunesBeyondRetention() throws IOException {
+        var store = new IngestionRunStore(directory, 2, objectMapper);
+        store.save(run("a", 1_000));
+        store.save(run("b", 2_000));
+        store.save(run("c", 3_000));
+
+        assertThat(store.list()).extracting(IngestionDtos.JobStatus::id).containsExactly("c", "b");
+        assertThat(store.find("a")).isEmpty();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).hasSize(2);
+        }
+    }
+
+    @Test
+    @DisplayName("stores nothing with a retention of zero")
+    void retainsNothing() {
+        var store = new IngestionRunStore(directory, 0, objectMapper);
+        store.save(run("a", 1_000));
+
+        assertThat(store.list()).isEmpty();
+    }
+
+    @Test
+    @DisplayName("rejects run ids that could name a file outside the directory")
+    void validatesIds() {
+        var store = new IngestionRunStore(directory, 10, objectMapper);
+        store.save(run("a", 1_000));
+
+        assertThat(store.find("../a")).isEmpty();
+        assertThat(store.find("*")).isEmpty();
+        assertThatThrownBy(() -> store.save(run("../a", 2_000))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(store.list()).hasSize(1);
+    }
+
+    private static IngestionDtos.JobStatus run(String id, long finishedMillis) {
+        Instant finished = Instant.ofEpochMilli(finishedMillis);
+        return new IngestionDtos.JobStatus(id, "SUCCEEDED", "DONE", 1, 1, 1, null, null, finished, finished, finished,
+                null, null);
+    }
+}
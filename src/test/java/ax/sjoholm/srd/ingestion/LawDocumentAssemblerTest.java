@@ -0,0 +1,91 @@
+package ax.sjoholm.srd.ingestion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import ax.sjoholm.srd.services.ingestion.LagsamlingDocumentReader.DocumentText;
+import ax.sjoholm.srd.services.ingestion.LawDocumentAssembler;
+
+@DisplayName("LawDocumentAssembler")
+class LawDocumentAssemblerTest {
+
+    private final List<Document> laws = new ArrayList<>();
+    private final LawDocumentAssembler assembler = new LawDocumentAssembler(laws::add);
+
+    @Test
+    @DisplayName("joins consecutive pages of a law and emits it when the next law starts")
+    void emitsOnLawChange() {
+        assembler.accept(new DocumentText("KL sida 1", "A 1", "Kommunallag"));
+        assembler.accept(new DocumentText("KL sida 2", "A 1", "Kommunallag"));
+        assertThat(laws).isEmpty();
+
+        assembler.accept(new DocumentText("FL sida 1", "B 2", "Förvaltningslag"));
+
+        assertThat(laws).singleElement().satisfies(law -> {
+            assertThat(law.getText()).isEqualTo("KL sida 1\nKL sida 2");
+            assertThat(law.getMetadata()).containsEntry("law_code", "A 1").containsEntry("law_name", "Kommunallag");
+        });
+    }
+
+    @Test
+    @DisplayName("lets a page without a header continue the current law")
+    void headerlessPageContinuesLaw() {
+        assembler.accept(new DocumentText("KL sida 1", "A 1", "Kommunallag"));
+        assembler.accept(new DocumentText("KL sida 2", "", ""));
+        assembler.accept(new DocumentText("KL sida 3", "A 1", "Kommunallag"));
+        assembler.finish();
+
+        assertThat(laws).singleElement().satisfies(law -> {
+            assertThat(law.getText()).isEqualTo("KL sida 1\nKL sida 2\nKL sida 3");
+            assertThat(law.getMetadata()).containsEntry("law_code", "A 1");
+        });
+    }
+
+    @Test
+    @DisplayName("takes the law name from a later page when the first has none")
+    void lateLawName() {
+        assembler.accept(new DocumentText("KL sida 1", "A 1", ""));
+        assembler.accept(new DocumentText("KL sida 2", "A 1", "Kommunallag"));
+        assembler.finish();
+
+        assertThat(laws).singleElement()
+                .satisfies(law -> assertThat(law.getMetadata()).containsEntry("law_name", "Kommunallag"));
+    }
+
+    @Test
+    @DisplayName("starts a new document when a law code comes back after another one")
+    void returningLawCode() {
+        assembler.accept(new DocumentText("A", "A 1", "Kommunallag"));
+        assembler.accept(new DocumentText("B", "B 2", "Förvaltningslag"));
+        assembler.accept(new DocumentText("A igen", "A 1", "Kommunallag"));
+        assembler.finish();
+
+        assertThat(laws).extracting(Document::getText).containsExactly("A", "B", "A igen");
+    }
+
+    @Test
+    @DisplayName("emits the last law only on finish, and only once")
+    void lastLawOnFinish() {
+        assembler.accept(new DocumentText("KL sida 1", "A 1", "Kommunallag"));
+        assertThat(laws).isEmpty();
+
+        assembler.finish();
+        assembler.finish();
+
+        assertThat(laws).extracting(Document::getText).containsExactly("KL sida 1");
+    }
+
+    @Test
+    @DisplayName("emits nothing without pages")
+    void noPages() {
+        assembler.finish();
+
+        assertThat(laws).isEmpty();
+    }
+}
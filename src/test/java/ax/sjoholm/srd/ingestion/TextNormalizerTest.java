@@ -0,0 +1,100 @@
+package ax.sjoholm.srd.ingestion;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ax.sjoholm.srd.services.ingestion.TextNormalizer;
+
+/**
+ * Checks the single-pass normalizer against the regex pipelines it replaced, on hand-picked
+ * cases and on random strings built from the characters those pipelines treat specially.
+ */
+@DisplayName("TextNormalizer")
+class TextNormalizerTest {
+
+    private static final char[] ALPHABET = {
+            'a', 'Ö', '1', '§', '.', ' ', ' ', '\t', '\n', '\n', '\r', '-', '-',
+            '\u0001', '\u000B', '\f', '\u007F', '\u0085', ' '
+    };
+
+    @Test
+    @DisplayName("cleans extracted PDF text")
+    void cleansExtractedText() {
+        String raw = "  1 kap.  Inledande\tbestämmelser\r\n\r\n\r\n\r\nLagen gäller tillämp-\r\n  ning\u0001 av\t\tlagen. \n";
+
+        assertThat(TextNormalizer.EXTRACTED_TEXT.normalize(raw))
+                .isEqualTo("1 kap. Inledande\tbestämmelser\n\nLagen gäller tillämpning av lagen.");
+    }
+
+    @Test
+    @DisplayName("keeps a hyphen that is not followed by a letter on the next line")
+    void keepsHyphenBeforeNonLetter() {
+        assertThat(TextNormalizer.EXTRACTED_TEXT.normalize("2019-\n2020 och radio- och tv"))
+                .isEqualTo("2019-\n2020 och radio- och tv");
+    }
+
+    @Test
+    @DisplayName("matches the regex pipelines on random input")
+    void matchesRegexPipelines() {
+        Random random = new Random(3);
+        for (int i = 0; i < 20_000; i++) {
+            String text = randomText(random);
+
+            assertThat(TextNormalizer.EXTRACTED_TEXT.normalize(text)).as("extracted %s", text)
+                    .isEqualTo(regexExtracted(text));
+            assertThat(TextNormalizer.WHITESPACE.normalize(text)).as("whitespace %s", text)
+                    .isEqualTo(regexWhitespace(text));
+            assertThat(TextNormalizer.lines(text)).as("lines %s", text)
+                    .isEqualTo(regexLines(text));
+            assertThat(TextNormalizer.trimmedLines(text)).as("trimmed lines %s", text)
+                    .isEqualTo(regexTrimmedLines(text));
+        }
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(25);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+        }
+        return sb.toString();
+    }
+
+    // the pipelines previously in LagsamlingDocumentReader, DocumentProcessor,
+    // HeadingNormalizer and SectionSegmenter
+
+    private static String regexExtracted(String text) {
+        String normalized = text.replace("\r\n", "\n").replace('\r', '\n');
+        normalized = normalized.replaceAll("[\\p{Cc}&&[^\\n\\t]]", "");
+        normalized = normalized.replaceAll("-\\s*\\n\\s*(?=\\p{L})", "");
+        normalized = normalized.replaceAll("[\\t ]{2,}", " ");
+        normalized = normalized.replaceAll("\\n{3,}", "\n\n");
+        return normalized.trim();
+    }
+
+    private static String regexWhitespace(String text) {
+        String normalized = text.replace("\r\n", "\n").replace('\r', '\n');
+        normalized = normalized.replaceAll("[\\t ]{2,}", " ");
+        return normalized.replaceAll("\\n{3,}", "\n\n");
+    }
+
+    private static List<String> regexLines(String text) {
+        return Arrays.asList(text.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1));
+    }
+
+    private static List<String> regexTrimmedLines(String text) {
+        String t = text.replace("\r\n", "\n").replace('\r', '\n').replaceAll("[\\t ]{2,}", " ");
+        List<String> out = new ArrayList<>();
+        for (String s : t.split("\n")) {
+            out.add(s.trim());
+        }
+        return out;
+    }
+}
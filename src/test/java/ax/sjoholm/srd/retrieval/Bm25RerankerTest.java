@@ -0,0 +1,63 @@
+package ax.sjoholm.srd.retrieval;
+
+import static ax.sjoholm.srd.TestDocuments.chunk;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import ax.sjoholm.srd.services.retrieval.Bm25Reranker;
+
+@DisplayName("Bm25Reranker")
+class Bm25RerankerTest {
+
+    private static final List<Document> CANDIDATES = List.of(
+            chunk("a", "Landskapsregeringen beslutar om tillstånd för radio- och televisionsverksamhet."),
+            chunk("b", "Fullmäktige väljer ledamöter till styrelsen för den tid som fullmäktige bestämmer."),
+            chunk("c", "Avgiften för tillstånd att utöva televisionsverksamhet fastställs av landskapsregeringen."),
+            chunk("d", "Kommunen ska ordna barnomsorg enligt denna lag."),
+            chunk("e", "Besvär över beslut anförs hos förvaltningsdomstolen."),
+            chunk("f", "Kommunens fullmäktige sammanträder minst fyra gånger per år."));
+
+    @Test
+    @DisplayName("moves lexically matching chunks to the front and cuts off the rest")
+    void promotesMatchingChunks() {
+        var reranker = new Bm25Reranker(0.7, 0.6, 1, 4);
+
+        List<Document> kept = reranker.rerank("Hur ofta sammanträder kommunens fullmäktige?", CANDIDATES);
+
+        assertThat(kept).extracting(Document::getId).startsWith("f").contains("b").hasSizeLessThan(4);
+    }
+
+    @Test
+    @DisplayName("keeps at least min-chunks and at most max-chunks")
+    void respectsBounds() {
+        assertThat(new Bm25Reranker(0.7, 1.0, 2, 4).rerank("avgift för tillstånd", CANDIDATES)).hasSize(2);
+        assertThat(new Bm25Reranker(0.7, 0.0, 1, 3).rerank("avgift för tillstånd", CANDIDATES)).hasSize(3);
+    }
+
+    @Test
+    @DisplayName("keeps the retrieval order when the question has no usable terms")
+    void keepsOrderWithoutTerms() {
+        List<Document> kept = new Bm25Reranker(0.7, 0.6, 1, 3).rerank("och att?", CANDIDATES);
+
+        assertThat(kept).extracting(Document::getId).containsExactly("a", "b", "c");
+    }
+
+    @Test
+    @DisplayName("does not score the law header of a chunk")
+    void ignoresHeader() {
+        List<Document> candidates = List.of(
+                chunk("x", "Ledamöter väljs för fyra år."),
+                chunk("y", "[law=A 1 | Avgiftslag | kap 2 | § 3 | url=https://example.ax/avgift]\n"
+                        + "Ledamöter väljs av fullmäktige."),
+                chunk("z", "Avgiften betalas i förskott."));
+
+        List<Document> kept = new Bm25Reranker(1.0, 0.5, 1, 3).rerank("Vilken avgift?", candidates);
+
+        assertThat(kept).extracting(Document::getId).containsExactly("z");
+    }
+}
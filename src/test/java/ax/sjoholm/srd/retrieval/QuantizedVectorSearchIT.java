@@ -0,0 +1,181 @@
+package ax.sjoholm.srd.retrieval;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestReporter;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ax.sjoholm.srd.services.retrieval.QuantizedVectorSearch;
+
+/**
+ * Recall against an exact full-precision scan, and mean query latency, for each quantization
+ * mode, published as test report entries. Needs a Postgres with pgvector 0.7+; set {@code IT_DB_URL} (and {@code IT_DB_USER} /
+ * {@code IT_DB_PASS}) to run it. The synthetic vectors are clustered and, like a Matryoshka
+ * embedding, carry most of their variance in the leading dimensions.
+ */
+@DisplayName("QuantizedVectorSearch")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfEnvironmentVariable(named = "IT_DB_URL", matches = ".+")
+class QuantizedVectorSearchIT {
+
+    private static final String TABLE = "vector_store_quantization_it";
+    private static final int DIMENSIONS = 256;
+    private static final int SIZE = 5000;
+    private static final int CLUSTERS = 50;
+    private static final int QUERIES = 50;
+    private static final int K = 10;
+
+    private final Random random = new Random(11);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private float[][] centroids;
+
+    @BeforeAll
+    void createTable() {
+        var dataSource = new DriverManagerDataSource(System.getenv("IT_DB_URL"),
+                System.getenv().getOrDefault("IT_DB_USER", "postgres"),
+                System.getenv().getOrDefault("IT_DB_PASS", "devcontainer"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS public." + TABLE);
+        jdbcTemplate.execute("CREATE TABLE public." + TABLE
+                + " (id uuid PRIMARY KEY, content text, metadata json, embedding vector(" + DIMENSIONS + "))");
+
+        centroids = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centroids[c] = gaussian(1.0f);
+        }
+        List<Object[]> rows = new ArrayList<>(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            rows.add(new Object[] { UUID.randomUUID(), "chunk " + i, "{\"n\":" + i + "}", literal(sample()) });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO public." + TABLE
+                + " (id, content, metadata, embedding) VALUES (?, ?, ?::json, ?::vector)", rows);
+        jdbcTemplate.execute("ANALYZE public." + TABLE);
+    }
+
+    @AfterAll
+    void dropTable() {
+        if (jdbcTemplate != null) {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS public." + TABLE);
+        }
+    }
+
+    @Test
+    @DisplayName("re-scored quantized search keeps recall close to an exact scan")
+    void recallAndLatency(TestReporter reporter) {
+        List<float[]> queries = new ArrayList<>(QUERIES);
+        List<List<String>> exact = new ArrayList<>(QUERIES);
+        long exactNanos = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            float[] query = sample();
+            long start = System.nanoTime();
+            exact.add(jdbcTemplate.queryForList("SELECT id::text FROM public." + TABLE
+                    + " ORDER BY embedding <=> ?::vector LIMIT " + K, String.class, literal(query)));
+            exactNanos += System.nanoTime() - start;
+            queries.add(query);
+        }
+
+        Map<String, double[]> results = new LinkedHashMap<>();
+        results.put("exact scan", new double[] { 1.0, exactNanos / 1e6 / QUERIES });
+        for (var mode : QuantizedVectorSearch.Mode.values()) {
+            for (int dimensions : new int[] { DIMENSIONS, 128, 64 }) {
+                var search = new QuantizedVectorSearch(jdbcTemplate, transactionTemplate, objectMapper,
+                        "public", TABLE, mode, dimensions, 40);
+                search.initializeSchema();
+                results.put(mode + "/" + dimensions, measure(search, queries, exact));
+            }
+        }
+
+        results.forEach((name, r) -> reporter.publishEntry(name,
+                String.format(Locale.ROOT, "recall %.3f, mean %.2f ms", r[0], r[1])));
+
+        assertThat(results.get("HALFVEC/" + DIMENSIONS)[0]).isGreaterThanOrEqualTo(0.95);
+        assertThat(results.get("BINARY/" + DIMENSIONS)[0]).isGreaterThanOrEqualTo(0.7);
+    }
+
+    @Test
+    @DisplayName("keeps only the vector index of the current mode")
+    void dropsStaleIndexes() {
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + TABLE + "_full_idx ON public." + TABLE
+                + " USING hnsw (embedding vector_cosine_ops)");
+        for (var mode : QuantizedVectorSearch.Mode.values()) {
+            new QuantizedVectorSearch(jdbcTemplate, transactionTemplate, objectMapper, "public", TABLE, mode, 64, 40)
+                    .initializeSchema();
+            assertThat(vectorIndexes()).containsExactly(TABLE + "_embedding_" + mode.name().toLowerCase(Locale.ROOT)
+                    + "64_idx");
+        }
+
+        QuantizedVectorSearch.dropIndexes(jdbcTemplate, "public", TABLE);
+        assertThat(vectorIndexes()).isEmpty();
+    }
+
+    private List<String> vectorIndexes() {
+        return jdbcTemplate.queryForList("SELECT indexname FROM pg_indexes WHERE schemaname = 'public'"
+                + " AND tablename = ? AND indexdef ~* ' USING hnsw '", String.class, TABLE);
+    }
+
+    private double[] measure(QuantizedVectorSearch search, List<float[]> queries, List<List<String>> exact) {
+        search.search(queries.get(0), K, 0.0); // warm up the index pages
+        int found = 0;
+        long nanos = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            long start = System.nanoTime();
+            List<Document> hits = search.search(queries.get(q), K, 0.0);
+            nanos += System.nanoTime() - start;
+            var expected = new HashSet<>(exact.get(q));
+            found += (int) hits.stream().filter(d -> expected.contains(d.getId())).count();
+        }
+        return new double[] { (double) found / (queries.size() * K), nanos / 1e6 / queries.size() };
+    }
+
+    private float[] sample() {
+        float[] centroid = centroids[random.nextInt(CLUSTERS)];
+        float[] noise = gaussian(0.35f);
+        for (int i = 0; i < DIMENSIONS; i++) {
+            noise[i] += centroid[i];
+        }
+        return noise;
+    }
+
+    private float[] gaussian(float scale) {
+        float[] v = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            // variance falls off with the index, as in a Matryoshka-trained embedding
+            v[i] = (float) (random.nextGaussian() * scale / Math.sqrt(1.0 + i / 16.0));
+        }
+        return v;
+    }
+
+    private static String literal(float[] vector) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < vector.length; i++) {
+            sb.append(i == 0 ? "" : ",").append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,53 @@
+package ax.sjoholm.srd.retrieval;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ax.sjoholm.srd.services.retrieval.StatuteReference;
+
+@DisplayName("StatuteReference")
+class StatuteReferenceTest {
+
+    @Test
+    @DisplayName("parses chapter, section and law name")
+    void parsesChapterSectionAndLawName() {
+        assertThat(StatuteReference.parse("Vad säger 3 kap. 12 § kommunallagen?"))
+                .contains(new StatuteReference("12", "3", null, null, "kommunallag"));
+    }
+
+    @Test
+    @DisplayName("parses section letters and law codes")
+    void parsesSectionLetterAndLawCode() {
+        assertThat(StatuteReference.parse("Vad står det i 17 a § i E 1?"))
+                .contains(new StatuteReference("17a", null, "E 1", null, null));
+        assertThat(StatuteReference.parse("1a §. i N 1"))
+                .contains(new StatuteReference("1a", null, "N 1", null, null));
+    }
+
+    @Test
+    @DisplayName("parses law numbers and section-first notation")
+    void parsesLawNumberAndSectionFirst() {
+        assertThat(StatuteReference.parse("§ 4 i landskapslagen (2011:95) om radio- och televisionsverksamhet"))
+                .contains(new StatuteReference("4", null, null, "2011:95", null));
+        assertThat(StatuteReference.parse("kapitel 2, 5 § förvaltningslag"))
+                .contains(new StatuteReference("5", "2", null, null, "förvaltningslag"));
+    }
+
+    @Test
+    @DisplayName("does not mistake chapter and section numbers for law codes")
+    void chapterAfterCapitalIsNotLawCode() {
+        assertThat(StatuteReference.parse("I 5 kap. 2 § finns bestämmelser om vad?"))
+                .contains(new StatuteReference("2", "5", null, null, null));
+    }
+
+    @Test
+    @DisplayName("ignores questions without a resolvable reference")
+    void ignoresQuestionsWithoutReference() {
+        assertThat(StatuteReference.parse("Hur ansöker jag om bygglov?")).isEmpty();
+        assertThat(StatuteReference.parse("Vad säger 12 §?")).isEmpty();
+        assertThat(StatuteReference.parse("Vad säger kommunallagen om fullmäktige?")).isEmpty();
+        assertThat(StatuteReference.parse(null)).isEmpty();
+    }
+}
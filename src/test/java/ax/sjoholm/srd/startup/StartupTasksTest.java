@@ -0,0 +1,87 @@
+package ax.sjoholm.srd.startup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.core.metrics.ApplicationStartup;
+
+import ax.sjoholm.srd.services.startup.StartupTasks;
+
+@DisplayName("StartupTasks")
+class StartupTasksTest {
+
+    @Test
+    @DisplayName("runs deferred tasks in order after start, retrying failures, and reports readiness")
+    void runsDeferredTasksInOrder() throws Exception {
+        var tasks = new StartupTasks(true, Duration.ofMillis(10), ApplicationStartup.DEFAULT);
+        List<String> ran = new ArrayList<>();
+        AtomicInteger attempts = new AtomicInteger();
+        tasks.add("schema", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("database not up yet");
+            }
+            if (attempts.get() == 2) {
+                throw new NoClassDefFoundError("org/postgresql/Driver");
+            }
+            ran.add("schema");
+        });
+        tasks.add("models", () -> ran.add("models"));
+
+        assertThat(ran).isEmpty();
+        assertThat(tasks.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+        tasks.start();
+        try {
+            tasks.awaitCompletion(Duration.ofSeconds(10));
+        } finally {
+            tasks.stop();
+        }
+
+        assertThat(ran).containsExactly("schema", "models");
+        assertThat(attempts).hasValue(3);
+        assertThat(tasks.health().getStatus()).isEqualTo(Status.UP);
+    }
+
+    @Test
+    @DisplayName("stops waiting for tasks that are not done within the timeout")
+    void awaitTimesOut() throws InterruptedException {
+        var tasks = new StartupTasks(true, Duration.ofMillis(10), ApplicationStartup.DEFAULT);
+        var release = new CountDownLatch(1);
+        tasks.add("models", release::await);
+
+        tasks.start();
+        try {
+            assertThatThrownBy(() -> tasks.awaitCompletion(Duration.ofMillis(50)))
+                    .isInstanceOf(TimeoutException.class)
+                    .hasMessageContaining("[models]");
+        } finally {
+            release.countDown();
+            tasks.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("runs tasks at once and fails with them when not deferred")
+    void runsImmediatelyWhenNotDeferred() {
+        var tasks = new StartupTasks(false, Duration.ofSeconds(5), ApplicationStartup.DEFAULT);
+        List<String> ran = new ArrayList<>();
+
+        tasks.add("schema", () -> ran.add("schema"));
+
+        assertThat(ran).containsExactly("schema");
+        assertThat(tasks.health().getStatus()).isEqualTo(Status.UP);
+        assertThatThrownBy(() -> tasks.add("models", () -> {
+            throw new IllegalStateException("Ollama not reachable");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("Ollama not reachable");
+    }
+}
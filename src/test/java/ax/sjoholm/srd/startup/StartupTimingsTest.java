@@ -0,0 +1,42 @@
+package ax.sjoholm.srd.startup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ax.sjoholm.srd.services.startup.StartupTimings;
+import ax.sjoholm.srd.services.startup.StartupTimings.Entry;
+import ax.sjoholm.srd.services.startup.StartupTimings.Step;
+
+@DisplayName("StartupTimings")
+class StartupTimingsTest {
+
+    @Test
+    @DisplayName("ranks beans by their time without the dependencies they created")
+    void ranksBeansBySelfTime() {
+        List<Step> steps = List.of(
+                step(4, 2L, StartupTimings.BEAN_STEP, "embeddingModel", 300),
+                step(3, 2L, StartupTimings.BEAN_STEP, "jdbcTemplate", 50),
+                step(2, 1L, StartupTimings.BEAN_STEP, "vectorStore", 400),
+                step(5, 1L, StartupTimings.BEAN_STEP, "chatClient", 80),
+                step(1, null, "spring.context.refresh", null, 900),
+                step(6, null, "spring.boot.application.environment-prepared", null, 120));
+
+        StartupTimings.Summary summary = StartupTimings.summarize(steps, 2);
+
+        assertThat(summary.beans()).containsExactly(
+                new Entry("embeddingModel", Duration.ofMillis(300)),
+                new Entry("chatClient", Duration.ofMillis(80)));
+        assertThat(summary.instantiation()).isEqualTo(Duration.ofMillis(480));
+        assertThat(summary.phases()).extracting(Entry::name)
+                .containsExactly("spring.context.refresh", "spring.boot.application.environment-prepared");
+    }
+
+    private static Step step(long id, Long parentId, String name, String bean, long millis) {
+        return new Step(id, parentId, name, bean, Duration.ofMillis(millis));
+    }
+}
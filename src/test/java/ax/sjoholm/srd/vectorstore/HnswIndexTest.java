@@ -0,0 +1,125 @@
+package ax.sjoholm.srd.vectorstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import ax.sjoholm.srd.services.vectorstore.HnswIndex;
+
+@DisplayName("HnswIndex")
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 48;
+    private static final int SIZE = 3000;
+
+    private final Random random = new Random(7);
+
+    @Test
+    @DisplayName("finds nearly the same neighbours as an exact search")
+    void recallAgainstBruteForce() {
+        float[][] data = randomVectors(SIZE);
+        HnswIndex index = new HnswIndex(16, 100, 1L);
+        for (float[] vector : data) {
+            index.add(vector);
+        }
+
+        int k = 10;
+        int found = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector();
+            List<Integer> exact = bruteForce(data, query, k, n -> true);
+            List<Integer> approximate = index.search(query, k, 64, n -> true).stream()
+                    .map(HnswIndex.Hit::node)
+                    .toList();
+            found += (int) approximate.stream().filter(exact::contains).count();
+        }
+
+        assertThat(found / (double) (queries * k)).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    @DisplayName("returns exact matches first with cosine similarity 1")
+    void exactMatchFirst() {
+        float[][] data = randomVectors(500);
+        HnswIndex index = new HnswIndex(8, 50, 1L);
+        for (float[] vector : data) {
+            index.add(vector);
+        }
+
+        float[] scaled = data[123].clone();
+        for (int i = 0; i < scaled.length; i++) {
+            scaled[i] *= 3;
+        }
+        List<HnswIndex.Hit> hits = index.search(scaled, 3, 32, n -> true);
+
+        assertThat(hits.get(0).node()).isEqualTo(123);
+        assertThat(hits.get(0).similarity()).isCloseTo(1f, offset(1e-5f));
+        assertThat(hits).isSortedAccordingTo(Comparator.comparing(HnswIndex.Hit::similarity).reversed());
+    }
+
+    @Test
+    @DisplayName("only returns nodes accepted by the predicate, even when they are rare")
+    void filteredSearch() {
+        float[][] data = randomVectors(SIZE);
+        HnswIndex index = new HnswIndex(16, 100, 1L);
+        for (float[] vector : data) {
+            index.add(vector);
+        }
+
+        float[] query = randomVector();
+        List<HnswIndex.Hit> hits = index.search(query, 5, 32, n -> n % 100 == 0);
+
+        assertThat(hits).hasSize(5).allMatch(hit -> hit.node() % 100 == 0);
+        assertThat(hits.stream().map(HnswIndex.Hit::node).toList())
+                .isEqualTo(bruteForce(data, query, 5, n -> n % 100 == 0));
+    }
+
+    @Test
+    @DisplayName("returns nothing when empty")
+    void emptyIndex() {
+        assertThat(new HnswIndex(8, 50, 1L).search(randomVector(), 5, 32, n -> true)).isEmpty();
+    }
+
+    private List<Integer> bruteForce(float[][] data, float[] query, int k, IntPredicate accept) {
+        return IntStream.range(0, data.length)
+                .filter(accept)
+                .boxed()
+                .sorted(Comparator.comparingDouble((Integer n) -> -cosine(data[n], query)))
+                .limit(k)
+                .toList();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    private float[][] randomVectors(int n) {
+        float[][] out = new float[n][];
+        Arrays.setAll(out, i -> randomVector());
+        return out;
+    }
+
+    private float[] randomVector() {
+        float[] v = new float[DIMENSIONS];
+        for (int i = 0; i < v.length; i++) {
+            v[i] = (float) random.nextGaussian();
+        }
+        return v;
+    }
+}
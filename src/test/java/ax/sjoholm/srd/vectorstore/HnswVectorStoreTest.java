@@ -0,0 +1,140 @@
+package ax.sjoholm.srd.vectorstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.data.Offset.offset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import ax.sjoholm.srd.services.vectorstore.HnswVectorStore;
+
+@DisplayName("HnswVectorStore")
+class HnswVectorStoreTest {
+
+    private final HnswVectorStore store = new HnswVectorStore(new CoordinateEmbeddingModel(), List::of, 8, 50, 32);
+
+    @Test
+    @DisplayName("keeps hits at exactly the similarity threshold and reports score and distance")
+    void inclusiveThreshold() {
+        store.add(List.of(
+                new Document("same", "1 0 0", Map.of()),
+                new Document("diagonal", "1 1 0", Map.of()),
+                new Document("orthogonal", "0 1 0", Map.of())));
+
+        List<Document> hits = store.similaritySearch(request("1 0 0").similarityThreshold(1.0).build());
+        assertThat(hits).extracting(Document::getId).containsExactly("same");
+        assertThat(hits.get(0).getScore()).isCloseTo(1.0, offset(1e-6));
+        assertThat((Float) hits.get(0).getMetadata().get("distance")).isCloseTo(0f, offset(1e-6f));
+
+        assertThat(store.similaritySearch(request("1 0 0").similarityThreshold(0.7).build()))
+                .extracting(Document::getId)
+                .containsExactly("same", "diagonal");
+    }
+
+    @Test
+    @DisplayName("hides replaced and deleted documents")
+    void tombstones() {
+        store.add(List.of(
+                new Document("a", "1 0 0", Map.of("law_code", "KL")),
+                new Document("b", "0 1 0", Map.of("law_code", "FL")),
+                new Document("c", "0 0 1", Map.of("law_code", "FL"))));
+        // replacing "a" moves it away from the query
+        store.add(List.of(new Document("a", "0 1 1", Map.of("law_code", "KL"))));
+
+        List<Document> hits = store.similaritySearch(request("1 0 0").build());
+        assertThat(hits).extracting(Document::getId).containsExactlyInAnyOrder("a", "b", "c");
+        assertThat(hits).filteredOn(d -> d.getId().equals("a")).extracting(Document::getText)
+                .containsExactly("0 1 1");
+
+        store.delete(List.of("b"));
+        store.delete(new FilterExpressionBuilder().eq("law_code", "KL").build());
+
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.similaritySearch(request("1 0 0").build())).extracting(Document::getId)
+                .containsExactly("c");
+    }
+
+    @Test
+    @DisplayName("rebuilds the graph from the live documents once half of it is deleted")
+    void compacts() {
+        for (int round = 0; round < 5; round++) {
+            List<Document> documents = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                documents.add(new Document("d" + i, (i + 1) + " " + round + " 1", Map.of("round", round)));
+            }
+            store.delete(new FilterExpressionBuilder().lt("round", round).build());
+            store.add(documents);
+        }
+
+        assertThat(store.size()).isEqualTo(40);
+        assertThat(store.nodes()).isLessThan(80);
+        assertThat(store.similaritySearch(request("1 4 1").topK(1).build()))
+                .extracting(Document::getId, d -> d.getMetadata().get("round"))
+                .containsExactly(tuple("d0", 4));
+    }
+
+    @Test
+    @DisplayName("returns only documents matching the filter expression, even when others are closer")
+    void filters() {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            documents.add(new Document("kl-" + i, "1 " + (i / 100.0) + " 0", Map.of("law_code", "KL", "year", 2000 + i)));
+        }
+        documents.add(new Document("fl", "0 1 0", Map.of("law_code", "FL", "year", 2020)));
+        store.add(documents);
+
+        assertThat(store.similaritySearch(request("1 0 0").filterExpression("law_code == 'FL'").build()))
+                .extracting(Document::getId)
+                .containsExactly("fl");
+        assertThat(store.similaritySearch(request("1 0 0").filterExpression("law_code == 'KL' && year >= 2045").build()))
+                .extracting(Document::getId)
+                .containsExactlyInAnyOrder("kl-45", "kl-46", "kl-47", "kl-48", "kl-49");
+    }
+
+    private static SearchRequest.Builder request(String query) {
+        return SearchRequest.builder().query(query).topK(10).similarityThresholdAll();
+    }
+
+    /**
+     * Embeds a text as the space-separated coordinates on its last line, so that the metadata the
+     * store prepends when embedding documents is ignored.
+     */
+    private static final class CoordinateEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(coordinates(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return coordinates(document.getText());
+        }
+
+        private static float[] coordinates(String text) {
+            String[] lines = text.strip().split("\n");
+            String[] parts = lines[lines.length - 1].strip().split(" ");
+            float[] vector = new float[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                vector[i] = Float.parseFloat(parts[i]);
+            }
+            return vector;
+        }
+    }
+}
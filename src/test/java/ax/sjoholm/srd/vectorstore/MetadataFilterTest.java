@@ -0,0 +1,102 @@
+package ax.sjoholm.srd.vectorstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import ax.sjoholm.srd.services.vectorstore.MetadataFilter;
+
+@DisplayName("MetadataFilter")
+class MetadataFilterTest {
+
+    private static final Map<String, Object> METADATA = Map.of(
+            "law_code", "KL",
+            "chapter_no", "3",
+            "year", 2015L,
+            "weight", 0.5,
+            "current", true);
+
+    private final FilterExpressionBuilder b = new FilterExpressionBuilder();
+
+    @Test
+    @DisplayName("compares numbers numerically whatever their boxed type")
+    void numbers() {
+        assertThat(matches(b.eq("year", 2015))).isTrue();
+        assertThat(matches(b.eq("year", 2015.0))).isTrue();
+        assertThat(matches(b.gt("year", 2014))).isTrue();
+        assertThat(matches(b.lte("weight", 0.5f))).isTrue();
+        assertThat(matches(b.lt("weight", 0.5))).isFalse();
+    }
+
+    @Test
+    @DisplayName("does not equate values of different types")
+    void typedEquality() {
+        assertThat(matches(b.eq("chapter_no", 3))).isFalse();
+        assertThat(matches(b.eq("year", "2015"))).isFalse();
+        assertThat(matches(b.eq("current", "true"))).isFalse();
+        assertThat(matches(b.eq("current", true))).isTrue();
+        assertThat(matches(b.gt("chapter_no", 2))).isFalse();
+    }
+
+    @Test
+    @DisplayName("compares strings lexicographically")
+    void strings() {
+        assertThat(matches(b.eq("law_code", "KL"))).isTrue();
+        assertThat(matches(b.ne("law_code", "FL"))).isTrue();
+        assertThat(matches(b.gte("law_code", "KA"))).isTrue();
+    }
+
+    @Test
+    @DisplayName("matches IN and NIN against a list")
+    void inAndNotIn() {
+        assertThat(matches(b.in("law_code", "FL", "KL"))).isTrue();
+        assertThat(matches(b.in("year", 2014, 2015))).isTrue();
+        assertThat(matches(b.nin("law_code", "FL", "KL"))).isFalse();
+        assertThat(matches(b.nin("chapter_no", "1", "2"))).isTrue();
+    }
+
+    @Test
+    @DisplayName("combines expressions with AND, OR, NOT and groups")
+    void booleanOperators() {
+        var kl = b.eq("law_code", "KL");
+        var old = b.lt("year", 2000);
+        assertThat(matches(b.and(kl, b.not(old)))).isTrue();
+        assertThat(matches(b.and(b.group(b.or(old, b.eq("law_code", "FL"))), kl))).isFalse();
+        assertThat(matches(b.or(old, b.group(b.and(kl, b.eq("current", true)))))).isTrue();
+    }
+
+    @Test
+    @DisplayName("treats a missing key as null: comparisons are false, IS NULL is true")
+    void missingKey() {
+        assertThat(matches(b.eq("section_no", "1"))).isFalse();
+        assertThat(matches(b.ne("section_no", "1"))).isFalse();
+        assertThat(matches(b.nin("section_no", "1"))).isFalse();
+        assertThat(matches(b.gt("section_no", 1))).isFalse();
+        assertThat(MetadataFilter.matches(isNull("section_no", true), METADATA)).isTrue();
+        assertThat(MetadataFilter.matches(isNull("section_no", false), METADATA)).isFalse();
+        assertThat(MetadataFilter.matches(isNull("law_code", false), METADATA)).isTrue();
+    }
+
+    @Test
+    @DisplayName("accepts quoted keys")
+    void quotedKeys() {
+        var expression = new Filter.Expression(Filter.ExpressionType.EQ, new Filter.Key("\"law_code\""),
+                new Filter.Value("KL"));
+
+        assertThat(MetadataFilter.matches(expression, METADATA)).isTrue();
+    }
+
+    private boolean matches(FilterExpressionBuilder.Op op) {
+        return MetadataFilter.matches(op.build(), METADATA);
+    }
+
+    private static Filter.Expression isNull(String key, boolean isNull) {
+        return new Filter.Expression(isNull ? Filter.ExpressionType.ISNULL : Filter.ExpressionType.ISNOTNULL,
+                new Filter.Key(key));
+    }
+}
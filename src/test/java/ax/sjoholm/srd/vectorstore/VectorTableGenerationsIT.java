@@ -0,0 +1,147 @@
+package ax.sjoholm.srd.vectorstore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore.PgIndexType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import ax.sjoholm.srd.services.vectorstore.VectorTableGenerations;
+import ax.sjoholm.srd.services.vectorstore.VectorTableGenerations.Generation;
+
+/**
+ * Adoption of a plain table, the view switch and the removal of old generations. Needs a
+ * Postgres with pgvector; set {@code IT_DB_URL} (and {@code IT_DB_USER} / {@code IT_DB_PASS})
+ * to run it.
+ */
+@DisplayName("VectorTableGenerations")
+@EnabledIfEnvironmentVariable(named = "IT_DB_URL", matches = ".+")
+class VectorTableGenerationsIT {
+
+    private static final String VIEW = "vector_store_generations_it";
+
+    private JdbcTemplate jdbcTemplate;
+    private VectorTableGenerations generations;
+
+    @BeforeEach
+    void setUp() {
+        var dataSource = new DriverManagerDataSource(System.getenv("IT_DB_URL"),
+                System.getenv().getOrDefault("IT_DB_USER", "postgres"),
+                System.getenv().getOrDefault("IT_DB_PASS", "devcontainer"));
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        var transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+
+        dropAll();
+        jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS vector");
+        jdbcTemplate.execute("CREATE TABLE public." + VIEW
+                + " (id uuid PRIMARY KEY, content text, metadata json, embedding vector(3))");
+        insert(VIEW, 1);
+
+        generations = new VectorTableGenerations(jdbcTemplate, transactionTemplate, "public", VIEW,
+                table -> PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                        .schemaName("public")
+                        .vectorTableName(table)
+                        .dimensions(3)
+                        .indexType(PgIndexType.NONE)
+                        .vectorTableValidationsEnabled(false)
+                        .initializeSchema(true)
+                        .build(),
+                List.of(), "hnsw (embedding vector_cosine_ops)", 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dropAll();
+    }
+
+    @Test
+    @DisplayName("adopts a plain table as the first generation")
+    void adoptsPlainTable() {
+        generations.initialize(false);
+
+        assertThat(generations.active()).hasValue(1);
+        assertThat(rows(VIEW)).isEqualTo(1);
+        assertThat(indexes(VIEW + "_g1")).contains(VIEW + "_g1_embedding_idx");
+    }
+
+    @Test
+    @DisplayName("switches the view to a loaded shadow and drops generations no longer retained")
+    void switchesToShadow() {
+        generations.initialize(false);
+
+        Generation second = generations.createShadow();
+        insert(second.table(), 3);
+        assertThat(rows(VIEW)).isEqualTo(1);
+        generations.activate(second);
+        assertThat(generations.active()).hasValue(2);
+        assertThat(rows(VIEW)).isEqualTo(3);
+        assertThat(indexes(second.table())).contains(second.table() + "_embedding_idx");
+
+        Generation third = generations.createShadow();
+        insert(third.table(), 2);
+        generations.activate(third);
+        assertThat(rows(VIEW)).isEqualTo(2);
+        assertThat(tables()).containsExactlyInAnyOrder(VIEW + "_g2", VIEW + "_g3");
+
+        Generation failed = generations.createShadow();
+        generations.discard(failed);
+        assertThat(tables()).doesNotContain(failed.table());
+        assertThat(generations.active()).hasValue(3);
+    }
+
+    @Test
+    @DisplayName("drops an unfinished shadow on restart")
+    void dropsOrphanedShadow() {
+        generations.initialize(false);
+        Generation orphan = generations.createShadow();
+
+        generations.initialize(false);
+
+        assertThat(tables()).containsExactly(VIEW + "_g1");
+        assertThat(generations.active()).hasValue(1);
+        assertThat(orphan.number()).isEqualTo(2);
+    }
+
+    private void insert(String table, int count) {
+        for (int i = 0; i < count; i++) {
+            jdbcTemplate.update("INSERT INTO public." + table + " (id, content, metadata, embedding)"
+                    + " VALUES (?, ?, '{}'::json, '[1,0,0]'::vector)", UUID.randomUUID(), "chunk " + i);
+        }
+    }
+
+    private int rows(String relation) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM public." + relation, Integer.class);
+    }
+
+    private List<String> indexes(String table) {
+        return jdbcTemplate.queryForList("SELECT indexname FROM pg_indexes WHERE schemaname = 'public'"
+                + " AND tablename = ?", String.class, table);
+    }
+
+    private List<String> tables() {
+        return jdbcTemplate.queryForList("SELECT tablename FROM pg_tables WHERE schemaname = 'public'"
+                + " AND tablename LIKE ?", String.class, VIEW + "\\_g%");
+    }
+
+    private void dropAll() {
+        jdbcTemplate.execute("DROP VIEW IF EXISTS public." + VIEW);
+        jdbcTemplate.execute("DROP TABLE IF EXISTS public." + VIEW);
+        for (String table : tables()) {
+            jdbcTemplate.execute("DROP TABLE public." + table);
+        }
+    }
+}